@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotUtil;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.SlotAvailabilityIndex;
+
+/**
+ * Availability fields of the appointment documents: building of the availability index of a form and time until availability and places before each
+ * appointment, the successor of the former getTimeUntilAvailability.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class AvailabilityBenchmark
+{
+    private static final int ID_FORM = 1;
+    private static final int NB_APPOINTMENTS = 10000;
+
+    /**
+     * Number of slots of the form
+     */
+    @Param( {
+            "1000", "10000", "100000"
+    } )
+    public int nbSlots;
+
+    private List<Slot> _listSlot;
+    private SlotAvailabilityIndex _availabilityIndex;
+    private List<AppointmentDataObject> _listAppointment;
+    private AppointmentForm _appointmentForm;
+    private long _lNow;
+
+    /**
+     * Generate the slots and the appointments of the form
+     * 
+     * @throws Exception
+     *             if Lutece cannot be initialized
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkData.initLutece( );
+        _listSlot = BenchmarkData.buildSlots( ID_FORM, nbSlots );
+        _availabilityIndex = SlotAvailabilityIndex.build( _listSlot, Long.MAX_VALUE );
+        _appointmentForm = new AppointmentForm( BenchmarkData.buildForm( ID_FORM ), null );
+        _listAppointment = new ArrayList<>( NB_APPOINTMENTS );
+        for ( AppointmentIndex appointment : BenchmarkData.buildAppointments( _listSlot, NB_APPOINTMENTS ) )
+        {
+            _listAppointment.add( new AppointmentDataObject( appointment, BenchmarkData.buildState( ), _appointmentForm ) );
+        }
+        _lNow = BenchmarkData.FIRST_DAY.atStartOfDay( ZoneId.systemDefault( ) ).toInstant( ).toEpochMilli( );
+    }
+
+    /**
+     * Build the availability index of the slots of the form
+     * 
+     * @return the availability index
+     */
+    @Benchmark
+    public SlotAvailabilityIndex buildIndex( )
+    {
+        return SlotAvailabilityIndex.build( _listSlot, Long.MAX_VALUE );
+    }
+
+    /**
+     * Set the availability fields of the appointments of the form
+     * 
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    public void setAvailability( Blackhole blackhole )
+    {
+        for ( AppointmentDataObject appointment : _listAppointment )
+        {
+            blackhole.consume( AppointmentSlotUtil.buildAppointmentDataObject( appointment, _availabilityIndex, _lNow, _appointmentForm ) );
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
+import fr.paris.lutece.portal.service.init.LuteceInitException;
+import fr.paris.lutece.portal.service.util.AppPathService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Synthetic forms, slots, appointments and workflow histories of the benchmarks. The data is generated from a fixed seed so that the runs are comparable:
+ * a form opens slots of 15 minutes from 8:00 to 18:00 every day, 95% of them open, with a capacity of 1 to 3 places.
+ */
+public final class BenchmarkData
+{
+    public static final String INSTANCE_NAME = "benchmark";
+    public static final LocalDate FIRST_DAY = LocalDate.of( 2024, 1, 1 );
+    private static final long SEED = 42L;
+    private static final int SLOT_MINUTES = 15;
+    private static final int FIRST_HOUR = 8;
+    private static final int SLOTS_PER_DAY = 40;
+    private static final int MAX_CAPACITY = 3;
+    private static final int OPEN_PERCENT = 95;
+    private static final String [ ] ACTION_NAMES = {
+            "Prendre rendez-vous", "Confirmer", "Notifier", "Modifier", "Annuler", "Honorer"
+    };
+
+    private static Path _pathWebapp;
+    private static String _strConfig;
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private BenchmarkData( )
+    {
+    }
+
+    /**
+     * Initialize the Lutece properties read by the module, the instance name in particular, from a temporary webapp
+     * 
+     * @throws IOException
+     *             if the temporary webapp cannot be written
+     * @throws LuteceInitException
+     *             if the properties cannot be loaded
+     */
+    public static void initLutece( ) throws IOException, LuteceInitException
+    {
+        initLutece( Collections.emptyMap( ) );
+    }
+
+    /**
+     * Initialize the Lutece properties read by the module from a temporary webapp, with additional properties such as the url of the Elasticsearch server.
+     * The properties are reloaded when they differ from the previous initialization.
+     * 
+     * @param mapProperties
+     *            the additional properties
+     * @throws IOException
+     *             if the temporary webapp cannot be written
+     * @throws LuteceInitException
+     *             if the properties cannot be loaded
+     */
+    public static synchronized void initLutece( Map<String, String> mapProperties ) throws IOException, LuteceInitException
+    {
+        StringBuilder sbConfig = new StringBuilder( "lutece.name=" ).append( INSTANCE_NAME ).append( '\n' );
+        for ( Map.Entry<String, String> property : new TreeMap<>( mapProperties ).entrySet( ) )
+        {
+            sbConfig.append( property.getKey( ) ).append( '=' ).append( property.getValue( ) ).append( '\n' );
+        }
+        String strConfig = sbConfig.toString( );
+        if ( strConfig.equals( _strConfig ) )
+        {
+            return;
+        }
+        if ( _pathWebapp == null )
+        {
+            _pathWebapp = Files.createTempDirectory( "elasticdata-appointment-benchmark" );
+        }
+        Path pathConf = Files.createDirectories( _pathWebapp.resolve( "WEB-INF/conf/plugins" ) ).getParent( );
+        Files.write( pathConf.resolve( "config.properties" ), strConfig.getBytes( StandardCharsets.UTF_8 ) );
+        AppPathService.init( _pathWebapp.toString( ) );
+        AppPropertiesService.init( "/WEB-INF/conf/" );
+        _strConfig = strConfig;
+    }
+
+    /**
+     * Build a form
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the form
+     */
+    public static AppointmentFormDTO buildForm( int nIdForm )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( nIdForm );
+        form.setTitle( "Mairie du " + nIdForm + "e arrondissement - Titres d'identité" );
+        form.setIsActive( true );
+        form.setIsMultislotAppointment( true );
+        form.setMinTimeBeforeAppointment( 2 );
+        form.setIdWorkflow( 1 );
+        form.setIdCategory( 1 );
+        form.setLatitude( 48.8566 );
+        form.setLongitude( 2.3522 );
+        form.setAddress( nIdForm + " place de l'Hôtel de Ville, 75004 Paris" );
+        return form;
+    }
+
+    /**
+     * Build the slots of a form, in chronological order
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param nNbSlots
+     *            the number of slots
+     * @return the slots
+     */
+    public static List<Slot> buildSlots( int nIdForm, int nNbSlots )
+    {
+        Random random = new Random( SEED );
+        List<Slot> listSlot = new ArrayList<>( nNbSlots );
+        for ( int i = 0; i < nNbSlots; i++ )
+        {
+            LocalDateTime startingDateTime = FIRST_DAY.plusDays( i / SLOTS_PER_DAY ).atTime( FIRST_HOUR, 0 )
+                    .plusMinutes( (long) ( i % SLOTS_PER_DAY ) * SLOT_MINUTES );
+            int nCapacity = 1 + random.nextInt( MAX_CAPACITY );
+            int nPlacesTaken = random.nextInt( nCapacity + 1 );
+            Slot slot = new Slot( );
+            slot.setIdSlot( i + 1 );
+            slot.setIdForm( nIdForm );
+            slot.setStartingDateTime( startingDateTime );
+            slot.setEndingDateTime( startingDateTime.plusMinutes( SLOT_MINUTES ) );
+            slot.setIsOpen( random.nextInt( 100 ) < OPEN_PERCENT );
+            slot.setMaxCapacity( nCapacity );
+            slot.setNbPlacesTaken( nPlacesTaken );
+            slot.setNbRemainingPlaces( nCapacity - nPlacesTaken );
+            listSlot.add( slot );
+        }
+        return listSlot;
+    }
+
+    /**
+     * Build appointments booked on the given slots
+     * 
+     * @param listSlot
+     *            the slots
+     * @param nNbAppointments
+     *            the number of appointments
+     * @return the appointments
+     */
+    public static List<AppointmentIndex> buildAppointments( List<Slot> listSlot, int nNbAppointments )
+    {
+        Random random = new Random( SEED );
+        List<AppointmentIndex> listAppointment = new ArrayList<>( nNbAppointments );
+        for ( int i = 0; i < nNbAppointments; i++ )
+        {
+            Slot slot = listSlot.get( random.nextInt( listSlot.size( ) ) );
+            AppointmentIndex appointment = new AppointmentIndex( );
+            appointment.setIdAppointment( i + 1 );
+            appointment.setIdForm( slot.getIdForm( ) );
+            appointment.setNbPlaces( 1 );
+            appointment.setIsCancelled( random.nextInt( 10 ) == 0 );
+            appointment.setIdState( 1 );
+            appointment.setStartingDate( Timestamp.valueOf( slot.getStartingDateTime( ) ) );
+            listAppointment.add( appointment );
+        }
+        return listAppointment;
+    }
+
+    /**
+     * Build the workflow history of an appointment, one action every few hours from its creation
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param lAppointmentCreation
+     *            the creation date of the appointment in milliseconds
+     * @param nNbEntries
+     *            the number of history entries
+     * @return the history entries, in chronological order
+     */
+    public static List<AppointmentHistoryIndex> buildHistory( int nIdAppointment, long lAppointmentCreation, int nNbEntries )
+    {
+        Random random = new Random( SEED + nIdAppointment );
+        List<AppointmentHistoryIndex> listHistory = new ArrayList<>( nNbEntries );
+        long lCreationDate = lAppointmentCreation;
+        for ( int i = 0; i < nNbEntries; i++ )
+        {
+            lCreationDate += 60000L + random.nextInt( 6 * 3600000 );
+            AppointmentHistoryIndex history = new AppointmentHistoryIndex( );
+            history.setIdHistory( nIdAppointment * nNbEntries + i );
+            history.setIdResource( nIdAppointment );
+            history.setCreationDate( new Timestamp( lCreationDate ) );
+            history.setActionName( ACTION_NAMES [i % ACTION_NAMES.length] );
+            listHistory.add( history );
+        }
+        return listHistory;
+    }
+
+    /**
+     * Build the workflow state of the appointments
+     * 
+     * @return the state
+     */
+    public static State buildState( )
+    {
+        State state = new State( );
+        state.setId( 1 );
+        state.setName( "Confirmé" );
+        return state;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar: runs the benchmarks selected on the command line (all of them by default) with the GC profiler, which reports the
+ * allocation rate and the bytes allocated per operation, and writes the results to benchmark-results.json.
+ */
+public final class BenchmarkRunner
+{
+    private static final String RESULT_FILE = "benchmark-results.json";
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private BenchmarkRunner( )
+    {
+    }
+
+    /**
+     * Run the benchmarks
+     * 
+     * @param args
+     *            the JMH command line options
+     * @throws Exception
+     *             if the options are invalid or the benchmarks fail
+     */
+    public static void main( String [ ] args ) throws Exception
+    {
+        CommandLineOptions commandLineOptions = new CommandLineOptions( args );
+        ChainedOptionsBuilder builder = new OptionsBuilder( ).parent( commandLineOptions ).addProfiler( GCProfiler.class );
+        if ( commandLineOptions.getIncludes( ).isEmpty( ) )
+        {
+            builder.include( BenchmarkRunner.class.getPackage( ).getName( ) + "\\..*Benchmark" );
+        }
+        if ( !commandLineOptions.getResult( ).hasValue( ) )
+        {
+            builder.resultFormat( ResultFormatType.JSON ).result( RESULT_FILE );
+        }
+        new Runner( builder.build( ) ).run( );
+    }
+}
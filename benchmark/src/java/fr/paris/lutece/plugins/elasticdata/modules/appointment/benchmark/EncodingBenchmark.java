@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotUtil;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.DocumentEncoder;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.NdjsonWriter;
+
+/**
+ * JSON encoding of each document type into a reused buffer, with the Jackson serialization of the appointment and history documents as a baseline. The
+ * throughput is given in documents per second.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class EncodingBenchmark
+{
+    private static final int ID_FORM = 1;
+    private static final int NB_DOCUMENTS = 1000;
+    private static final int NB_HISTORY_ENTRIES = 6;
+
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final NdjsonWriter _writer = new NdjsonWriter( );
+    private List<AppointmentDataObject> _listAppointment;
+    private List<AppointmentSlotDataObject> _listSlot;
+    private List<AppointmentHistoryDataObject> _listHistory;
+    private List<AppointmentPartialDataObject> _listPartial;
+
+    /**
+     * Generate the documents
+     * 
+     * @throws Exception
+     *             if Lutece cannot be initialized
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkData.initLutece( );
+        AppointmentForm appointmentForm = new AppointmentForm( BenchmarkData.buildForm( ID_FORM ), null );
+        List<Slot> listSlot = BenchmarkData.buildSlots( ID_FORM, NB_DOCUMENTS );
+        _listSlot = new ArrayList<>( NB_DOCUMENTS );
+        for ( Slot slot : listSlot )
+        {
+            _listSlot.add( new AppointmentSlotDataObject( slot, BenchmarkData.INSTANCE_NAME, appointmentForm ) );
+        }
+        _listAppointment = new ArrayList<>( NB_DOCUMENTS );
+        _listPartial = new ArrayList<>( NB_DOCUMENTS );
+        _listHistory = new ArrayList<>( NB_DOCUMENTS );
+        for ( AppointmentIndex appointment : BenchmarkData.buildAppointments( listSlot, NB_DOCUMENTS ) )
+        {
+            _listAppointment.add( new AppointmentDataObject( appointment, BenchmarkData.buildState( ), appointmentForm ) );
+            _listPartial.add( new AppointmentPartialDataObject( appointment.getIdAppointment( ), BenchmarkData.buildState( ), appointment.getIsCancelled( ) ) );
+            if ( _listHistory.size( ) < NB_DOCUMENTS )
+            {
+                long lStart = appointment.getStartingDate( ).getTime( );
+                _listHistory.addAll( AppointmentSlotUtil.buildHistoryDataObjects(
+                        BenchmarkData.buildHistory( appointment.getIdAppointment( ), lStart, NB_HISTORY_ENTRIES ), appointmentForm, lStart, lStart, lStart ) );
+            }
+        }
+        _listHistory = _listHistory.subList( 0, NB_DOCUMENTS );
+    }
+
+    /**
+     * Encode appointment documents
+     * 
+     * @return the number of bytes written
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int encodeAppointments( )
+    {
+        _writer.clear( );
+        for ( AppointmentDataObject appointment : _listAppointment )
+        {
+            DocumentEncoder.encodeAppointment( appointment, _writer );
+        }
+        return _writer.size( );
+    }
+
+    /**
+     * Encode slot documents
+     * 
+     * @return the number of bytes written
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int encodeSlots( )
+    {
+        _writer.clear( );
+        for ( AppointmentSlotDataObject slot : _listSlot )
+        {
+            DocumentEncoder.encodeSlot( slot, _writer );
+        }
+        return _writer.size( );
+    }
+
+    /**
+     * Encode history documents
+     * 
+     * @return the number of bytes written
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int encodeHistory( )
+    {
+        _writer.clear( );
+        for ( AppointmentHistoryDataObject history : _listHistory )
+        {
+            DocumentEncoder.encodeHistory( history, _writer );
+        }
+        return _writer.size( );
+    }
+
+    /**
+     * Encode partial appointment documents
+     * 
+     * @return the number of bytes written
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int encodeAppointmentPartials( )
+    {
+        _writer.clear( );
+        for ( AppointmentPartialDataObject partial : _listPartial )
+        {
+            DocumentEncoder.encodeAppointmentPartial( partial, _writer );
+        }
+        return _writer.size( );
+    }
+
+    /**
+     * Serialize appointment documents with Jackson
+     * 
+     * @return the number of bytes written
+     * @throws JsonProcessingException
+     *             if a document cannot be serialized
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int jacksonAppointments( ) throws JsonProcessingException
+    {
+        int nSize = 0;
+        for ( AppointmentDataObject appointment : _listAppointment )
+        {
+            nSize += _mapper.writeValueAsBytes( appointment ).length;
+        }
+        return nSize;
+    }
+
+    /**
+     * Serialize history documents with Jackson
+     * 
+     * @return the number of bytes written
+     * @throws JsonProcessingException
+     *             if a document cannot be serialized
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_DOCUMENTS )
+    public int jacksonHistory( ) throws JsonProcessingException
+    {
+        int nSize = 0;
+        for ( AppointmentHistoryDataObject history : _listHistory )
+        {
+            nSize += _mapper.writeValueAsBytes( history ).length;
+        }
+        return nSize;
+    }
+}
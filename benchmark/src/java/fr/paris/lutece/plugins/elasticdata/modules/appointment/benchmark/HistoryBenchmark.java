@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotUtil;
+
+/**
+ * Building of the workflow history documents with their durations, as done for the new history entries of each appointment. One operation processes the
+ * history of all the appointments.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class HistoryBenchmark
+{
+    private static final int ID_FORM = 1;
+    private static final int NB_SLOTS = 10000;
+    private static final int NB_ENTRIES = 6;
+    private static final long CREATION_DELAY = TimeUnit.DAYS.toMillis( 7 );
+
+    /**
+     * Number of appointments
+     */
+    @Param( {
+            "1000", "10000"
+    } )
+    public int nbAppointments;
+
+    private List<AppointmentIndex> _listAppointment;
+    private List<List<AppointmentHistoryIndex>> _listHistory;
+    private AppointmentForm _appointmentForm;
+
+    /**
+     * Generate the appointments and their history
+     * 
+     * @throws Exception
+     *             if Lutece cannot be initialized
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkData.initLutece( );
+        _appointmentForm = new AppointmentForm( BenchmarkData.buildForm( ID_FORM ), null );
+        _listAppointment = BenchmarkData.buildAppointments( BenchmarkData.buildSlots( ID_FORM, NB_SLOTS ), nbAppointments );
+        _listHistory = new ArrayList<>( nbAppointments );
+        for ( AppointmentIndex appointment : _listAppointment )
+        {
+            _listHistory.add( BenchmarkData.buildHistory( appointment.getIdAppointment( ), getCreationDate( appointment ), NB_ENTRIES ) );
+        }
+    }
+
+    /**
+     * Build the history documents of all the appointments
+     * 
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    public void buildHistoryDataObjects( Blackhole blackhole )
+    {
+        for ( int i = 0; i < _listAppointment.size( ); i++ )
+        {
+            AppointmentIndex appointment = _listAppointment.get( i );
+            long lCreationDate = getCreationDate( appointment );
+            blackhole.consume( AppointmentSlotUtil.buildHistoryDataObjects( _listHistory.get( i ), _appointmentForm, lCreationDate,
+                    appointment.getStartingDate( ).getTime( ), lCreationDate ) );
+        }
+    }
+
+    /**
+     * Returns the creation date of an appointment, a week before it
+     * 
+     * @param appointment
+     *            the appointment
+     * @return the creation date in milliseconds
+     */
+    private static long getCreationDate( AppointmentIndex appointment )
+    {
+        return appointment.getStartingDate( ).getTime( ) - CREATION_DELAY;
+    }
+}
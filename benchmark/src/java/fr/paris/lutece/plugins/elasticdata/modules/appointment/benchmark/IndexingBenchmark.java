@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.ElasticBulkClient;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.ElasticBulkRequest;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.FakeElasticServer;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingMetrics;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+
+/**
+ * End-to-end indexing of the slot documents of a form against a {@link FakeElasticServer}: building of the documents, encoding of the bulk requests, HTTP
+ * exchange and parsing of the responses. The latency and the rate of failed actions of the server are parameters. The throughput is given in documents per
+ * second.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class IndexingBenchmark
+{
+    private static final int ID_FORM = 1;
+    private static final int NB_SLOTS = 10000;
+    private static final String INDEX_SLOT = "appointment-slot";
+    private static final String PROPERTY_SERVER_URL = "elasticdata.elastic_server.url";
+
+    /**
+     * Number of actions of a bulk request
+     */
+    @Param( {
+            "500", "2000"
+    } )
+    public int bulkSize;
+
+    /**
+     * Latency of the server in milliseconds
+     */
+    @Param( {
+            "0", "5"
+    } )
+    public long latency;
+
+    /**
+     * Rate of the failed bulk actions
+     */
+    @Param( {
+            "0", "0.01"
+    } )
+    public double failureRate;
+
+    private FakeElasticServer _server;
+    private List<Slot> _listSlot;
+    private AppointmentForm _appointmentForm;
+    private List<String> _listUid;
+
+    /**
+     * Start the server and generate the slots of the form
+     * 
+     * @throws Exception
+     *             if the server cannot be started or Lutece cannot be initialized
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        _server = new FakeElasticServer( ).start( );
+        _server.setLatency( latency );
+        _server.setActionFailureRate( failureRate );
+        Map<String, String> mapProperties = new HashMap<>( );
+        mapProperties.put( PROPERTY_SERVER_URL, _server.getUrl( ) );
+        BenchmarkData.initLutece( mapProperties );
+        _listSlot = BenchmarkData.buildSlots( ID_FORM, NB_SLOTS );
+        _appointmentForm = new AppointmentForm( BenchmarkData.buildForm( ID_FORM ), null );
+        _listUid = new ArrayList<>( NB_SLOTS );
+        for ( Slot slot : _listSlot )
+        {
+            _listUid.add( new AppointmentSlotDataObject( slot, BenchmarkData.INSTANCE_NAME, _appointmentForm ).getId( ) );
+        }
+    }
+
+    /**
+     * Stop the server and print a summary of the requests it received
+     */
+    @TearDown
+    public void tearDown( )
+    {
+        List<FakeElasticServer.RecordedRequest> listRequest = _server.getRequests( );
+        long lNbActions = 0;
+        long lNbFailed = 0;
+        long lDurationNanos = 0;
+        for ( FakeElasticServer.RecordedRequest request : listRequest )
+        {
+            lNbActions += request.getNbActions( );
+            lNbFailed += request.getNbFailedActions( );
+            lDurationNanos += request.getDurationNanos( );
+        }
+        System.out.println( );
+        System.out.println( "Server: " + listRequest.size( ) + " requests, " + lNbActions + " actions, " + lNbFailed + " failed, mean handling time "
+                + ( listRequest.isEmpty( ) ? 0 : TimeUnit.NANOSECONDS.toMicros( lDurationNanos / listRequest.size( ) ) ) + " us" );
+        System.out.println( "Client: " + IndexingMetrics.getSnapshot( ) );
+        _server.close( );
+    }
+
+    /**
+     * Index all the slots of the form
+     * 
+     * @return the number of failed actions
+     * @throws ElasticClientException
+     *             if a request fails
+     * @throws JsonProcessingException
+     *             if a document cannot be encoded
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_SLOTS )
+    public int indexSlots( ) throws ElasticClientException, JsonProcessingException
+    {
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        int nNbErrors = 0;
+        for ( Slot slot : _listSlot )
+        {
+            AppointmentSlotDataObject slotDataObject = new AppointmentSlotDataObject( slot, BenchmarkData.INSTANCE_NAME, _appointmentForm );
+            request.index( INDEX_SLOT, slotDataObject.getId( ), slotDataObject );
+            if ( request.size( ) >= bulkSize )
+            {
+                nNbErrors += ElasticBulkClient.execute( request );
+                request.clear( );
+            }
+        }
+        return nNbErrors + ElasticBulkClient.execute( request );
+    }
+
+    /**
+     * Update the capacity of all the slots of the form
+     * 
+     * @return the number of failed actions
+     * @throws ElasticClientException
+     *             if a request fails
+     * @throws JsonProcessingException
+     *             if a document cannot be encoded
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_SLOTS )
+    public int updateSlots( ) throws ElasticClientException, JsonProcessingException
+    {
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        int nNbErrors = 0;
+        for ( Slot slot : _listSlot )
+        {
+            AppointmentSlotDataObject slotDataObject = new AppointmentSlotDataObject( slot, BenchmarkData.INSTANCE_NAME, _appointmentForm );
+            request.update( INDEX_SLOT, slotDataObject.getId( ), new AppointmentSlotPartialDataObject( slotDataObject ) );
+            if ( request.size( ) >= bulkSize )
+            {
+                nNbErrors += ElasticBulkClient.execute( request );
+                request.clear( );
+            }
+        }
+        return nNbErrors + ElasticBulkClient.execute( request );
+    }
+
+    /**
+     * Delete all the slots of the form by id
+     * 
+     * @return the number of failed actions
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    @Benchmark
+    @OperationsPerInvocation( NB_SLOTS )
+    public int deleteSlots( ) throws ElasticClientException
+    {
+        return ElasticBulkClient.deleteById( INDEX_SLOT, _listUid );
+    }
+}
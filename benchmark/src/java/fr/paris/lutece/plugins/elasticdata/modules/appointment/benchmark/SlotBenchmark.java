@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotUtil;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.SlotTimeline;
+
+/**
+ * Building of the slot documents of a form: construction of the data objects, slot uids and consecutive available slots. One operation processes all the
+ * slots of the form.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class SlotBenchmark
+{
+    private static final int ID_FORM = 1;
+
+    /**
+     * Number of slots of the form
+     */
+    @Param( {
+            "1000", "10000", "100000"
+    } )
+    public int nbSlots;
+
+    private List<Slot> _listSlot;
+    private AppointmentForm _appointmentForm;
+
+    /**
+     * Generate the slots of the form
+     * 
+     * @throws Exception
+     *             if Lutece cannot be initialized
+     */
+    @Setup
+    public void setUp( ) throws Exception
+    {
+        BenchmarkData.initLutece( );
+        _listSlot = BenchmarkData.buildSlots( ID_FORM, nbSlots );
+        _appointmentForm = new AppointmentForm( BenchmarkData.buildForm( ID_FORM ), null );
+    }
+
+    /**
+     * Build the slot documents sharing the form sub-document, with their consecutive available slots
+     * 
+     * @return the slot documents
+     */
+    @Benchmark
+    public List<AppointmentSlotDataObject> buildSlotDataObjects( )
+    {
+        int [ ] arrayConsecutiveSlots = SlotTimeline.computeConsecutiveSlots( _listSlot );
+        List<AppointmentSlotDataObject> listSlotDataObject = new ArrayList<>( _listSlot.size( ) );
+        for ( int i = 0; i < _listSlot.size( ); i++ )
+        {
+            AppointmentSlotDataObject slotDataObject = new AppointmentSlotDataObject( _listSlot.get( i ), BenchmarkData.INSTANCE_NAME, _appointmentForm );
+            slotDataObject.setNbConsecutiveSlots( arrayConsecutiveSlots [i] );
+            listSlotDataObject.add( slotDataObject );
+        }
+        return listSlotDataObject;
+    }
+
+    /**
+     * Build the uid of each slot
+     * 
+     * @param blackhole
+     *            the blackhole
+     */
+    @Benchmark
+    public void getSlotUid( Blackhole blackhole )
+    {
+        for ( Slot slot : _listSlot )
+        {
+            blackhole.consume( AppointmentSlotUtil.getSlotUid( slot ) );
+        }
+    }
+
+    /**
+     * Compute the number of consecutive available slots of each slot
+     * 
+     * @return the number of consecutive available slots
+     */
+    @Benchmark
+    public int [ ] computeConsecutiveSlots( )
+    {
+        return SlotTimeline.computeConsecutiveSlots( _listSlot );
+    }
+}
@@ -85,6 +85,34 @@ public class AppointmentDataObject extends AbstractDataObject
         setTimestamp( Timestamp.valueOf( AppointmentUtilities.getStartingDateTime( appointment ) ).getTime( ) );
     }
 
+    /**
+     * Build the document from a row of the appointment index DAO
+     * 
+     * @param appointment
+     *            the appointment row
+     * @param stateAppointment
+     *            the workflow state, may be null
+     * @param appointmentForm
+     *            the appointment form
+     */
+    public AppointmentDataObject( AppointmentIndex appointment, State stateAppointment, AppointmentForm appointmentForm )
+    {
+
+        setId( String.valueOf( appointment.getIdAppointment( ) ) );
+        _nIdAppointment = appointment.getIdAppointment( );
+        _nNbPlaces = appointment.getNbPlaces( );
+        _bIsCancelled = appointment.getIsCancelled( );
+        _strNameInstance = AppointmentSlotUtil.INSTANCE_NAME;
+        _bIsAdminCreator = StringUtils.isNotEmpty( appointment.getAdminUserCreate( ) );
+        _appointmentForm = appointmentForm;
+
+        if ( stateAppointment != null )
+        {
+            _strState = stateAppointment.getName( );
+        }
+        setTimestamp( appointment.getStartingDate( ).getTime( ) );
+    }
+
     /**
      * Returns the IdAppointmebt
      * 
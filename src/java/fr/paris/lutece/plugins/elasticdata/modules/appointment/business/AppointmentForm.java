@@ -33,6 +33,10 @@
  */
 package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
 
+import java.util.Objects;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import fr.paris.lutece.plugins.appointment.business.category.Category;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
 
@@ -51,6 +55,7 @@ public class AppointmentForm
     private String _strAddress;
     private int _nMinTimeBeforeAppointment;
     private int _nIdWorkflow;
+    private volatile byte [ ] _jsonFragment;
 
     public AppointmentForm( AppointmentFormDTO appointmentFormDto, Category category )
     {
@@ -92,6 +97,7 @@ public class AppointmentForm
     public void setIdForms( int nIdForms )
     {
         _nIdForms = nIdForms;
+        _jsonFragment = null;
     }
 
     /**
@@ -113,6 +119,7 @@ public class AppointmentForm
     public void setTitleForms( String strTitleForms )
     {
         _strTitleForms = strTitleForms;
+        _jsonFragment = null;
     }
 
     /**
@@ -134,6 +141,7 @@ public class AppointmentForm
     public void setCategory( String strCategory )
     {
         _strCategory = strCategory;
+        _jsonFragment = null;
     }
 
     /**
@@ -155,6 +163,7 @@ public class AppointmentForm
     public void setIsActive( boolean bIsActive )
     {
         _bIsActive = bIsActive;
+        _jsonFragment = null;
     }
 
     /**
@@ -176,6 +185,7 @@ public class AppointmentForm
     public void setIsMultiSlot( boolean bIsMultiSlot )
     {
         _bIsMultiSlot = bIsMultiSlot;
+        _jsonFragment = null;
     }
 
     /**
@@ -197,6 +207,7 @@ public class AppointmentForm
     public void setGeoPoint( String strGeoPoint )
     {
         _strGeoPoint = strGeoPoint;
+        _jsonFragment = null;
     }
 
     /**
@@ -218,6 +229,7 @@ public class AppointmentForm
     public void setAddress( String strAddress )
     {
         _strAddress = strAddress;
+        _jsonFragment = null;
     }
 
     /**
@@ -239,6 +251,7 @@ public class AppointmentForm
     public void setMinTimeBeforeAppointment( int nMinTimeBeforeAppointment )
     {
         _nMinTimeBeforeAppointment = nMinTimeBeforeAppointment;
+        _jsonFragment = null;
     }
 
     /**
@@ -260,5 +273,59 @@ public class AppointmentForm
     public void setIdWorkflow( int nIdWorkflow )
     {
         _nIdWorkflow = nIdWorkflow;
+        _jsonFragment = null;
+    }
+
+    /**
+     * Returns the JSON encoding of the form, shared by all the documents carrying this instance
+     * 
+     * @return the JSON encoding, null if the form has not been encoded yet
+     */
+    @JsonIgnore
+    public byte [ ] getJsonFragment( )
+    {
+        return _jsonFragment;
+    }
+
+    /**
+     * Sets the JSON encoding of the form. It is reset by any change of the form.
+     * 
+     * @param jsonFragment
+     *            the JSON encoding
+     */
+    public void setJsonFragment( byte [ ] jsonFragment )
+    {
+        _jsonFragment = jsonFragment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( !( obj instanceof AppointmentForm ) )
+        {
+            return false;
+        }
+        AppointmentForm other = (AppointmentForm) obj;
+        return _nIdForms == other._nIdForms && _bIsActive == other._bIsActive && _bIsMultiSlot == other._bIsMultiSlot
+                && _nMinTimeBeforeAppointment == other._nMinTimeBeforeAppointment && _nIdWorkflow == other._nIdWorkflow
+                && Objects.equals( _strTitleForms, other._strTitleForms ) && Objects.equals( _strCategory, other._strCategory )
+                && Objects.equals( _strGeoPoint, other._strGeoPoint ) && Objects.equals( _strAddress, other._strAddress );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode( )
+    {
+        return Objects.hash( _nIdForms, _strTitleForms, _strCategory, _bIsActive, _bIsMultiSlot, _strGeoPoint, _strAddress, _nMinTimeBeforeAppointment,
+                _nIdWorkflow );
     }
 }
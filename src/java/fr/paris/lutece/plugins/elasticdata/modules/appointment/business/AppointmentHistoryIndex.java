@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.sql.Timestamp;
+
+/**
+ * Row of the query loading the workflow history of appointments: the history entry and the name of its action
+ */
+public class AppointmentHistoryIndex
+{
+    private int _nIdHistory;
+    private int _nIdResource;
+    private Timestamp _creationDate;
+    private String _strActionName;
+
+    /**
+     * Returns the IdHistory
+     * 
+     * @return The IdHistory
+     */
+    public int getIdHistory( )
+    {
+        return _nIdHistory;
+    }
+
+    /**
+     * Sets the IdHistory
+     * 
+     * @param nIdHistory
+     *            The IdHistory
+     */
+    public void setIdHistory( int nIdHistory )
+    {
+        _nIdHistory = nIdHistory;
+    }
+
+    /**
+     * Returns the IdResource
+     * 
+     * @return The IdResource
+     */
+    public int getIdResource( )
+    {
+        return _nIdResource;
+    }
+
+    /**
+     * Sets the IdResource
+     * 
+     * @param nIdResource
+     *            The IdResource
+     */
+    public void setIdResource( int nIdResource )
+    {
+        _nIdResource = nIdResource;
+    }
+
+    /**
+     * Returns the CreationDate
+     * 
+     * @return The CreationDate
+     */
+    public Timestamp getCreationDate( )
+    {
+        return _creationDate;
+    }
+
+    /**
+     * Sets the CreationDate
+     * 
+     * @param creationDate
+     *            The CreationDate
+     */
+    public void setCreationDate( Timestamp creationDate )
+    {
+        _creationDate = creationDate;
+    }
+
+    /**
+     * Returns the ActionName
+     * 
+     * @return The ActionName
+     */
+    public String getActionName( )
+    {
+        return _strActionName;
+    }
+
+    /**
+     * Sets the ActionName
+     * 
+     * @param strActionName
+     *            The ActionName
+     */
+    public void setActionName( String strActionName )
+    {
+        _strActionName = strActionName;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.business.appointment.Appointment;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides read-only Data Access methods for the workflow history of the appointments to index
+ */
+public final class AppointmentHistoryIndexDAO implements IAppointmentHistoryIndexDAO
+{
+    private static final String SQL_QUERY_SELECT = "SELECT h.id_history, h.id_resource, h.creation_date, a.name FROM workflow_resource_history h "
+            + "INNER JOIN workflow_action a ON a.id_action = h.id_action WHERE h.resource_type = ? AND ( ";
+    private static final String SQL_ORDER_BY = " ) ORDER BY h.id_resource, h.creation_date, h.id_history";
+    private static final String SQL_RESOURCE_AFTER = "( h.id_resource = ? AND h.id_workflow = ? AND h.id_history > ? )";
+    private static final String SQL_SEPARATOR = " OR ";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<AppointmentHistoryIndex> selectByListIdAppointmentAfter( Map<Integer, Integer> mapIdWorkflow, Map<Integer, Integer> mapIdHistoryAfter,
+            Plugin plugin )
+    {
+        List<AppointmentHistoryIndex> listHistory = new ArrayList<>( );
+        if ( mapIdHistoryAfter.isEmpty( ) )
+        {
+            return listHistory;
+        }
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT );
+        for ( int i = 0; i < mapIdHistoryAfter.size( ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbSql.append( SQL_SEPARATOR );
+            }
+            sbSql.append( SQL_RESOURCE_AFTER );
+        }
+        sbSql.append( SQL_ORDER_BY );
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, Appointment.APPOINTMENT_RESOURCE_TYPE );
+            for ( Map.Entry<Integer, Integer> entry : mapIdHistoryAfter.entrySet( ) )
+            {
+                daoUtil.setInt( nIndex++, entry.getKey( ) );
+                daoUtil.setInt( nIndex++, mapIdWorkflow.get( entry.getKey( ) ) );
+                daoUtil.setInt( nIndex++, entry.getValue( ) );
+            }
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                AppointmentHistoryIndex history = new AppointmentHistoryIndex( );
+                history.setIdHistory( daoUtil.getInt( 1 ) );
+                history.setIdResource( daoUtil.getInt( 2 ) );
+                history.setCreationDate( daoUtil.getTimestamp( 3 ) );
+                history.setActionName( daoUtil.getString( 4 ) );
+                listHistory.add( history );
+            }
+        }
+        return listHistory;
+    }
+}
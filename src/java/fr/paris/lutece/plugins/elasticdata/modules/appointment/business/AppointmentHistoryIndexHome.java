@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.service.AppointmentPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the workflow history of the appointments to index
+ */
+public final class AppointmentHistoryIndexHome
+{
+    // Static variable pointed at the DAO instance
+    private static IAppointmentHistoryIndexDAO _dao = SpringContextService.getBean( "elasticdata-appointment.appointmentHistoryIndexDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private AppointmentHistoryIndexHome( )
+    {
+    }
+
+    /**
+     * Load the workflow history entries of a list of appointments, in the workflow of the form of each appointment, whose id is greater than the history id
+     * given for each appointment
+     * 
+     * @param mapIdWorkflow
+     *            the workflow id of the form of each appointment, by appointment id
+     * @param mapIdHistoryAfter
+     *            the history id after which the entries are loaded, 0 to load all the entries, by appointment id
+     * @return the history rows ordered by appointment, creation date and id
+     */
+    public static List<AppointmentHistoryIndex> findByListIdAppointmentAfter( Map<Integer, Integer> mapIdWorkflow, Map<Integer, Integer> mapIdHistoryAfter )
+    {
+        return _dao.selectByListIdAppointmentAfter( mapIdWorkflow, mapIdHistoryAfter, _plugin );
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.sql.Timestamp;
+
+/**
+ * Row of the joined query loading everything an appointment document needs: the appointment, the starting date of its first slot, its form and its
+ * workflow state
+ */
+public class AppointmentIndex
+{
+    private int _nIdAppointment;
+    private int _nNbPlaces;
+    private boolean _bIsCancelled;
+    private String _strAdminUserCreate;
+    private Timestamp _startingDate;
+    private int _nIdForm;
+    private Integer _nIdState;
+
+    /**
+     * Returns the IdAppointment
+     * 
+     * @return The IdAppointment
+     */
+    public int getIdAppointment( )
+    {
+        return _nIdAppointment;
+    }
+
+    /**
+     * Sets the IdAppointment
+     * 
+     * @param nIdAppointment
+     *            The IdAppointment
+     */
+    public void setIdAppointment( int nIdAppointment )
+    {
+        _nIdAppointment = nIdAppointment;
+    }
+
+    /**
+     * Returns the NbPlaces
+     * 
+     * @return The NbPlaces
+     */
+    public int getNbPlaces( )
+    {
+        return _nNbPlaces;
+    }
+
+    /**
+     * Sets the NbPlaces
+     * 
+     * @param nNbPlaces
+     *            The NbPlaces
+     */
+    public void setNbPlaces( int nNbPlaces )
+    {
+        _nNbPlaces = nNbPlaces;
+    }
+
+    /**
+     * Returns the IsCancelled
+     * 
+     * @return The IsCancelled
+     */
+    public boolean getIsCancelled( )
+    {
+        return _bIsCancelled;
+    }
+
+    /**
+     * Sets the IsCancelled
+     * 
+     * @param bIsCancelled
+     *            The IsCancelled
+     */
+    public void setIsCancelled( boolean bIsCancelled )
+    {
+        _bIsCancelled = bIsCancelled;
+    }
+
+    /**
+     * Returns the admin user who created the appointment
+     * 
+     * @return The admin user, null if the appointment was taken from the front office
+     */
+    public String getAdminUserCreate( )
+    {
+        return _strAdminUserCreate;
+    }
+
+    /**
+     * Sets the admin user who created the appointment
+     * 
+     * @param strAdminUserCreate
+     *            The admin user
+     */
+    public void setAdminUserCreate( String strAdminUserCreate )
+    {
+        _strAdminUserCreate = strAdminUserCreate;
+    }
+
+    /**
+     * Returns the starting date of the first slot of the appointment
+     * 
+     * @return The starting date
+     */
+    public Timestamp getStartingDate( )
+    {
+        return _startingDate;
+    }
+
+    /**
+     * Sets the starting date of the first slot of the appointment
+     * 
+     * @param startingDate
+     *            The starting date
+     */
+    public void setStartingDate( Timestamp startingDate )
+    {
+        _startingDate = startingDate;
+    }
+
+    /**
+     * Returns the IdForm
+     * 
+     * @return The IdForm
+     */
+    public int getIdForm( )
+    {
+        return _nIdForm;
+    }
+
+    /**
+     * Sets the IdForm
+     * 
+     * @param nIdForm
+     *            The IdForm
+     */
+    public void setIdForm( int nIdForm )
+    {
+        _nIdForm = nIdForm;
+    }
+
+    /**
+     * Returns the workflow state id
+     * 
+     * @return The workflow state id, null if the appointment has no workflow resource
+     */
+    public Integer getIdState( )
+    {
+        return _nIdState;
+    }
+
+    /**
+     * Sets the workflow state id
+     * 
+     * @param nIdState
+     *            The workflow state id, null if the appointment has no workflow resource
+     */
+    public void setIdState( Integer nIdState )
+    {
+        _nIdState = nIdState;
+    }
+}
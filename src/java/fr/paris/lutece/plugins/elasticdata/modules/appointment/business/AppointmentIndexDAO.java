@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.appointment.Appointment;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides read-only Data Access methods for the appointments to index. The appointment, its slots, its form and its workflow state are read in
+ * one joined query on the tables of the appointment and workflow plugins, through their primary keys; the module creates no table nor index of its own
+ */
+public final class AppointmentIndexDAO implements IAppointmentIndexDAO
+{
+    private static final String SQL_QUERY_SELECT = "SELECT a.id_appointment, a.nb_places, a.is_cancelled, a.admin_access_code_create, "
+            + "MIN( s.starting_date_time ), MIN( s.id_form ), MAX( r.id_state ) FROM appointment_appointment a "
+            + "INNER JOIN appointment_appointment_slot aps ON aps.id_appointment = a.id_appointment "
+            + "INNER JOIN appointment_slot s ON s.id_slot = aps.id_slot INNER JOIN appointment_form f ON f.id_form = s.id_form "
+            + "LEFT JOIN workflow_resource_workflow r ON r.id_resource = a.id_appointment AND r.resource_type = ? AND r.id_workflow = f.id_workflow ";
+    private static final String SQL_WHERE_ID_RANGE = "WHERE a.id_appointment > ? AND a.id_appointment <= ? ";
+    private static final String SQL_WHERE_LIST_ID = "WHERE a.id_appointment IN ( ";
+    private static final String SQL_END_LIST_ID = " ) ";
+    private static final String SQL_GROUP_BY = "GROUP BY a.id_appointment, a.nb_places, a.is_cancelled, a.admin_access_code_create ORDER BY a.id_appointment";
+    private static final String SQL_QUERY_SELECT_BY_ID_RANGE = SQL_QUERY_SELECT + SQL_WHERE_ID_RANGE + SQL_GROUP_BY;
+    private static final String SQL_QUERY_SELECT_ID_AFTER = "SELECT id_appointment FROM appointment_appointment WHERE id_appointment > ? "
+            + "ORDER BY id_appointment LIMIT ?";
+    private static final String SQL_QUERY_COUNT = "SELECT COUNT( id_appointment ) FROM appointment_appointment";
+    private static final String SQL_QUERY_SELECT_ID_BOUNDS = "SELECT MIN( id_appointment ), MAX( id_appointment ) FROM appointment_appointment";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<AppointmentIndex> selectByIdRange( int nIdAfter, int nIdTo, Plugin plugin )
+    {
+        List<AppointmentIndex> listAppointment = new ArrayList<>( );
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_BY_ID_RANGE, plugin ) )
+        {
+            daoUtil.setString( 1, Appointment.APPOINTMENT_RESOURCE_TYPE );
+            daoUtil.setInt( 2, nIdAfter );
+            daoUtil.setInt( 3, nIdTo );
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listAppointment.add( buildAppointmentIndex( daoUtil ) );
+            }
+        }
+        return listAppointment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<AppointmentIndex> selectByListId( List<Integer> listIdAppointment, Plugin plugin )
+    {
+        List<AppointmentIndex> listAppointment = new ArrayList<>( listIdAppointment.size( ) );
+        if ( listIdAppointment.isEmpty( ) )
+        {
+            return listAppointment;
+        }
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT ).append( SQL_WHERE_LIST_ID );
+        for ( int i = 0; i < listIdAppointment.size( ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbSql.append( SQL_SEPARATOR );
+            }
+            sbSql.append( SQL_PARAMETER );
+        }
+        sbSql.append( SQL_END_LIST_ID ).append( SQL_GROUP_BY );
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            daoUtil.setString( nIndex++, Appointment.APPOINTMENT_RESOURCE_TYPE );
+            for ( int nIdAppointment : listIdAppointment )
+            {
+                daoUtil.setInt( nIndex++, nIdAppointment );
+            }
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listAppointment.add( buildAppointmentIndex( daoUtil ) );
+            }
+        }
+        return listAppointment;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int [ ] selectIdAppointmentAfter( int nIdAfter, int nLimit, Plugin plugin )
+    {
+        int [ ] arrayId = new int [ nLimit];
+        int nCount = 0;
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ID_AFTER, plugin ) )
+        {
+            daoUtil.setInt( 1, nIdAfter );
+            daoUtil.setInt( 2, nLimit );
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) && nCount < nLimit )
+            {
+                arrayId [nCount++] = daoUtil.getInt( 1 );
+            }
+        }
+        return ( nCount == nLimit ) ? arrayId : Arrays.copyOf( arrayId, nCount );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int countAppointment( Plugin plugin )
+    {
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_COUNT, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            return daoUtil.next( ) ? daoUtil.getInt( 1 ) : 0;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int [ ] selectIdAppointmentBounds( Plugin plugin )
+    {
+        int [ ] arrayBounds = new int [ 2];
+        try ( DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ID_BOUNDS, plugin ) )
+        {
+            daoUtil.executeQuery( );
+            if ( daoUtil.next( ) )
+            {
+                arrayBounds [0] = daoUtil.getInt( 1 );
+                arrayBounds [1] = daoUtil.getInt( 2 );
+            }
+        }
+        return arrayBounds;
+    }
+
+    /**
+     * Build an appointment row from the current row of the dao util
+     * 
+     * @param daoUtil
+     *            the dao util
+     * @return the appointment row
+     */
+    private static AppointmentIndex buildAppointmentIndex( DAOUtil daoUtil )
+    {
+        int nIndex = 1;
+        AppointmentIndex appointment = new AppointmentIndex( );
+        appointment.setIdAppointment( daoUtil.getInt( nIndex++ ) );
+        appointment.setNbPlaces( daoUtil.getInt( nIndex++ ) );
+        appointment.setIsCancelled( daoUtil.getBoolean( nIndex++ ) );
+        appointment.setAdminUserCreate( daoUtil.getString( nIndex++ ) );
+        appointment.setStartingDate( daoUtil.getTimestamp( nIndex++ ) );
+        appointment.setIdForm( daoUtil.getInt( nIndex++ ) );
+        // no workflow resource gives a null state, not the state 0
+        Object objIdState = daoUtil.getObject( nIndex );
+        appointment.setIdState( ( objIdState != null ) ? ( (Number) objIdState ).intValue( ) : null );
+        return appointment;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.service.AppointmentPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * This class provides instances management methods for the appointments to index
+ */
+public final class AppointmentIndexHome
+{
+    // Static variable pointed at the DAO instance
+    private static IAppointmentIndexDAO _dao = SpringContextService.getBean( "elasticdata-appointment.appointmentIndexDAO" );
+    private static Plugin _plugin = PluginService.getPlugin( AppointmentPlugin.PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private AppointmentIndexHome( )
+    {
+    }
+
+    /**
+     * Load the appointments whose id is in the range ]nIdAfter, nIdTo]
+     * 
+     * @param nIdAfter
+     *            the lower bound of the range, excluded
+     * @param nIdTo
+     *            the upper bound of the range, included
+     * @return the appointment rows ordered by id
+     */
+    public static List<AppointmentIndex> findByIdRange( int nIdAfter, int nIdTo )
+    {
+        return _dao.selectByIdRange( nIdAfter, nIdTo, _plugin );
+    }
+
+    /**
+     * Load the appointments of a list of ids in one query
+     * 
+     * @param listIdAppointment
+     *            the list of appointment id
+     * @return the appointment rows ordered by id
+     */
+    public static List<AppointmentIndex> findByListId( List<Integer> listIdAppointment )
+    {
+        return _dao.selectByListId( listIdAppointment, _plugin );
+    }
+
+    /**
+     * Load the next page of appointment ids
+     * 
+     * @param nIdAfter
+     *            the last id of the previous page, 0 for the first page
+     * @param nLimit
+     *            the maximum number of ids to load
+     * @return the ids greater than nIdAfter, in ascending order
+     */
+    public static int [ ] findIdAppointmentAfter( int nIdAfter, int nLimit )
+    {
+        return _dao.selectIdAppointmentAfter( nIdAfter, nLimit, _plugin );
+    }
+
+    /**
+     * Count the appointments
+     * 
+     * @return the number of appointments
+     */
+    public static int countAppointment( )
+    {
+        return _dao.countAppointment( _plugin );
+    }
+
+    /**
+     * Load the lowest and the highest appointment ids
+     * 
+     * @return an array holding the lowest and the highest id, { 0, 0 } if there is no appointment
+     */
+    public static int [ ] findIdAppointmentBounds( )
+    {
+        return _dao.selectIdAppointmentBounds( _plugin );
+    }
+}
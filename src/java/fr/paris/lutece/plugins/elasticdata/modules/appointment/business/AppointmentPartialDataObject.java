@@ -33,6 +33,8 @@
  */
 package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import fr.paris.lutece.plugins.workflowcore.business.state.State;
 
 /**
@@ -50,7 +52,7 @@ public class AppointmentPartialDataObject
     {
 
         _strId = String.valueOf( nIdAppointment );
-        _strState = stateAppointment.getName( );
+        _strState = ( stateAppointment != null ) ? stateAppointment.getName( ) : null;
         _bIsCancelled = bIsCancelled;
     }
 
@@ -78,8 +80,9 @@ public class AppointmentPartialDataObject
     /**
      * Returns the State
      * 
-     * @return The State
+     * @return The State, or null if the appointment has no state
      */
+    @JsonInclude( JsonInclude.Include.NON_NULL )
     public String getState( )
     {
         return _strState;
@@ -35,7 +35,6 @@ package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
 
 import java.sql.Timestamp;
 import java.time.LocalTime;
-import java.time.ZoneId;
 import java.util.Date;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
@@ -48,6 +47,8 @@ import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.Appointme
 
 public class AppointmentSlotDataObject extends AbstractDataObject
 {
+    private static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
 
     @JsonFormat( shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm" )
     private Date _dateStartingDateTime;
@@ -61,6 +62,7 @@ public class AppointmentSlotDataObject extends AbstractDataObject
     private int _nNbRemainingPlaces;
     private String _strNameInstance;
     private int _nNbrPlacesTaken;
+    private int _nNbConsecutiveSlots;
     private AppointmentForm _appointmentForm;
 
     /**
@@ -70,25 +72,39 @@ public class AppointmentSlotDataObject extends AbstractDataObject
      *            The appointment
      */
     public AppointmentSlotDataObject( AppointmentFormDTO appointmentFormDto, Slot appointmentSlot, String instanceName, Category category )
+    {
+        this( appointmentSlot, instanceName, ( appointmentFormDto != null ) ? new AppointmentForm( appointmentFormDto, category ) : null );
+    }
+
+    /**
+     * Constructor with the form sub-document, which can be shared by all the slots of the form
+     * 
+     * @param appointmentSlot
+     *            the slot
+     * @param instanceName
+     *            the instance name
+     * @param appointmentForm
+     *            the form sub-document
+     */
+    public AppointmentSlotDataObject( Slot appointmentSlot, String instanceName, AppointmentForm appointmentForm )
     {
         super( );
-        if ( appointmentFormDto != null && appointmentSlot != null )
+        if ( appointmentForm != null && appointmentSlot != null )
         {
-            _dateStartingDateTime = Date.from( appointmentSlot.getStartingDateTime( ).atZone( ZoneId.systemDefault( ) ).toInstant( ) );
-            _dateEndingDateTime = Date.from( appointmentSlot.getEndingDateTime( ).atZone( ZoneId.systemDefault( ) ).toInstant( ) );
+            _dateStartingDateTime = new Date( AppointmentSlotUtil.toEpochMilli( appointmentSlot.getStartingDateTime( ) ) );
+            _dateEndingDateTime = new Date( AppointmentSlotUtil.toEpochMilli( appointmentSlot.getEndingDateTime( ) ) );
             _nNbRemainingPlaces = appointmentSlot.getNbRemainingPlaces( );
             _bIsOpen = appointmentSlot.getIsOpen( );
             _timeStartingDateTime = appointmentSlot.getStartingTime( );
             _lDuration = Math.abs( _dateStartingDateTime.getTime( ) - _dateEndingDateTime.getTime( ) );
             _nMaxCapacity = appointmentSlot.getMaxCapacity( );
             _strNameInstance = instanceName;
-            _appointmentForm = new AppointmentForm( appointmentFormDto, category );
+            _appointmentForm = appointmentForm;
             _nNbrPlacesTaken = appointmentSlot.getNbPlacesTaken( );
 
             setTimestamp( Timestamp.valueOf( appointmentSlot.getStartingDateTime( ) ).getTime( ) );
             setId( AppointmentSlotUtil.getSlotUid( appointmentSlot ) );
         }
-
     }
 
     /**
@@ -259,6 +275,27 @@ public class AppointmentSlotDataObject extends AbstractDataObject
         _nNbrPlacesTaken = nbrPlacesTaken;
     }
 
+    /**
+     * Returns the number of consecutive available slots starting with this slot
+     * 
+     * @return The NbConsecutiveSlots
+     */
+    public int getNbConsecutiveSlots( )
+    {
+        return _nNbConsecutiveSlots;
+    }
+
+    /**
+     * Sets the number of consecutive available slots starting with this slot
+     * 
+     * @param nNbConsecutiveSlots
+     *            The NbConsecutiveSlots
+     */
+    public void setNbConsecutiveSlots( int nNbConsecutiveSlots )
+    {
+        _nNbConsecutiveSlots = nNbConsecutiveSlots;
+    }
+
     /**
      * Returns the IsOpen
      * 
@@ -301,4 +338,81 @@ public class AppointmentSlotDataObject extends AbstractDataObject
         _timeStartingDateTime = timeStartingDateTime;
     }
 
+    /**
+     * Compute a compact hash of the content of the document except its capacity, used to detect the slots which changed since they were last indexed
+     * 
+     * @return the structure hash
+     */
+    public long computeStructureHash( )
+    {
+        long lHash = HASH_SEED;
+        lHash = hash( lHash, ( _dateStartingDateTime != null ) ? _dateStartingDateTime.getTime( ) : 0 );
+        lHash = hash( lHash, ( _dateEndingDateTime != null ) ? _dateEndingDateTime.getTime( ) : 0 );
+        lHash = hash( lHash, ( _timeStartingDateTime != null ) ? _timeStartingDateTime.toNanoOfDay( ) : -1 );
+        lHash = hash( lHash, _bIsOpen ? 1 : 0 );
+        lHash = hash( lHash, _lDuration );
+        lHash = hash( lHash, _nMaxCapacity );
+        lHash = hash( lHash, _strNameInstance );
+        if ( _appointmentForm != null )
+        {
+            lHash = hash( lHash, _appointmentForm.getIdForms( ) );
+            lHash = hash( lHash, _appointmentForm.getTitleForms( ) );
+            lHash = hash( lHash, _appointmentForm.getCategory( ) );
+            lHash = hash( lHash, _appointmentForm.getIsActive( ) ? 1 : 0 );
+            lHash = hash( lHash, _appointmentForm.getIsMultiSlot( ) ? 1 : 0 );
+            lHash = hash( lHash, _appointmentForm.getGeoPoint( ) );
+            lHash = hash( lHash, _appointmentForm.getAddress( ) );
+            lHash = hash( lHash, _appointmentForm.getMinTimeBeforeAppointment( ) );
+            lHash = hash( lHash, _appointmentForm.getIdWorkflow( ) );
+        }
+        return lHash;
+    }
+
+    /**
+     * Compute a compact hash of the capacity of the slot (the remaining places, the places taken and the consecutive slots), the only fields changed by a
+     * booking or a cancellation
+     * 
+     * @return the capacity hash
+     */
+    public long computeCapacityHash( )
+    {
+        return hash( hash( hash( HASH_SEED, _nNbRemainingPlaces ), _nNbrPlacesTaken ), _nNbConsecutiveSlots );
+    }
+
+    /**
+     * Combine the content of a string into a hash, char by char, preceded by its length (-1 for null) so that consecutive strings cannot be confused
+     * 
+     * @param lHash
+     *            the current hash
+     * @param strValue
+     *            the string, may be null
+     * @return the new hash
+     */
+    private static long hash( long lHash, String strValue )
+    {
+        if ( strValue == null )
+        {
+            return hash( lHash, -1 );
+        }
+        long lNewHash = hash( lHash, strValue.length( ) );
+        for ( int i = 0; i < strValue.length( ); i++ )
+        {
+            lNewHash = hash( lNewHash, strValue.charAt( i ) );
+        }
+        return lNewHash;
+    }
+
+    /**
+     * Combine a value into a hash (FNV-1a on 64 bits, one value at a time)
+     * 
+     * @param lHash
+     *            the current hash
+     * @param lValue
+     *            the value
+     * @return the new hash
+     */
+    private static long hash( long lHash, long lValue )
+    {
+        return ( lHash ^ lValue ) * HASH_PRIME;
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * This is the business class for the partial update of the capacity of a slot
+ */
+public class AppointmentSlotPartialDataObject
+{
+    // Variables declarations
+
+    private String _strId;
+    private int _nNbRemainingPlaces;
+    private int _nNbrPlacesTaken;
+    private int _nNbConsecutiveSlots;
+
+    /**
+     * Constructor
+     * 
+     * @param slotDataObject
+     *            the slot document whose capacity is updated
+     */
+    public AppointmentSlotPartialDataObject( AppointmentSlotDataObject slotDataObject )
+    {
+        _strId = slotDataObject.getId( );
+        _nNbRemainingPlaces = slotDataObject.getNbRemainingPlaces( );
+        _nNbrPlacesTaken = slotDataObject.getNbrPlacesTaken( );
+        _nNbConsecutiveSlots = slotDataObject.getNbConsecutiveSlots( );
+    }
+
+    /**
+     * Returns the Id of the slot document
+     * 
+     * @return The Id
+     */
+    @JsonIgnore
+    public String getId( )
+    {
+        return _strId;
+    }
+
+    /**
+     * Sets the Id of the slot document
+     * 
+     * @param strId
+     *            The Id
+     */
+    public void setId( String strId )
+    {
+        _strId = strId;
+    }
+
+    /**
+     * Returns the NbRemainingPlaces
+     * 
+     * @return The NbRemainingPlaces
+     */
+    public int getNbRemainingPlaces( )
+    {
+        return _nNbRemainingPlaces;
+    }
+
+    /**
+     * Sets the NbRemainingPlaces
+     * 
+     * @param nNbRemainingPlaces
+     *            The NbRemainingPlaces
+     */
+    public void setNbRemainingPlaces( int nNbRemainingPlaces )
+    {
+        _nNbRemainingPlaces = nNbRemainingPlaces;
+    }
+
+    /**
+     * Returns the NbrPlacesTaken
+     * 
+     * @return The NbrPlacesTaken
+     */
+    public int getNbrPlacesTaken( )
+    {
+        return _nNbrPlacesTaken;
+    }
+
+    /**
+     * Sets the NbrPlacesTaken
+     * 
+     * @param nNbrPlacesTaken
+     *            The NbrPlacesTaken
+     */
+    public void setNbrPlacesTaken( int nNbrPlacesTaken )
+    {
+        _nNbrPlacesTaken = nNbrPlacesTaken;
+    }
+
+    /**
+     * Returns the NbConsecutiveSlots
+     * 
+     * @return The NbConsecutiveSlots
+     */
+    public int getNbConsecutiveSlots( )
+    {
+        return _nNbConsecutiveSlots;
+    }
+
+    /**
+     * Sets the NbConsecutiveSlots
+     * 
+     * @param nNbConsecutiveSlots
+     *            The NbConsecutiveSlots
+     */
+    public void setNbConsecutiveSlots( int nNbConsecutiveSlots )
+    {
+        _nNbConsecutiveSlots = nNbConsecutiveSlots;
+    }
+}
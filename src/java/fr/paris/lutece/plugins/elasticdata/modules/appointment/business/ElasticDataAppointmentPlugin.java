@@ -39,8 +39,12 @@ import java.util.Locale;
 import org.apache.commons.beanutils.BeanUtilsBean;
 import org.dozer.converters.DateConverter;
 
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingCoalescer;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingDispatcher;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingEngine;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.listener.AppointmentServiceListener;
 import fr.paris.lutece.portal.service.event.ResourceEventManager;
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 
@@ -73,6 +77,12 @@ public final class ElasticDataAppointmentPlugin extends Plugin
         BeanUtilsBean.getInstance( ).getConvertUtils( )
                 .register( new DateConverter( DateFormat.getDateInstance( DateFormat.SHORT, getPluginLocale( Locale.FRANCE ) ) ), java.sql.Date.class );
 
+        IndexingEngine.getInstance( ).start( );
+        IndexingCoalescer.getInstance( ).start( );
+        // the dispatcher and the coalescer are stopped first so that their pending events reach the indexing engine before it drains
+        ShutdownServiceManager.registerShutdownService( IndexingDispatcher.getInstance( ) );
+        ShutdownServiceManager.registerShutdownService( IndexingCoalescer.getInstance( ) );
+        ShutdownServiceManager.registerShutdownService( IndexingEngine.getInstance( ) );
     }
 
     /**
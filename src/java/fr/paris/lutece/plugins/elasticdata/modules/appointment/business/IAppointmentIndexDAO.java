@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.List;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+/**
+ * IAppointmentIndexDAO Interface: read-only access to the appointments to index
+ */
+public interface IAppointmentIndexDAO
+{
+    /**
+     * Load the appointments whose id is in the range ]nIdAfter, nIdTo], ordered by id
+     * 
+     * @param nIdAfter
+     *            the lower bound of the range, excluded
+     * @param nIdTo
+     *            the upper bound of the range, included
+     * @param plugin
+     *            the plugin
+     * @return the list of appointment rows
+     */
+    List<AppointmentIndex> selectByIdRange( int nIdAfter, int nIdTo, Plugin plugin );
+
+    /**
+     * Load the appointments of a list of ids, ordered by id
+     * 
+     * @param listIdAppointment
+     *            the list of appointment id
+     * @param plugin
+     *            the plugin
+     * @return the list of appointment rows
+     */
+    List<AppointmentIndex> selectByListId( List<Integer> listIdAppointment, Plugin plugin );
+
+    /**
+     * Load the next page of appointment ids: keyset pagination over the appointment table
+     * 
+     * @param nIdAfter
+     *            the last id of the previous page, 0 for the first page
+     * @param nLimit
+     *            the maximum number of ids to load
+     * @param plugin
+     *            the plugin
+     * @return the ids greater than nIdAfter, in ascending order
+     */
+    int [ ] selectIdAppointmentAfter( int nIdAfter, int nLimit, Plugin plugin );
+
+    /**
+     * Count the appointments
+     * 
+     * @param plugin
+     *            the plugin
+     * @return the number of appointments
+     */
+    int countAppointment( Plugin plugin );
+
+    /**
+     * Load the lowest and the highest appointment ids
+     * 
+     * @param plugin
+     *            the plugin
+     * @return an array holding the lowest and the highest id, { 0, 0 } if there is no appointment
+     */
+    int [ ] selectIdAppointmentBounds( Plugin plugin );
+}
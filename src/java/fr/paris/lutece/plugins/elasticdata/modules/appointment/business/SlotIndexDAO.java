@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+/**
+ * This class provides read-only Data Access methods for the slots to index
+ */
+public final class SlotIndexDAO implements ISlotIndexDAO
+{
+    private static final String SQL_QUERY_SELECT_BY_LIST_ID = "SELECT id_slot, starting_date_time, ending_date_time, is_open, is_specific, max_capacity, "
+            + "nb_remaining_places, nb_potential_remaining_places, nb_places_taken, id_form FROM appointment_slot WHERE id_slot IN ( ";
+    private static final String SQL_ORDER_BY_FORM_AND_DATE = " ) ORDER BY id_form, starting_date_time";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Slot> selectSlotsByListId( List<Integer> listIdSlot, Plugin plugin )
+    {
+        List<Slot> listSlot = new ArrayList<>( listIdSlot.size( ) );
+        if ( listIdSlot.isEmpty( ) )
+        {
+            return listSlot;
+        }
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT_BY_LIST_ID );
+        for ( int i = 0; i < listIdSlot.size( ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbSql.append( SQL_SEPARATOR );
+            }
+            sbSql.append( SQL_PARAMETER );
+        }
+        sbSql.append( SQL_ORDER_BY_FORM_AND_DATE );
+        try ( DAOUtil daoUtil = new DAOUtil( sbSql.toString( ), plugin ) )
+        {
+            int nIndex = 1;
+            for ( int nIdSlot : listIdSlot )
+            {
+                daoUtil.setInt( nIndex++, nIdSlot );
+            }
+            daoUtil.executeQuery( );
+            while ( daoUtil.next( ) )
+            {
+                listSlot.add( buildSlot( daoUtil ) );
+            }
+        }
+        return listSlot;
+    }
+
+    /**
+     * Build a slot from the current row of the dao util
+     * 
+     * @param daoUtil
+     *            the dao util
+     * @return the slot
+     */
+    private static Slot buildSlot( DAOUtil daoUtil )
+    {
+        int nIndex = 1;
+        Slot slot = new Slot( );
+        slot.setIdSlot( daoUtil.getInt( nIndex++ ) );
+        slot.setStartingTimeStampDate( daoUtil.getTimestamp( nIndex++ ) );
+        slot.setEndingTimeStampDate( daoUtil.getTimestamp( nIndex++ ) );
+        slot.setIsOpen( daoUtil.getBoolean( nIndex++ ) );
+        slot.setIsSpecific( daoUtil.getBoolean( nIndex++ ) );
+        slot.setMaxCapacity( daoUtil.getInt( nIndex++ ) );
+        slot.setNbRemainingPlaces( daoUtil.getInt( nIndex++ ) );
+        slot.setNbPotentialRemainingPlaces( daoUtil.getInt( nIndex++ ) );
+        slot.setNbPlacesTaken( daoUtil.getInt( nIndex++ ) );
+        slot.setIdForm( daoUtil.getInt( nIndex ) );
+        return slot;
+    }
+}
@@ -33,18 +33,39 @@
  */
 package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import org.apache.commons.lang3.StringUtils;
+
 import fr.paris.lutece.plugins.appointment.business.appointment.AppointmentHome;
 import fr.paris.lutece.plugins.elasticdata.business.AbstractDataSource;
 import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndexHome;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 /**
  * Data source for appointment
  */
 public class AppointmentDataSource extends AbstractDataSource
 {
+    private static final String PROPERTY_REINDEX_NB_WORKERS = "elasticdata-appointment.reindex.nbWorkers";
+    private static final String PROPERTY_REINDEX_RANGE_WIDTH = "elasticdata-appointment.reindex.rangeWidth";
+    private static final String PROPERTY_REINDEX_NB_RETRIES = "elasticdata-appointment.reindex.nbRetries";
+    private static final int DEFAULT_REINDEX_NB_WORKERS = 4;
+    private static final int DEFAULT_REINDEX_NB_RETRIES = 2;
+    private static final String BEAN_HISTORY_DATA_SOURCE = "elasticdata-appointment.appointmentHistoryDataSource";
+    private static final String QUERY_MATCH_ALL = "{\"match_all\":{}}";
+
     /**
      * {@inheritDoc}
      */
@@ -62,7 +83,77 @@ public class AppointmentDataSource extends AbstractDataSource
     public List<DataObject> getDataObjects( List<String> idList )
     {
         List<Integer> listIdDataObject = idList.stream( ).map( Integer::parseInt ).collect( Collectors.toList( ) );
-        return IndexingAppointmentService.getService( ).buildDataObjects( listIdDataObject );
+        return IndexingAppointmentService.getService( ).buildDataObjectsFromIndex( AppointmentIndexHome.findByListId( listIdDataObject ) );
+    }
+
+    /**
+     * {@inheritDoc} The ids are read page by page with a keyset cursor, each page of ids is loaded by an id range query and the next pages are built while the
+     * current one is sent.
+     */
+    @Override
+    public Iterator<DataObject> getDataObjectsIterator( )
+    {
+        this.getIndexingStatus( ).setnNbTotalObj( AppointmentIndexHome.countAppointment( ) );
+        Function<int [ ], List<DataObject>> builder = arrayId -> IndexingAppointmentService.getService( )
+                .buildDataObjectsFromIndex( AppointmentIndexHome.findByIdRange( arrayId [0] - 1, arrayId [arrayId.length - 1] ) );
+        return new PrefetchingDataObjectsIterator( new KeysetBatchIterator( AppointmentIndexHome::findIdAppointmentAfter, builder, getBatchSize( ) ) );
+    }
+
+    /**
+     * Reindex all the appointments in the existing index: the id space is split into ranges indexed in parallel by several workers, then the documents of the
+     * appointments deleted from the database are removed with their history
+     * 
+     * @return the number of indexed appointments
+     * @throws AppException
+     *             if some ranges are still in error after the last attempt, or if the deleted appointments cannot be removed
+     */
+    public int reindexInParallel( )
+    {
+        this.getIndexingStatus( ).setnNbTotalObj( AppointmentIndexHome.countAppointment( ) );
+        this.getIndexingStatus( ).setCurrentNbIndexedObj( 0 );
+        int nNbIndexed = new ParallelRangeIndexer( this, ( nIdAfter, nIdTo ) -> IndexingAppointmentService.getService( )
+                .buildDataObjectsFromIndex( AppointmentIndexHome.findByIdRange( nIdAfter, nIdTo ) ), AppointmentIndexHome.findIdAppointmentBounds( ),
+                AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_RANGE_WIDTH, getBatchSize( ) ),
+                AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_NB_WORKERS, DEFAULT_REINDEX_NB_WORKERS ),
+                AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_NB_RETRIES, DEFAULT_REINDEX_NB_RETRIES ) ).run( );
+        try
+        {
+            int nNbPurged = purgeDeletedAppointments( );
+            AppLogService.info( "Reindex of " + getId( ) + ": " + nNbPurged + " deleted appointments removed from the index" );
+        }
+        catch( ElasticClientException e )
+        {
+            throw new AppException( "Error removing the deleted appointments from the index of " + getId( ), e );
+        }
+        return nNbIndexed;
+    }
+
+    /**
+     * Remove the documents of the appointments which are no longer in the database, and their history. The ids of the index are read before the ids of the
+     * database, so that an appointment created meanwhile is not taken for a deleted one.
+     * 
+     * @return the number of removed appointments
+     * @throws ElasticClientException
+     *             if the index cannot be read or the documents cannot be deleted
+     */
+    private int purgeDeletedAppointments( ) throws ElasticClientException
+    {
+        List<String> listIndexedId = ElasticBulkClient.searchIds( getTargetIndexName( ), QUERY_MATCH_ALL );
+        Set<Integer> setIdAppointment = new HashSet<>( AppointmentHome.selectAllAppointmentId( ) );
+        List<Integer> listIdDeleted = new ArrayList<>( );
+        for ( String strId : listIndexedId )
+        {
+            if ( StringUtils.isNumeric( strId ) && !setIdAppointment.contains( Integer.parseInt( strId ) ) )
+            {
+                listIdDeleted.add( Integer.parseInt( strId ) );
+            }
+        }
+        if ( !listIdDeleted.isEmpty( ) )
+        {
+            AppointmentHistoryDataSource historyDataSource = SpringContextService.getBean( BEAN_HISTORY_DATA_SOURCE );
+            IndexingAppointmentService.getService( ).deleteListAppointmentAndHistory( this, historyDataSource, listIdDeleted );
+        }
+        return listIdDeleted.size( );
     }
 
 }
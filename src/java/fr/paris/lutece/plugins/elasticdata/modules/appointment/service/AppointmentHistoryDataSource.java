@@ -36,9 +36,13 @@ package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 import fr.paris.lutece.plugins.appointment.business.appointment.AppointmentHome;
 import fr.paris.lutece.plugins.elasticdata.business.AbstractDataSource;
 import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndexHome;
 import fr.paris.lutece.plugins.workflowcore.service.resource.IResourceHistoryService;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import javax.inject.Inject;
 
 /**
@@ -64,4 +68,16 @@ public class AppointmentHistoryDataSource extends AbstractDataSource
                 .buildHistoryWfDataObjects( listIdDataObjects.stream( ).map( Integer::parseInt ).collect( Collectors.toList( ) ) );
     }
 
+    /**
+     * {@inheritDoc} The appointment ids are read page by page with a keyset cursor and the next pages are built while the current one is sent.
+     */
+    @Override
+    public Iterator<DataObject> getDataObjectsIterator( )
+    {
+        this.getIndexingStatus( ).setnNbTotalObj( AppointmentIndexHome.countAppointment( ) );
+        Function<int [ ], List<DataObject>> builder = arrayId -> IndexingAppointmentService.getService( )
+                .buildHistoryWfDataObjects( IntStream.of( arrayId ).boxed( ).collect( Collectors.toList( ) ) );
+        return new PrefetchingDataObjectsIterator( new KeysetBatchIterator( AppointmentIndexHome::findIdAppointmentAfter, builder, getBatchSize( ) ) );
+    }
+
 }
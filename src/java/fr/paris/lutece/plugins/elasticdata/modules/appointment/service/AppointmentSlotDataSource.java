@@ -34,25 +34,38 @@
 package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
-import fr.paris.lutece.plugins.appointment.business.category.Category;
-import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
-import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.business.form.Form;
 import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
 import fr.paris.lutece.plugins.elasticdata.business.AbstractDataSource;
-import fr.paris.lutece.plugins.elasticdata.business.BatchDataObjectsIterator;
 import fr.paris.lutece.plugins.elasticdata.business.DataObject;
-import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 /**
  * Data source for appointment
  */
 public class AppointmentSlotDataSource extends AbstractDataSource
 {
+    private static final String PROPERTY_REINDEX_NB_WORKERS = "elasticdata-appointment.reindex.nbWorkers";
+    private static final String PROPERTY_REINDEX_NB_RETRIES = "elasticdata-appointment.reindex.nbRetries";
+    private static final int DEFAULT_REINDEX_NB_WORKERS = 4;
+    private static final int DEFAULT_REINDEX_NB_RETRIES = 2;
+
+    /**
+     * Constructor
+     */
+    public AppointmentSlotDataSource( )
+    {
+        // set once: the data objects are built by several threads, one form at a time, whatever the batch size
+        this.setBatchSize( BATCH_SIZE );
+    }
 
     /**
      * {@inheritDoc}
@@ -70,31 +83,56 @@ public class AppointmentSlotDataSource extends AbstractDataSource
     @Override
     public List<DataObject> getDataObjects( List<String> listIdDataObjects )
     {
-
-        this.setBatchSize( BATCH_SIZE );
         List<DataObject> collResult = new ArrayList<>( );
         for ( String strIdForm : listIdDataObjects )
         {
 
-            AppointmentFormDTO appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( Integer.parseInt( strIdForm ) );
-            Category category = CategoryHome.findByPrimaryKey( appointmentForm.getIdCategory( ) );
-            List<Slot> listSlots = AppointmentSlotUtil.getAllSlotsToFullIndexing( appointmentForm );
-            for ( Slot appointmentSlot : listSlots )
-            {
-                collResult.add( new AppointmentSlotDataObject( appointmentForm, appointmentSlot, AppointmentSlotUtil.INSTANCE_NAME, category ) );
-
-            }
+            AppointmentFormDTO appointmentForm = ReferenceDataCache.getAppointmentFormDTO( Integer.parseInt( strIdForm ) );
+            collResult.addAll( IndexingSlotService.buildSlotDataObjects( appointmentForm, AppointmentSlotUtil.getAllSlotsToFullIndexing( appointmentForm ) ) );
         }
         return collResult;
     }
 
+    /**
+     * {@inheritDoc} There is one batch per form: the slots of the next forms are generated while the current one is sent, on the threads shared by the
+     * reindexes. The slots stay ordered per form and the number of forms generated in advance is bounded. The slot hashes of the
+     * {@link SlotDocumentHashRegistry} are forgotten as the whole index is rebuilt, the forms being tracked again from their next indexing or slot event;
+     * {@link #reindexSlots()} indexes several forms in parallel and tracks them as they are indexed.
+     */
     @Override
     public Iterator<DataObject> getDataObjectsIterator( )
     {
+        SlotDocumentHashRegistry.forgetAll( );
         List<String> listIdDataObject = this.getIdDataObjects( );
         this.getIndexingStatus( ).setnNbTotalObj( listIdDataObject.size( ) );
-        this.setBatchSize( 1 );
-        return new BatchDataObjectsIterator( this, listIdDataObject );
+        Iterator<Callable<List<DataObject>>> itBatch = listIdDataObject.stream( )
+                .<Callable<List<DataObject>>> map( strIdForm -> ( ) -> getDataObjects( Collections.singletonList( strIdForm ) ) ).iterator( );
+        return new PrefetchingDataObjectsIterator( itBatch );
+    }
+
+    /**
+     * Reindex all the slots in the existing index: the forms are indexed in parallel by several workers, and each form becomes tracked by the
+     * {@link SlotDocumentHashRegistry} once all its slots are indexed, so that the next slot events only send the changed slots
+     * 
+     * @return the number of indexed slots
+     * @throws fr.paris.lutece.portal.service.util.AppException
+     *             if some forms are still in error after the last attempt
+     */
+    public int reindexSlots( )
+    {
+        SlotDocumentHashRegistry.forgetAll( );
+        Set<Integer> setIdForm = FormService.findAllForms( ).stream( ).map( Form::getIdForm ).collect( Collectors.toSet( ) );
+        this.getIndexingStatus( ).setCurrentNbIndexedObj( 0 );
+        int [ ] arrayIdBounds = new int [ ] {
+                setIdForm.stream( ).mapToInt( Integer::intValue ).min( ).orElse( 0 ), setIdForm.stream( ).mapToInt( Integer::intValue ).max( ).orElse( 0 )
+        };
+        // one form per range, the ids which are not forms give an empty range
+        ParallelRangeIndexer.IRangeBuilder builder = ( nIdAfter, nIdTo ) -> setIdForm.contains( nIdTo )
+                ? getDataObjects( Collections.singletonList( String.valueOf( nIdTo ) ) )
+                : Collections.emptyList( );
+        return new ParallelRangeIndexer( this, builder, ( sbLogs, listDataObject ) -> IndexingSlotService.reindexSlotDataObjects( this, listDataObject ),
+                arrayIdBounds, 1, AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_NB_WORKERS, DEFAULT_REINDEX_NB_WORKERS ),
+                AppPropertiesService.getPropertyInt( PROPERTY_REINDEX_NB_RETRIES, DEFAULT_REINDEX_NB_RETRIES ) ).run( );
     }
 
 }
@@ -34,40 +34,37 @@
 package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 
 import java.time.DayOfWeek;
-import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalField;
 import java.time.temporal.WeekFields;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Objects;
-import java.util.TimeZone;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
-
-import org.apache.commons.collections.CollectionUtils;
+import java.util.concurrent.TimeUnit;
 
 import fr.paris.lutece.plugins.appointment.business.appointment.Appointment;
 import fr.paris.lutece.plugins.appointment.business.display.Display;
 import fr.paris.lutece.plugins.appointment.business.planning.WeekDefinition;
-import fr.paris.lutece.plugins.appointment.business.rule.FormRule;
 import fr.paris.lutece.plugins.appointment.business.rule.ReservationRule;
 import fr.paris.lutece.plugins.appointment.business.slot.Slot;
-import fr.paris.lutece.plugins.appointment.service.DisplayService;
-import fr.paris.lutece.plugins.appointment.service.FormRuleService;
 import fr.paris.lutece.plugins.appointment.service.ReservationRuleService;
 import fr.paris.lutece.plugins.appointment.service.SlotService;
 import fr.paris.lutece.plugins.appointment.service.WeekDefinitionService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryIndex;
 import fr.paris.lutece.plugins.workflowcore.business.state.State;
 import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
@@ -85,8 +82,13 @@ public final class AppointmentSlotUtil
 
     public static final String PROPERTY_SITE = "lutece.name";
     public static final DateTimeFormatter SLOT__ID_DATE_FORMATTER = DateTimeFormatter.ofPattern( "yyyyMMdd'T'HHmmss" );
-    private static final StateService _stateService = SpringContextService.getBean( StateService.BEAN_SERVICE );
+    private static final String SLOT_UID_PREFIX = "F";
+    private static final String SLOT_UID_DATE_SEPARATOR = "D";
+    private static final String SLOT_UID_SUFFIX = "_appointment-slot";
+    private static final int SLOT_UID_DATE_LENGTH = 15;
     public static final String INSTANCE_NAME = AppPropertiesService.getProperty( AppointmentSlotUtil.PROPERTY_SITE );
+    private static final ZoneRules SYSTEM_ZONE_RULES = ZoneId.systemDefault( ).getRules( );
+    private static final ZoneOffset SYSTEM_ZONE_OFFSET = SYSTEM_ZONE_RULES.getOffset( Instant.EPOCH );
 
     /**
      * Private constructor - this class does not need to be instantiated
@@ -105,7 +107,64 @@ public final class AppointmentSlotUtil
     public static String getSlotUid( Slot slot )
     {
         String strSlotDateFormatted = slot.getStartingDateTime( ).format( SLOT__ID_DATE_FORMATTER );
-        return "F" + slot.getIdForm( ) + "D" + strSlotDateFormatted + "_appointment-slot";
+        return SLOT_UID_PREFIX + slot.getIdForm( ) + SLOT_UID_DATE_SEPARATOR + strSlotDateFormatted + SLOT_UID_SUFFIX;
+    }
+
+    /**
+     * Get the key of a slot within its form: its starting date as the number yyyyMMddHHmmss, which sorts like the date
+     * 
+     * @param startingDateTime
+     *            the starting date of the slot
+     * @return the slot key
+     */
+    public static long getSlotKey( LocalDateTime startingDateTime )
+    {
+        return startingDateTime.getYear( ) * 10_000_000_000L + startingDateTime.getMonthValue( ) * 100_000_000L + startingDateTime.getDayOfMonth( ) * 1_000_000L
+                + startingDateTime.getHour( ) * 10_000L + startingDateTime.getMinute( ) * 100L + startingDateTime.getSecond( );
+    }
+
+    /**
+     * Get the key of a slot within its form from its uid
+     * 
+     * @param strSlotUid
+     *            the slot uid
+     * @return the slot key
+     */
+    public static long getSlotKey( String strSlotUid )
+    {
+        int nStart = strSlotUid.indexOf( SLOT_UID_DATE_SEPARATOR ) + 1;
+        String strDate = strSlotUid.substring( nStart, nStart + SLOT_UID_DATE_LENGTH );
+        return Long.parseLong( strDate.substring( 0, 8 ) + strDate.substring( 9 ) );
+    }
+
+    /**
+     * Get the slot uid from the form id and the slot key
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param lSlotKey
+     *            the slot key
+     * @return the slot uid
+     */
+    public static String getSlotUid( int nIdForm, long lSlotKey )
+    {
+        String strKey = String.valueOf( lSlotKey );
+        return SLOT_UID_PREFIX + nIdForm + SLOT_UID_DATE_SEPARATOR + strKey.substring( 0, 8 ) + "T" + strKey.substring( 8 ) + SLOT_UID_SUFFIX;
+    }
+
+    /**
+     * Returns the epoch milliseconds of a local date time in the default time zone, as {@link java.util.Date#from} of the date time at this zone, with the
+     * rules of the zone looked up once
+     * 
+     * @param dateTime
+     *            the local date time
+     * @return the epoch milliseconds
+     */
+    public static long toEpochMilli( LocalDateTime dateTime )
+    {
+        // in a gap, the offset before the transition gives the instant of the date time shifted by the length of the gap
+        ZoneOffset offset = SYSTEM_ZONE_RULES.isFixedOffset( ) ? SYSTEM_ZONE_OFFSET : SYSTEM_ZONE_RULES.getOffset( dateTime );
+        return dateTime.toEpochSecond( offset ) * 1000 + dateTime.getNano( ) / 1000000;
     }
 
     /**
@@ -119,7 +178,7 @@ public final class AppointmentSlotUtil
     {
         int idForm = appointmentForm.getIdForm( );
         LocalDate startingDateOfDisplay = LocalDate.now( );
-        Display display = DisplayService.findDisplayWithFormId( idForm );
+        Display display = ReferenceDataCache.getDisplay( idForm );
         // Get the nb weeks to display
         int nNbWeeksToDisplay = display.getNbWeeksToDisplay( );
         if ( appointmentForm.getDateStartValidity( ) != null && startingDateOfDisplay.isBefore( appointmentForm.getDateStartValidity( ).toLocalDate( ) ) )
@@ -159,7 +218,7 @@ public final class AppointmentSlotUtil
      */
     public static List<Slot> getAllSlots( AppointmentFormDTO appointmentForm )
     {
-        Display display = DisplayService.findDisplayWithFormId( appointmentForm.getIdForm( ) );
+        Display display = ReferenceDataCache.getDisplay( appointmentForm.getIdForm( ) );
         // Get the nb weeks to display
         int nNbWeeksToDisplay = display.getNbWeeksToDisplay( );
         // Calculate the ending date of display with the nb weeks to display
@@ -197,7 +256,7 @@ public final class AppointmentSlotUtil
      */
     public static List<Slot> getAllSlotsToFullIndexing( AppointmentFormDTO appointmentForm )
     {
-        Display display = DisplayService.findDisplayWithFormId( appointmentForm.getIdForm( ) );
+        Display display = ReferenceDataCache.getDisplay( appointmentForm.getIdForm( ) );
         // Get the nb weeks to display
         LocalDate endingDateOfDisplay = LocalDate.now( ).with( WeekFields.of( LocaleService.getDefault( ) ).dayOfWeek( ), DayOfWeek.SUNDAY.getValue( ) )
                 .plusWeeks( display.getNbWeeksToDisplay( ) - 1L );
@@ -228,7 +287,7 @@ public final class AppointmentSlotUtil
     public static State getState( int idAppointment, int idWorkflow )
     {
 
-        return _stateService.findByResource( idAppointment, Appointment.APPOINTMENT_RESOURCE_TYPE, idWorkflow );
+        return StateServiceHolder.STATE_SERVICE.findByResource( idAppointment, Appointment.APPOINTMENT_RESOURCE_TYPE, idWorkflow );
     }
 
     /**
@@ -240,10 +299,19 @@ public final class AppointmentSlotUtil
      */
     public static String buildQuery( int idForm )
     {
-        StringBuilder sbuilder = new StringBuilder( );
-        sbuilder.append( "{ \"query\": { \"term\": { \"appointmentForm.idForms\":" + idForm + "} }}" );
+        return "{\"query\": " + buildFilter( idForm ) + "}";
+    }
 
-        return sbuilder.toString( );
+    /**
+     * build the query clause matching the slot documents of a form, to search their ids
+     * 
+     * @param idForm
+     *            the Id form
+     * @return the query clause
+     */
+    public static String buildFilter( int idForm )
+    {
+        return "{ \"term\": { \"appointmentForm.idForms\":" + idForm + "} }";
     }
 
     /**
@@ -255,134 +323,152 @@ public final class AppointmentSlotUtil
      */
     public static String buildQueryDateRange( int idForm, long startingDate, long endingDate )
     {
-        return "{\"query\": {\"bool\": {\"must\": [ { \"term\": { \"appointmentForm.idForms\":" + idForm + "}},{ \"range\": {\"timestamp\":{\"from\":"
-                + startingDate + ",\"to\":" + endingDate + "}}}]}}}";
+        return "{\"query\": " + buildFilterDateRange( idForm, startingDate, endingDate ) + "}";
     }
 
     /**
-     * build query for delete a document into elastic-search
+     * build the query clause matching the slot documents of a date range of a form, to search their ids
      * 
      * @param idForm
      *            the Id form
-     * @return delete query
+     * @param startingDate
+     *            the start of the range in milliseconds
+     * @param endingDate
+     *            the end of the range in milliseconds
+     * @return the query clause
      */
-    public static String buildQueryIdResource( int idResource )
+    public static String buildFilterDateRange( int idForm, long startingDate, long endingDate )
     {
+        return "{\"bool\": {\"must\": [ { \"term\": { \"appointmentForm.idForms\":" + idForm + "}},{ \"range\": {\"timestamp\":{\"from\":" + startingDate
+                + ",\"to\":" + endingDate + "}}}]}}";
+    }
 
-        StringBuilder sbuilder = new StringBuilder( );
-        sbuilder.append( "{ \"query\": { \"match\": { \"appointmentId\":\"" + AppointmentSlotUtil.INSTANCE_NAME + "_" + idResource + "\"} }}" );
+    /**
+     * build query for delete the documents of several resources into elastic-search, matching the keyword of their appointment id so that a single query
+     * removes the history of all the resources
+     * 
+     * @param listIdResource
+     *            the list of id resource
+     * @return delete query
+     */
+    public static String buildQueryIdResources( List<Integer> listIdResource )
+    {
+        StringBuilder sbuilder = new StringBuilder( "{ \"query\": { \"terms\": { \"appointmentId.keyword\": [" );
+        for ( int i = 0; i < listIdResource.size( ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbuilder.append( ',' );
+            }
+            sbuilder.append( '"' ).append( AppointmentSlotUtil.INSTANCE_NAME ).append( '_' ).append( listIdResource.get( i ) ).append( '"' );
+        }
+        sbuilder.append( "] } }}" );
 
         return sbuilder.toString( );
     }
 
     /**
+     * Build the history documents of the workflow entries of an appointment, with the durations from the previous action, from the creation of the
+     * appointment and until the appointment
+     * 
+     * @param listHistory
+     *            the history entries of the appointment, in chronological order
+     * @param appointmentForm
+     *            the form of the appointment
+     * @param lAppointmentCreation
+     *            the creation date of the appointment in milliseconds
+     * @param lAppointmentDate
+     *            the starting date of the appointment in milliseconds
+     * @param lPreviousActionCreation
+     *            the creation date of the action before the first entry in milliseconds
+     * @return the history documents
+     */
+    public static List<AppointmentHistoryDataObject> buildHistoryDataObjects( List<AppointmentHistoryIndex> listHistory, AppointmentForm appointmentForm,
+            long lAppointmentCreation, long lAppointmentDate, long lPreviousActionCreation )
+    {
+        List<AppointmentHistoryDataObject> listHistoryDataObject = new ArrayList<>( listHistory.size( ) );
+        long lPreviousCreation = lPreviousActionCreation;
+        for ( AppointmentHistoryIndex history : listHistory )
+        {
+            long lCreationDate = history.getCreationDate( ).getTime( );
+            AppointmentHistoryDataObject appointmentHistoryDataObject = new AppointmentHistoryDataObject( history.getIdHistory( ), appointmentForm );
+            appointmentHistoryDataObject.setAppointmentId( INSTANCE_NAME + "_" + history.getIdResource( ) );
+            appointmentHistoryDataObject.setTimestamp( lCreationDate );
+            appointmentHistoryDataObject.setTaskDuration( lCreationDate - lPreviousCreation );
+            appointmentHistoryDataObject.setAppointmentDuration( lCreationDate - lAppointmentCreation );
+            appointmentHistoryDataObject.setAppointmentDateActionDateDuration( lAppointmentDate - lCreationDate );
+            appointmentHistoryDataObject.setActionName( history.getActionName( ) );
+            appointmentHistoryDataObject.setCreationDate( history.getCreationDate( ) );
+            listHistoryDataObject.add( appointmentHistoryDataObject );
+            lPreviousCreation = lCreationDate;
+        }
+        return listHistoryDataObject;
+    }
+
+    /**
+     * Set the availability fields of an appointment document: the time from now until the first free slot before the appointment and the capacity of the
+     * slots before the appointment. Only the open slots bookable now, given the minimum time before an appointment of the form, are considered.
      * 
      * @param apptData
      *            the AppointmentDataObject
-     * @param listSlots
-     *            The list slots
-     * @param localTime
-     *            The localTime
+     * @param availabilityIndex
+     *            the availability index of the slots of the form
+     * @param lNow
+     *            the current time in milliseconds
      * @param appointmentForm
      *            The appointment form
      * @return AppointmentDataObject builded
      */
-    public static AppointmentDataObject buildAppointmentDataObject( AppointmentDataObject apptData, List<Slot> listSlots, LocalDateTime localTime,
+    public static AppointmentDataObject buildAppointmentDataObject( AppointmentDataObject apptData, SlotAvailabilityIndex availabilityIndex, long lNow,
             AppointmentForm appointmentForm )
     {
+        long lStartAppointment = Long.parseLong( apptData.getTimestamp( ) );
+        long lBookableAfter = lNow + TimeUnit.HOURS.toMillis( appointmentForm.getMinTimeBeforeAppointment( ) );
 
-        long lSumNbPlacesBeforeAppointment;
-        LocalDateTime startAppointment = LocalDateTime.ofInstant( Instant.ofEpochMilli( Long.parseLong( apptData.getTimestamp( ) ) ),
-                TimeZone.getDefault( ).toZoneId( ) );
-
-        FormRule formRule = FormRuleService.findFormRuleWithFormId( appointmentForm.getIdForms( ) );
-        int minTimeBeforeAppointment = formRule.getMinTimeBeforeAppointment( );
-        LocalDateTime dateTimeBeforeAppointment = LocalDateTime.now( ).plusHours( minTimeBeforeAppointment );
-
-        if ( CollectionUtils.isNotEmpty( listSlots ) )
-        {
-            listSlots = listSlots.stream( ).filter( s -> s.getStartingDateTime( ).isAfter( dateTimeBeforeAppointment ) ).collect( Collectors.toList( ) );
-        }
-
-        List<Slot> listAvailableSlots = listSlots.stream( )
-                .filter( s -> s.getStartingDateTime( ).isBefore( startAppointment ) && s.getIsOpen( ) == Boolean.TRUE ).collect( Collectors.toList( ) );
-
-        apptData.setTimeUntilAvailability( getTimeUntilAvailability( listAvailableSlots, localTime, startAppointment ) );
-
-        lSumNbPlacesBeforeAppointment = listAvailableSlots.stream( ).mapToLong( s -> s.getMaxCapacity( ) ).sum( );
-        apptData.setSumNbPlacesBeforeAppointment( lSumNbPlacesBeforeAppointment );
+        long lFirstFreeSlot = availabilityIndex.getFirstFreeSlot( lBookableAfter, lStartAppointment );
+        apptData.setTimeUntilAvailability( ( ( lFirstFreeSlot >= 0 ) ? lFirstFreeSlot : lStartAppointment ) - lNow );
+        apptData.setSumNbPlacesBeforeAppointment( availabilityIndex.getSumCapacity( lBookableAfter, lStartAppointment ) );
 
         apptData.setAppointmentForm( appointmentForm );
         return apptData;
-
     }
 
     /**
-     * Get the state of appointment
+     * Set the category availability fields of an appointment document: the time from now until the first free slot of any form of the category before the
+     * appointment and the capacity of these slots. Only the open slots bookable now, given the minimum time before an appointment of each form, are
+     * considered.
      * 
-     * @param listAvailableSlots
-     *            The list of available slots
-     * @param idWorkflow
-     *            The if form
-     * @return State of appointment
+     * @param apptData
+     *            the AppointmentDataObject
+     * @param categoryIndex
+     *            the availability index of the category
+     * @param lNow
+     *            the current time in milliseconds
+     * @return AppointmentDataObject builded
      */
-    public static long getTimeUntilAvailability( List<Slot> listAvailableSlots, LocalDateTime localTime, LocalDateTime startAppointment )
+    public static AppointmentDataObject buildAppointmentCategoryAvailability( AppointmentDataObject apptData, CategoryAvailabilityIndex categoryIndex,
+            long lNow )
     {
-        long lTimeUntilAvailability = 0;
-        LocalDateTime firstDateOfFreeOpenSlot = null;
-
-        listAvailableSlots = listAvailableSlots.stream( ).filter( s -> s.getNbRemainingPlaces( ) > 0 ).collect( Collectors.toList( ) );
-        if ( CollectionUtils.isNotEmpty( listAvailableSlots ) )
-        {
-            // if
-            firstDateOfFreeOpenSlot = listAvailableSlots.stream( ).min( ( s1, s2 ) -> s1.getStartingDateTime( ).compareTo( s2.getStartingDateTime( ) ) ).get( )
-                    .getStartingDateTime( );
-            if ( firstDateOfFreeOpenSlot.isBefore( startAppointment ) )
-            {
-                lTimeUntilAvailability = Duration.between( localTime, firstDateOfFreeOpenSlot ).toMillis( );
-            }
-            else
-            {
-                lTimeUntilAvailability = Duration.between( localTime, startAppointment ).toMillis( );
-            }
-        }
-        else
-        {
-
-            lTimeUntilAvailability = Duration.between( localTime, startAppointment ).toMillis( );
-        }
-
-        return lTimeUntilAvailability;
+        long lStartAppointment = Long.parseLong( apptData.getTimestamp( ) );
 
+        long lFirstFreeSlot = categoryIndex.getFirstFreeSlot( lNow, lStartAppointment );
+        apptData.setTimeUntilCategoryAvailability( ( ( lFirstFreeSlot >= 0 ) ? lFirstFreeSlot : lStartAppointment ) - lNow );
+        apptData.setCategorySumNbPlacesBeforeAppointment( categoryIndex.getSumCapacity( lNow, lStartAppointment ) );
+        return apptData;
     }
 
-    public static int calculateConsecutiveSlots( Slot slot, List<Slot> allSlots )
+    /**
+     * Lazy holder of the state service, so that the utilities not related to the workflow can be used outside of a Spring context
+     */
+    private static final class StateServiceHolder
     {
-        if ( slot.getNbPotentialRemainingPlaces( ) == 0 )
-        {
-            return 0;
-        }
-        AtomicInteger consecutiveSlots = new AtomicInteger( 1 );
-        doCalculateConsecutiveSlots( slot, allSlots, consecutiveSlots );
-        return consecutiveSlots.get( );
-    }
+        private static final StateService STATE_SERVICE = SpringContextService.getBean( StateService.BEAN_SERVICE );
 
-    private static void doCalculateConsecutiveSlots( Slot slot, List<Slot> allSlots, AtomicInteger consecutiveSlots )
-    {
-        for ( Slot nextSlot : allSlots )
+        /**
+         * Private constructor - this class does not need to be instantiated
+         */
+        private StateServiceHolder( )
         {
-            if ( Objects.equals( slot.getEndingDateTime( ), nextSlot.getStartingDateTime( ) ) )
-            {
-                if ( nextSlot.getNbPotentialRemainingPlaces( ) > 0 )
-                {
-                    consecutiveSlots.addAndGet( 1 );
-                    doCalculateConsecutiveSlots( nextSlot, allSlots, consecutiveSlots );
-                }
-                else
-                {
-                    break;
-                }
-            }
         }
     }
 }
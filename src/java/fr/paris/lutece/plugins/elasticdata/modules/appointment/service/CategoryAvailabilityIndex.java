@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.appointment.business.form.Form;
+import fr.paris.lutece.plugins.appointment.service.FormService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Availability index of a category: the active forms of the category with their minimum time before an appointment. It holds no slot: the queries are
+ * answered from the {@link SlotAvailabilityIndex} of each form, which the slot events keep up to date, and the slots bookable from the time of the query are
+ * selected then. The forms of a category are cached for a limited time and invalidated by the form changes.
+ */
+public final class CategoryAvailabilityIndex
+{
+    private static final String PROPERTY_TTL = "elasticdata-appointment.availability.ttl";
+    private static final int DEFAULT_TTL = 300;
+    private static final String METRIC_BUILD = "availability.category.build";
+
+    private static final ConcurrentMap<Integer, CategoryAvailabilityIndex> _mapIndex = new ConcurrentHashMap<>( );
+    private static final AtomicLong _lVersion = new AtomicLong( );
+
+    private final int [ ] _arrayIdForm;
+    private final long [ ] _arrayMinTimeBefore;
+    private final long _lExpiration;
+
+    /**
+     * Constructor
+     * 
+     * @param arrayIdForm
+     *            the ids of the active forms of the category
+     * @param arrayMinTimeBefore
+     *            the minimum time before an appointment of each form, in milliseconds
+     * @param lExpiration
+     *            the time after which the forms of the category are searched again
+     */
+    private CategoryAvailabilityIndex( int [ ] arrayIdForm, long [ ] arrayMinTimeBefore, long lExpiration )
+    {
+        _arrayIdForm = arrayIdForm;
+        _arrayMinTimeBefore = arrayMinTimeBefore;
+        _lExpiration = lExpiration;
+    }
+
+    /**
+     * Returns the availability index of a category, searching its active forms if it is not cached or expired
+     * 
+     * @param nIdCategory
+     *            the category id
+     * @return the availability index of the category
+     */
+    public static CategoryAvailabilityIndex getIndex( int nIdCategory )
+    {
+        CategoryAvailabilityIndex index = _mapIndex.get( nIdCategory );
+        long lNow = System.currentTimeMillis( );
+        if ( index != null && index._lExpiration > lNow )
+        {
+            return index;
+        }
+        long lVersion = _lVersion.get( );
+        List<AppointmentFormDTO> listForm = new ArrayList<>( );
+        for ( Form form : FormService.findAllForms( ) )
+        {
+            AppointmentFormDTO appointmentForm = ReferenceDataCache.getAppointmentFormDTO( form.getIdForm( ) );
+            if ( appointmentForm != null && appointmentForm.getIdCategory( ) == nIdCategory && appointmentForm.getIsActive( ) )
+            {
+                listForm.add( appointmentForm );
+            }
+        }
+        int [ ] arrayIdForm = new int [ listForm.size( )];
+        long [ ] arrayMinTimeBefore = new long [ listForm.size( )];
+        for ( int i = 0; i < listForm.size( ); i++ )
+        {
+            arrayIdForm [i] = listForm.get( i ).getIdForm( );
+            arrayMinTimeBefore [i] = TimeUnit.HOURS.toMillis( listForm.get( i ).getMinTimeBeforeAppointment( ) );
+        }
+        index = new CategoryAvailabilityIndex( arrayIdForm, arrayMinTimeBefore,
+                lNow + TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( PROPERTY_TTL, DEFAULT_TTL ) ) );
+        IndexingMetrics.increment( METRIC_BUILD );
+        // an index built while a form changed may be stale: it is returned but not cached
+        if ( lVersion == _lVersion.get( ) )
+        {
+            _mapIndex.put( nIdCategory, index );
+        }
+        return index;
+    }
+
+    /**
+     * Invalidate the indexes of all the categories, after a change of a form which may have moved it between categories or (de)activated it
+     */
+    public static void invalidate( )
+    {
+        _lVersion.incrementAndGet( );
+        _mapIndex.clear( );
+    }
+
+    /**
+     * Returns the starting date of the first open slot with remaining places of the forms of the category, bookable at a given time and starting before a
+     * date
+     * 
+     * @param lNow
+     *            the time of the booking, in milliseconds
+     * @param lBefore
+     *            the upper bound, in milliseconds
+     * @return the starting date in milliseconds, -1 if there is no such slot
+     */
+    public long getFirstFreeSlot( long lNow, long lBefore )
+    {
+        long lFirstFreeSlot = -1;
+        for ( int i = 0; i < _arrayIdForm.length; i++ )
+        {
+            long lFormFirstFreeSlot = SlotAvailabilityIndex.getIndex( _arrayIdForm [i] ).getFirstFreeSlot( lNow + _arrayMinTimeBefore [i], lBefore );
+            if ( lFormFirstFreeSlot >= 0 && ( lFirstFreeSlot < 0 || lFormFirstFreeSlot < lFirstFreeSlot ) )
+            {
+                lFirstFreeSlot = lFormFirstFreeSlot;
+            }
+        }
+        return lFirstFreeSlot;
+    }
+
+    /**
+     * Returns the sum of the capacity of the open slots of the forms of the category, bookable at a given time and starting before a date
+     * 
+     * @param lNow
+     *            the time of the booking, in milliseconds
+     * @param lBefore
+     *            the upper bound, in milliseconds
+     * @return the sum of the capacity
+     */
+    public long getSumCapacity( long lNow, long lBefore )
+    {
+        long lSumCapacity = 0;
+        for ( int i = 0; i < _arrayIdForm.length; i++ )
+        {
+            lSumCapacity += SlotAvailabilityIndex.getIndex( _arrayIdForm [i] ).getSumCapacity( lNow + _arrayMinTimeBefore [i], lBefore );
+        }
+        return lSumCapacity;
+    }
+}
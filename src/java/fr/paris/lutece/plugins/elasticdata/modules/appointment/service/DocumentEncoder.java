@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.sql.Timestamp;
+import java.time.LocalTime;
+import java.util.Date;
+
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotPartialDataObject;
+
+/**
+ * Streaming JSON encoders of the documents of the module, writing the same fields and values as the Jackson serialization of the data objects: the dates
+ * as epoch milliseconds, the fields annotated with a format as formatted strings in UTC, the local times as arrays and the timestamp of the data object as
+ * a string. The fields are written in the declaration order of the getters, where Jackson follows the reflection order of the methods.
+ */
+public final class DocumentEncoder
+{
+    private static final long MILLIS_PER_MINUTE = 60000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
+    private static final int MINUTES_PER_HOUR = 60;
+    private static final int HOURS_PER_HALF_DAY = 12;
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private DocumentEncoder( )
+    {
+    }
+
+    /**
+     * Write a document if its type has an encoder
+     * 
+     * @param document
+     *            the document
+     * @param writer
+     *            the writer
+     * @return true if the document was written, false if its type has no encoder
+     */
+    public static boolean encode( Object document, NdjsonWriter writer )
+    {
+        if ( document instanceof AppointmentDataObject )
+        {
+            encodeAppointment( (AppointmentDataObject) document, writer );
+        }
+        else
+            if ( document instanceof AppointmentSlotDataObject )
+            {
+                encodeSlot( (AppointmentSlotDataObject) document, writer );
+            }
+            else
+                if ( document instanceof AppointmentHistoryDataObject )
+                {
+                    encodeHistory( (AppointmentHistoryDataObject) document, writer );
+                }
+                else
+                    if ( document instanceof AppointmentPartialDataObject )
+                    {
+                        encodeAppointmentPartial( (AppointmentPartialDataObject) document, writer );
+                    }
+                    else
+                        if ( document instanceof AppointmentSlotPartialDataObject )
+                        {
+                            encodeSlotPartial( (AppointmentSlotPartialDataObject) document, writer );
+                        }
+                        else
+                        {
+                            return false;
+                        }
+        return true;
+    }
+
+    /**
+     * Write an appointment document
+     * 
+     * @param appointment
+     *            the appointment data object
+     * @param writer
+     *            the writer
+     */
+    public static void encodeAppointment( AppointmentDataObject appointment, NdjsonWriter writer )
+    {
+        writer.writeAscii( '{' );
+        writer.writeField( "idAppointment", true ).writeLong( appointment.getIdAppointment( ) );
+        writer.writeField( "nbPlaces", false ).writeLong( appointment.getNbPlaces( ) );
+        writer.writeField( "isCancelled", false ).writeBoolean( appointment.getIsCancelled( ) );
+        writer.writeField( "timeUntilAvailability", false ).writeLong( appointment.getTimeUntilAvailability( ) );
+        writer.writeField( "timeUntilCategoryAvailability", false ).writeLong( appointment.getTimeUntilCategoryAvailability( ) );
+        writer.writeField( "sumNbPlacesBeforeAppointment", false ).writeLong( appointment.getSumNbPlacesBeforeAppointment( ) );
+        writer.writeField( "categorySumNbPlacesBeforeAppointment", false ).writeLong( appointment.getCategorySumNbPlacesBeforeAppointment( ) );
+        writer.writeField( "state", false ).writeString( appointment.getState( ) );
+        writer.writeField( "nameInstance", false ).writeString( appointment.getNameInstance( ) );
+        writer.writeField( "appointmentForm", false );
+        encodeForm( appointment.getAppointmentForm( ), writer );
+        writer.writeField( "createdTimestamp", false ).writeLong( appointment.getCreatedTimestamp( ) );
+        writer.writeField( "adminCreator", false ).writeBoolean( appointment.getAdminCreator( ) );
+        writer.writeField( "timestamp", false ).writeString( appointment.getTimestamp( ) );
+        writer.writeAscii( '}' );
+    }
+
+    /**
+     * Write a slot document. The fields carrying a format annotation are also serialized by Jackson under their field name, hence the formatted copies of
+     * the dates and of the starting time.
+     * 
+     * @param slot
+     *            the slot data object
+     * @param writer
+     *            the writer
+     */
+    public static void encodeSlot( AppointmentSlotDataObject slot, NdjsonWriter writer )
+    {
+        writer.writeAscii( '{' );
+        writer.writeField( "_dateStartingDateTime", true );
+        writeFormattedDate( slot.getStartingDateTime( ), writer );
+        writer.writeField( "_dateEndingDateTime", false );
+        writeFormattedDate( slot.getEndingDateTime( ), writer );
+        writer.writeField( "_timeStartingDateTime", false );
+        writeFormattedTime( slot.getTimeStartingDateTime( ), writer );
+        writer.writeField( "startingDateTime", false );
+        writeDate( slot.getStartingDateTime( ), writer );
+        writer.writeField( "endingDateTime", false );
+        writeDate( slot.getEndingDateTime( ), writer );
+        writer.writeField( "duration", false ).writeLong( slot.getDuration( ) );
+        writer.writeField( "maxCapacity", false ).writeLong( slot.getMaxCapacity( ) );
+        writer.writeField( "nbRemainingPlaces", false ).writeLong( slot.getNbRemainingPlaces( ) );
+        writer.writeField( "nameInstance", false ).writeString( slot.getNameInstance( ) );
+        writer.writeField( "appointmentForm", false );
+        encodeForm( slot.getAppointmentForm( ), writer );
+        writer.writeField( "nbrPlacesTaken", false ).writeLong( slot.getNbrPlacesTaken( ) );
+        writer.writeField( "nbConsecutiveSlots", false ).writeLong( slot.getNbConsecutiveSlots( ) );
+        writer.writeField( "isOpen", false ).writeBoolean( slot.getIsOpen( ) );
+        writer.writeField( "timeStartingDateTime", false );
+        writeTime( slot.getTimeStartingDateTime( ), writer );
+        writer.writeField( "timestamp", false ).writeString( slot.getTimestamp( ) );
+        writer.writeAscii( '}' );
+    }
+
+    /**
+     * Write a workflow history document
+     * 
+     * @param history
+     *            the history data object
+     * @param writer
+     *            the writer
+     */
+    public static void encodeHistory( AppointmentHistoryDataObject history, NdjsonWriter writer )
+    {
+        writer.writeAscii( '{' );
+        writer.writeField( "appointmentId", true ).writeString( history.getAppointmentId( ) );
+        writer.writeField( "taskDuration", false ).writeLong( history.getTaskDuration( ) );
+        writer.writeField( "appointmentDuration", false ).writeLong( history.getAppointmentDuration( ) );
+        writer.writeField( "appointmentDateActionDateDuration", false ).writeLong( history.getAppointmentDateActionDateDuration( ) );
+        writer.writeField( "unitName", false ).writeString( history.getUnitName( ) );
+        writer.writeField( "actionName", false ).writeString( history.getActionName( ) );
+        writer.writeField( "creationDate", false );
+        writeDate( history.getCreationDate( ), writer );
+        writer.writeField( "appointmentForm", false );
+        encodeForm( history.getAppointmentForm( ), writer );
+        writer.writeField( "timestamp", false ).writeString( history.getTimestamp( ) );
+        writer.writeAscii( '}' );
+    }
+
+    /**
+     * Write the partial document of the state of an appointment, without the state field if the appointment has no state
+     * 
+     * @param appointment
+     *            the partial data object
+     * @param writer
+     *            the writer
+     */
+    public static void encodeAppointmentPartial( AppointmentPartialDataObject appointment, NdjsonWriter writer )
+    {
+        writer.writeAscii( '{' );
+        writer.writeField( "id", true ).writeString( appointment.getId( ) );
+        writer.writeField( "isCancelled", false ).writeBoolean( appointment.getIsCancelled( ) );
+        if ( appointment.getState( ) != null )
+        {
+            writer.writeField( "state", false ).writeString( appointment.getState( ) );
+        }
+        writer.writeAscii( '}' );
+    }
+
+    /**
+     * Write the partial document of the capacity of a slot
+     * 
+     * @param slot
+     *            the partial data object
+     * @param writer
+     *            the writer
+     */
+    public static void encodeSlotPartial( AppointmentSlotPartialDataObject slot, NdjsonWriter writer )
+    {
+        writer.writeAscii( '{' );
+        writer.writeField( "nbRemainingPlaces", true ).writeLong( slot.getNbRemainingPlaces( ) );
+        writer.writeField( "nbrPlacesTaken", false ).writeLong( slot.getNbrPlacesTaken( ) );
+        writer.writeField( "nbConsecutiveSlots", false ).writeLong( slot.getNbConsecutiveSlots( ) );
+        writer.writeAscii( '}' );
+    }
+
+    /**
+     * Write the form of a document, or null. The encoding of a form is kept by the form instance, shared by the documents of the form, and spliced into
+     * the next documents.
+     * 
+     * @param form
+     *            the form
+     * @param writer
+     *            the writer
+     */
+    private static void encodeForm( AppointmentForm form, NdjsonWriter writer )
+    {
+        if ( form == null )
+        {
+            writer.writeNull( );
+            return;
+        }
+        byte [ ] jsonFragment = form.getJsonFragment( );
+        if ( jsonFragment != null )
+        {
+            writer.writeRaw( jsonFragment );
+            return;
+        }
+        int nStart = writer.size( );
+        writer.writeAscii( '{' );
+        writer.writeField( "idForms", true ).writeLong( form.getIdForms( ) );
+        writer.writeField( "titleForms", false ).writeString( form.getTitleForms( ) );
+        writer.writeField( "category", false ).writeString( form.getCategory( ) );
+        writer.writeField( "isActive", false ).writeBoolean( form.getIsActive( ) );
+        writer.writeField( "isMultiSlot", false ).writeBoolean( form.getIsMultiSlot( ) );
+        writer.writeField( "geoPoint", false ).writeString( form.getGeoPoint( ) );
+        writer.writeField( "address", false ).writeString( form.getAddress( ) );
+        writer.writeField( "minTimeBeforeAppointment", false ).writeLong( form.getMinTimeBeforeAppointment( ) );
+        writer.writeField( "idWorkflow", false ).writeLong( form.getIdWorkflow( ) );
+        writer.writeAscii( '}' );
+        form.setJsonFragment( writer.toByteArray( nStart ) );
+    }
+
+    /**
+     * Write a date as epoch milliseconds, or null. A {@link Timestamp} is also written in milliseconds, its nanoseconds being dropped.
+     * 
+     * @param date
+     *            the date
+     * @param writer
+     *            the writer
+     */
+    private static void writeDate( Date date, NdjsonWriter writer )
+    {
+        if ( date == null )
+        {
+            writer.writeNull( );
+        }
+        else
+        {
+            writer.writeLong( date.getTime( ) );
+        }
+    }
+
+    /**
+     * Write a date with the pattern yyyy-MM-dd HH:mm in UTC, or null
+     * 
+     * @param date
+     *            the date
+     * @param writer
+     *            the writer
+     */
+    private static void writeFormattedDate( Date date, NdjsonWriter writer )
+    {
+        if ( date == null )
+        {
+            writer.writeNull( );
+            return;
+        }
+        long lMillis = date.getTime( );
+        long lEpochDay = Math.floorDiv( lMillis, MILLIS_PER_DAY );
+        int nMinuteOfDay = (int) ( Math.floorMod( lMillis, MILLIS_PER_DAY ) / MILLIS_PER_MINUTE );
+
+        // civil date of the epoch day, on eras of 400 years starting on March 1st
+        long lDays = lEpochDay + 719468;
+        long lEra = Math.floorDiv( lDays, 146097 );
+        long lDayOfEra = lDays - lEra * 146097;
+        long lYearOfEra = ( lDayOfEra - lDayOfEra / 1460 + lDayOfEra / 36524 - lDayOfEra / 146096 ) / 365;
+        long lDayOfYear = lDayOfEra - ( 365 * lYearOfEra + lYearOfEra / 4 - lYearOfEra / 100 );
+        long lMonthIndex = ( 5 * lDayOfYear + 2 ) / 153;
+        int nDay = (int) ( lDayOfYear - ( 153 * lMonthIndex + 2 ) / 5 + 1 );
+        int nMonth = (int) ( lMonthIndex < 10 ? lMonthIndex + 3 : lMonthIndex - 9 );
+        long lYear = lYearOfEra + lEra * 400 + ( nMonth <= 2 ? 1 : 0 );
+
+        writer.writeAscii( '"' ).writePadded( (int) lYear, 4 ).writeAscii( '-' ).writePadded( nMonth, 2 ).writeAscii( '-' ).writePadded( nDay, 2 );
+        writer.writeAscii( ' ' ).writePadded( nMinuteOfDay / MINUTES_PER_HOUR, 2 ).writeAscii( ':' ).writePadded( nMinuteOfDay % MINUTES_PER_HOUR, 2 );
+        writer.writeAscii( '"' );
+    }
+
+    /**
+     * Write a time with the pattern KK:mm, the hour of the half day, or null
+     * 
+     * @param time
+     *            the time
+     * @param writer
+     *            the writer
+     */
+    private static void writeFormattedTime( LocalTime time, NdjsonWriter writer )
+    {
+        if ( time == null )
+        {
+            writer.writeNull( );
+            return;
+        }
+        writer.writeAscii( '"' ).writePadded( time.getHour( ) % HOURS_PER_HALF_DAY, 2 ).writeAscii( ':' ).writePadded( time.getMinute( ), 2 );
+        writer.writeAscii( '"' );
+    }
+
+    /**
+     * Write a time as the array of its hour, minute and, when they are not zero, second and nanoseconds, or null
+     * 
+     * @param time
+     *            the time
+     * @param writer
+     *            the writer
+     */
+    private static void writeTime( LocalTime time, NdjsonWriter writer )
+    {
+        if ( time == null )
+        {
+            writer.writeNull( );
+            return;
+        }
+        writer.writeAscii( '[' ).writeLong( time.getHour( ) ).writeAscii( ',' ).writeLong( time.getMinute( ) );
+        if ( time.getSecond( ) != 0 || time.getNano( ) != 0 )
+        {
+            writer.writeAscii( ',' ).writeLong( time.getSecond( ) );
+            if ( time.getNano( ) != 0 )
+            {
+                writer.writeAscii( ',' ).writeLong( time.getNano( ) );
+            }
+        }
+        writer.writeAscii( ']' );
+    }
+}
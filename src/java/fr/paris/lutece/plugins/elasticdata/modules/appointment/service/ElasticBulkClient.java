@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticConnexion;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.util.httpaccess.HttpAccessException;
+
+/**
+ * Client sending bulk requests to the Elasticsearch server configured for the elasticdata plugin, through the connection of the library-elastic client
+ * with the same server url and credentials as elasticdata. It also lists the ids of the documents matching a query, to find the documents to delete.
+ */
+public final class ElasticBulkClient
+{
+    private static final String PROPERTY_SERVER_URL = "elasticdata.elastic_server.url";
+    private static final String PROPERTY_SERVER_LOGIN = "elasticdata.elastic_server.login";
+    private static final String PROPERTY_SERVER_PWD = "elasticdata.elastic_server.pwd";
+    private static final String PROPERTY_BULK_DELETE_SIZE = "elasticdata-appointment.bulk.deleteSize";
+    private static final int DEFAULT_BULK_DELETE_SIZE = 1000;
+    private static final String PATH_BULK = "/_bulk";
+    private static final String PATH_REFRESH = "/_refresh";
+    private static final String PATH_SEARCH = "/_search";
+    private static final String PATH_SEARCH_SCROLL = "/_search/scroll";
+    private static final String SCROLL_KEEP_ALIVE = "1m";
+    private static final int SEARCH_PAGE_SIZE = 1000;
+    private static final String METRIC_BULK = "bulk.requests";
+    private static final String METRIC_BULK_ACTIONS = "bulk.actions";
+    private static final String METRIC_BULK_ERRORS = "bulk.errors";
+    private static final String METRIC_BULK_WRITTEN = "bulk.written";
+    private static final String ACTION_DELETE = "delete";
+    private static final int HTTP_STATUS_NOT_FOUND = 404;
+    private static final int HTTP_STATUS_ERROR = 300;
+
+    private static final ObjectMapper _mapper = new ObjectMapper( );
+    private static volatile ElasticConnexion _connexion;
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private ElasticBulkClient( )
+    {
+    }
+
+    /**
+     * Send a bulk request. The failed actions are logged one by one; the deletion of a missing document is not a failure.
+     * 
+     * @param request
+     *            the bulk request
+     * @return the number of failed actions
+     * @throws ElasticClientException
+     *             if the request cannot be sent or is rejected as a whole
+     */
+    public static int execute( ElasticBulkRequest request ) throws ElasticClientException
+    {
+        return executeForFailures( request ).cardinality( );
+    }
+
+    /**
+     * Delete documents by id with bulk delete actions, in requests of at most elasticdata-appointment.bulk.deleteSize actions
+     * 
+     * @param strIndex
+     *            the index name
+     * @param listId
+     *            the document ids
+     * @return the number of failed deletions
+     * @throws ElasticClientException
+     *             if a request cannot be sent or is rejected as a whole
+     */
+    public static int deleteById( String strIndex, List<String> listId ) throws ElasticClientException
+    {
+        int nBatchSize = getDeleteBatchSize( );
+        int nNbErrors = 0;
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        for ( String strId : listId )
+        {
+            request.delete( strIndex, strId );
+            if ( request.size( ) >= nBatchSize )
+            {
+                nNbErrors += execute( request );
+                request.clear( );
+            }
+        }
+        return nNbErrors + execute( request );
+    }
+
+    /**
+     * Returns the ids of the documents of an index matching a query. The index is refreshed first, so that the documents indexed just before are found; the
+     * ids are then read page by page with a scroll, which expires on its own once read.
+     * 
+     * @param strIndex
+     *            the index name
+     * @param strQuery
+     *            the query, as the JSON of the query clause of a search
+     * @return the ids of the matching documents
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public static List<String> searchIds( String strIndex, String strQuery ) throws ElasticClientException
+    {
+        String strServerUrl = StringUtils.removeEnd( AppPropertiesService.getProperty( PROPERTY_SERVER_URL ), "/" );
+        List<String> listId = new ArrayList<>( );
+        try
+        {
+            getConnexion( ).POST( strServerUrl + "/" + strIndex + PATH_REFRESH, "" );
+            JsonNode response = _mapper.readTree( getConnexion( ).POST( strServerUrl + "/" + strIndex + PATH_SEARCH + "?scroll=" + SCROLL_KEEP_ALIVE,
+                    "{\"size\":" + SEARCH_PAGE_SIZE + ",\"_source\":false,\"sort\":[\"_doc\"],\"query\":" + strQuery + "}" ) );
+            JsonNode hits = response.path( "hits" ).path( "hits" );
+            while ( hits.size( ) > 0 )
+            {
+                for ( JsonNode hit : hits )
+                {
+                    listId.add( hit.path( "_id" ).asText( ) );
+                }
+                response = _mapper.readTree( getConnexion( ).POST( strServerUrl + PATH_SEARCH_SCROLL,
+                        "{\"scroll\":\"" + SCROLL_KEEP_ALIVE + "\",\"scroll_id\":\"" + response.path( "_scroll_id" ).asText( ) + "\"}" ) );
+                hits = response.path( "hits" ).path( "hits" );
+            }
+        }
+        catch( HttpAccessException | IOException e )
+        {
+            throw new ElasticClientException( "Error searching the documents of " + strIndex + " on " + strServerUrl, e );
+        }
+        return listId;
+    }
+
+    /**
+     * Returns the maximum number of delete actions of a bulk request
+     * 
+     * @return the maximum number of delete actions
+     */
+    public static int getDeleteBatchSize( )
+    {
+        return AppPropertiesService.getPropertyInt( PROPERTY_BULK_DELETE_SIZE, DEFAULT_BULK_DELETE_SIZE );
+    }
+
+    /**
+     * Send a bulk request and report the failed actions by their position in the request, the items of a bulk response being in the order of the actions.
+     * The failed actions are logged one by one; the deletion of a missing document is not a failure.
+     * 
+     * @param request
+     *            the bulk request
+     * @return the positions of the failed actions
+     * @throws ElasticClientException
+     *             if the request cannot be sent or is rejected as a whole
+     */
+    public static BitSet executeForFailures( ElasticBulkRequest request ) throws ElasticClientException
+    {
+        if ( request.isEmpty( ) )
+        {
+            return new BitSet( );
+        }
+        long lStart = System.nanoTime( );
+        String strServerUrl = AppPropertiesService.getProperty( PROPERTY_SERVER_URL );
+        JsonNode response;
+        try
+        {
+            response = _mapper.readTree( getConnexion( ).POST( StringUtils.removeEnd( strServerUrl, "/" ) + PATH_BULK, request.getBody( ) ) );
+        }
+        catch( HttpAccessException | IOException e )
+        {
+            throw new ElasticClientException( "Error sending a bulk request to " + strServerUrl, e );
+        }
+        BitSet failures = response.path( "errors" ).asBoolean( ) ? getFailures( response ) : new BitSet( );
+        IndexingMetrics.increment( METRIC_BULK );
+        IndexingMetrics.add( METRIC_BULK_ACTIONS, request.size( ) );
+        IndexingMetrics.add( METRIC_BULK_ERRORS, failures.cardinality( ) );
+        IndexingMetrics.add( METRIC_BULK_WRITTEN, (long) request.size( ) - failures.cardinality( ) );
+        IndexingMetrics.recordLatency( METRIC_BULK, System.nanoTime( ) - lStart );
+        return failures;
+    }
+
+    /**
+     * Returns the connection to the Elasticsearch server, created on first use with the credentials of elasticdata
+     * 
+     * @return the connection
+     */
+    private static ElasticConnexion getConnexion( )
+    {
+        ElasticConnexion connexion = _connexion;
+        if ( connexion == null )
+        {
+            String strLogin = AppPropertiesService.getProperty( PROPERTY_SERVER_LOGIN );
+            connexion = StringUtils.isNotEmpty( strLogin ) ? new ElasticConnexion( strLogin, AppPropertiesService.getProperty( PROPERTY_SERVER_PWD, "" ) )
+                    : new ElasticConnexion( );
+            _connexion = connexion;
+        }
+        return connexion;
+    }
+
+    /**
+     * Log the failed actions of a bulk response
+     * 
+     * @param response
+     *            the bulk response
+     * @return the positions of the failed actions
+     */
+    private static BitSet getFailures( JsonNode response )
+    {
+        BitSet failures = new BitSet( );
+        int nPosition = -1;
+        for ( JsonNode item : response.path( "items" ) )
+        {
+            nPosition++;
+            Iterator<Map.Entry<String, JsonNode>> itAction = item.fields( );
+            if ( !itAction.hasNext( ) )
+            {
+                continue;
+            }
+            Map.Entry<String, JsonNode> action = itAction.next( );
+            int nStatus = action.getValue( ).path( "status" ).asInt( );
+            boolean bMissingDeleted = ACTION_DELETE.equals( action.getKey( ) ) && nStatus == HTTP_STATUS_NOT_FOUND;
+            if ( nStatus >= HTTP_STATUS_ERROR && !bMissingDeleted )
+            {
+                failures.set( nPosition );
+                AppLogService.error( "Bulk " + action.getKey( ) + " of the document " + action.getValue( ).path( "_id" ).asText( ) + " in "
+                        + action.getValue( ).path( "_index" ).asText( ) + " failed with status " + nStatus + ": " + action.getValue( ).path( "error" ) );
+            }
+        }
+        return failures;
+    }
+}
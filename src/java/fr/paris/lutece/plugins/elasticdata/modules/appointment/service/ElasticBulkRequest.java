@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Body of an Elasticsearch bulk request: one action line (and one source line for the index and update actions) per document, in NDJSON format. The
+ * documents of the module are written by the {@link DocumentEncoder} straight into the byte buffer of the request, the other objects by Jackson.
+ */
+public class ElasticBulkRequest
+{
+    private static final ObjectMapper _mapper = new ObjectMapper( );
+    private static final char NEW_LINE = '\n';
+
+    private final NdjsonWriter _writer = new NdjsonWriter( );
+    private int _nNbActions;
+
+    /**
+     * Add the deletion of a document
+     * 
+     * @param strIndex
+     *            the index name
+     * @param strId
+     *            the document id
+     * @return this request
+     */
+    public ElasticBulkRequest delete( String strIndex, String strId )
+    {
+        appendAction( "delete", strIndex, strId );
+        return this;
+    }
+
+    /**
+     * Add the indexing of a document, which replaces the document if it exists
+     * 
+     * @param strIndex
+     *            the index name
+     * @param strId
+     *            the document id
+     * @param document
+     *            the document
+     * @return this request
+     * @throws JsonProcessingException
+     *             if the document cannot be written
+     */
+    public ElasticBulkRequest index( String strIndex, String strId, Object document ) throws JsonProcessingException
+    {
+        appendAction( "index", strIndex, strId );
+        appendDocument( document );
+        _writer.writeAscii( NEW_LINE );
+        return this;
+    }
+
+    /**
+     * Add the partial update of a document
+     * 
+     * @param strIndex
+     *            the index name
+     * @param strId
+     *            the document id
+     * @param partialDocument
+     *            the fields to update
+     * @return this request
+     * @throws JsonProcessingException
+     *             if the document cannot be written
+     */
+    public ElasticBulkRequest update( String strIndex, String strId, Object partialDocument ) throws JsonProcessingException
+    {
+        appendAction( "update", strIndex, strId );
+        _writer.writeAscii( "{\"doc\":" );
+        appendDocument( partialDocument );
+        _writer.writeAscii( '}' ).writeAscii( NEW_LINE );
+        return this;
+    }
+
+    /**
+     * Returns the number of actions of the request
+     * 
+     * @return the number of actions
+     */
+    public int size( )
+    {
+        return _nNbActions;
+    }
+
+    /**
+     * Returns true if the request has no action
+     * 
+     * @return true if the request has no action
+     */
+    public boolean isEmpty( )
+    {
+        return _nNbActions == 0;
+    }
+
+    /**
+     * Remove all the actions, keeping the buffer to build the next request
+     */
+    public void clear( )
+    {
+        _writer.clear( );
+        _nNbActions = 0;
+    }
+
+    /**
+     * Returns the NDJSON body of the request
+     * 
+     * @return the body
+     */
+    public String getBody( )
+    {
+        return _writer.toString( );
+    }
+
+    /**
+     * Append an action line
+     * 
+     * @param strAction
+     *            the action
+     * @param strIndex
+     *            the index name
+     * @param strId
+     *            the document id
+     */
+    private void appendAction( String strAction, String strIndex, String strId )
+    {
+        _writer.writeAscii( "{\"" ).writeAscii( strAction ).writeAscii( "\":{\"_index\":" ).writeString( strIndex ).writeAscii( ",\"_id\":" )
+                .writeString( strId ).writeAscii( "}}" ).writeAscii( NEW_LINE );
+        _nNbActions++;
+    }
+
+    /**
+     * Append a document with its encoder, or with Jackson if its type has none
+     * 
+     * @param document
+     *            the document
+     * @throws JsonProcessingException
+     *             if the document cannot be written
+     */
+    private void appendDocument( Object document ) throws JsonProcessingException
+    {
+        if ( !DocumentEncoder.encode( document, _writer ) )
+        {
+            _writer.writeRaw( _mapper.writeValueAsBytes( document ) );
+        }
+    }
+}
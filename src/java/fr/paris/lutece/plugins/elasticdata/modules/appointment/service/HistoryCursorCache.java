@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Bounded cache of the last workflow history entry indexed for each appointment, so that only the newer entries are sent on the next workflow action. The
+ * least recently used appointments are evicted; an evicted appointment has its whole history sent again.
+ */
+public final class HistoryCursorCache
+{
+    private static final String PROPERTY_SIZE = "elasticdata-appointment.history.cursorCacheSize";
+    private static final int DEFAULT_SIZE = 10000;
+    private static final String METRIC_HIT = "history.cursor.hit";
+    private static final String METRIC_MISS = "history.cursor.miss";
+
+    private static final Map<Integer, Cursor> _mapCursor = new LinkedHashMap<Integer, Cursor>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+        private final int _nMaxSize = AppPropertiesService.getPropertyInt( PROPERTY_SIZE, DEFAULT_SIZE );
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Integer, Cursor> eldest )
+        {
+            return size( ) > _nMaxSize;
+        }
+    };
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private HistoryCursorCache( )
+    {
+    }
+
+    /**
+     * Returns the last history entry indexed for an appointment
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @return the cursor, null if the appointment is not in the cache
+     */
+    public static Cursor get( int nIdAppointment )
+    {
+        Cursor cursor;
+        synchronized( _mapCursor )
+        {
+            cursor = _mapCursor.get( nIdAppointment );
+        }
+        IndexingMetrics.increment( ( cursor != null ) ? METRIC_HIT : METRIC_MISS );
+        return cursor;
+    }
+
+    /**
+     * Record the last history entry indexed for an appointment
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param cursor
+     *            the cursor
+     */
+    public static void put( int nIdAppointment, Cursor cursor )
+    {
+        synchronized( _mapCursor )
+        {
+            _mapCursor.put( nIdAppointment, cursor );
+        }
+    }
+
+    /**
+     * Remove an appointment from the cache
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     */
+    public static void remove( int nIdAppointment )
+    {
+        synchronized( _mapCursor )
+        {
+            _mapCursor.remove( nIdAppointment );
+        }
+    }
+
+    /**
+     * Last history entry indexed for an appointment
+     */
+    public static final class Cursor
+    {
+        private final int _nIdHistory;
+        private final long _lCreationDate;
+
+        /**
+         * Constructor
+         * 
+         * @param nIdHistory
+         *            the id of the history entry
+         * @param lCreationDate
+         *            the creation date of the history entry, in milliseconds
+         */
+        public Cursor( int nIdHistory, long lCreationDate )
+        {
+            _nIdHistory = nIdHistory;
+            _lCreationDate = lCreationDate;
+        }
+
+        /**
+         * Returns the id of the history entry
+         * 
+         * @return the id of the history entry
+         */
+        public int getIdHistory( )
+        {
+            return _nIdHistory;
+        }
+
+        /**
+         * Returns the creation date of the history entry
+         * 
+         * @return the creation date in milliseconds
+         */
+        public long getCreationDate( )
+        {
+            return _lCreationDate;
+        }
+    }
+}
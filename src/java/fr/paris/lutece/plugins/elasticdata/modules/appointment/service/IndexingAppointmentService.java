@@ -35,23 +35,22 @@ package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.apache.commons.collections.CollectionUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import fr.paris.lutece.plugins.appointment.business.appointment.Appointment;
-import fr.paris.lutece.plugins.appointment.business.category.Category;
-import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
-import fr.paris.lutece.plugins.appointment.business.form.Form;
 import fr.paris.lutece.plugins.appointment.service.AppointmentService;
 import fr.paris.lutece.plugins.appointment.service.AppointmentUtilities;
-import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.service.SlotService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFilterDTO;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
@@ -59,46 +58,50 @@ import fr.paris.lutece.plugins.elasticdata.business.DataObject;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryIndexHome;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndexHome;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.HistoryCursorCache.Cursor;
 import fr.paris.lutece.plugins.elasticdata.service.DataSourceService;
 import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
 import fr.paris.lutece.plugins.workflowcore.business.resource.ResourceHistory;
 import fr.paris.lutece.plugins.workflowcore.business.resource.ResourceHistoryFilter;
 import fr.paris.lutece.plugins.workflowcore.business.state.State;
-import fr.paris.lutece.plugins.workflowcore.business.state.StateFilter;
 import fr.paris.lutece.plugins.workflowcore.service.resource.IResourceHistoryService;
 import fr.paris.lutece.plugins.workflowcore.service.resource.IResourceWorkflowService;
 import fr.paris.lutece.plugins.workflowcore.service.resource.ResourceHistoryService;
 import fr.paris.lutece.plugins.workflowcore.service.resource.ResourceWorkflowService;
-import fr.paris.lutece.plugins.workflowcore.service.state.IStateService;
-import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
 import fr.paris.lutece.portal.service.spring.SpringContextService;
 import fr.paris.lutece.portal.service.util.AppLogService;
-import fr.paris.lutece.util.ReferenceItem;
 
 public class IndexingAppointmentService
 {
 
     private IResourceHistoryService _resourceHistoryService = SpringContextService.getBean( ResourceHistoryService.BEAN_SERVICE );
-    private IStateService _stateService = SpringContextService.getBean( StateService.BEAN_SERVICE );
     private IResourceWorkflowService _resourceWorkflowService = SpringContextService.getBean( ResourceWorkflowService.BEAN_SERVICE );
-    private static AtomicBoolean _bIndexAppointmentIsRunning = new AtomicBoolean( false );
-    private static AtomicBoolean _bIndexHistoryIsRunning = new AtomicBoolean( false );
-    private static Queue<Integer> _queueAppointmentToIndex = new ConcurrentLinkedQueue<>( );
-    private static Queue<Integer> _queueAppointmentHistoryToIndex = new ConcurrentLinkedQueue<>( );
     private static IndexingAppointmentService _instance;
 
-    private static final int _nBatchSize = 100;
+    private static final String RESOURCE_APPOINTMENT = "appointment";
+    private static final String METRIC_WORKFLOW_STATE_QUERIES = "workflow.stateQueries";
+    private static final String METRIC_HISTORY_SENT = "history.entries.sent";
+    private static final String METRIC_STATE_UPDATES = "appointment.state.updates";
+    private static final String METRIC_APPOINTMENT_DELETED = "appointment.deleted";
+    private static final String METRIC_APPOINTMENT_DELETE = "appointment.delete";
 
     /**
      * Return an instance of Indexing Appointment Service
      * 
      * @return instance of IndexingAppointmentService
      */
-    public static IndexingAppointmentService getService( )
+    public static synchronized IndexingAppointmentService getService( )
     {
-
-        return ( _instance == null ) ? new IndexingAppointmentService( ) : _instance;
+        if ( _instance == null )
+        {
+            _instance = new IndexingAppointmentService( );
+        }
+        return _instance;
     }
 
     /**
@@ -114,78 +117,24 @@ public class IndexingAppointmentService
     public void indexAppointmentStateAndHistory( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
             int nIdAppointment )
     {
-        if ( _bIndexHistoryIsRunning.compareAndSet( false, true ) )
-        {
-            try
-            {
-                Integer nIdresource = nIdAppointment;
-                do
-                {
-                    indexingAppointmentStateAndHistory( appointmentDataSource, appointmentHistoryDataSource, nIdresource );
-                    nIdresource = _queueAppointmentHistoryToIndex.poll( );
-                }
-                while ( nIdresource != null );
-            }
-            catch( ElasticClientException e )
-            {
-                AppLogService.error( "Error during ElasticDataAppointmentListener update partial appointment: " + e.getMessage( ), e );
-            }
-            finally
-            {
-                _bIndexHistoryIsRunning.set( false );
-                if ( !_queueAppointmentHistoryToIndex.isEmpty( ) )
-                {
-                    indexAppointmentStateAndHistory( appointmentDataSource, appointmentHistoryDataSource, _queueAppointmentHistoryToIndex.poll( ) );
-                }
-            }
-        }
-        else
-            if ( !_queueAppointmentHistoryToIndex.contains( nIdAppointment ) )
-            {
-                _queueAppointmentHistoryToIndex.add( nIdAppointment );
-            }
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_APPOINTMENT, nIdAppointment, IndexingOperation.PARTIAL,
+                listIdAppointment -> indexListAppointmentAndHistory( appointmentDataSource, appointmentHistoryDataSource, listIdAppointment ) );
     }
 
     /**
-     * Index appointment data object
+     * Index appointment data object and his workflow history
      * 
      * @param appointmentDataSource
      *            the appointment Datasource
+     * @param appointmentHistoryDataSource
+     *            the appointment history DataSource
      * @param nIdAppointment
      *            the id of appointment to index
      */
-    public void indexAppointment( AppointmentDataSource appointmentDataSource, int nIdAppointment )
+    public void indexAppointment( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource, int nIdAppointment )
     {
-        if ( _bIndexAppointmentIsRunning.compareAndSet( false, true ) )
-        {
-            try
-            {
-                Integer nIdresource = nIdAppointment;
-                do
-                {
-                    indexingAppointment( appointmentDataSource, nIdresource );
-                    nIdresource = _queueAppointmentToIndex.poll( );
-                }
-                while ( nIdresource != null );
-            }
-            catch( ElasticClientException e )
-            {
-                AppLogService.error( "Error during ElasticDataAppointmentListener reindexSlot: " + e.getMessage( ), e );
-            }
-            finally
-            {
-                _bIndexAppointmentIsRunning.set( false );
-                if ( !_queueAppointmentToIndex.isEmpty( ) )
-                {
-                    indexAppointment( appointmentDataSource, _queueAppointmentToIndex.poll( ) );
-                }
-            }
-        }
-        else
-            if ( !_queueAppointmentToIndex.contains( nIdAppointment ) )
-            {
-                _queueAppointmentToIndex.add( nIdAppointment );
-            }
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_APPOINTMENT, nIdAppointment, IndexingOperation.UPDATE,
+                listIdAppointment -> indexListAppointmentDocumentAndHistory( appointmentDataSource, appointmentHistoryDataSource, listIdAppointment ) );
     }
 
     /**
@@ -201,16 +150,8 @@ public class IndexingAppointmentService
     public void deleteAppointmentAndHistory( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
             int nIdAppointment )
     {
-        try
-        {
-            DataSourceService.deleteById( appointmentDataSource, String.valueOf( nIdAppointment ) );
-            DataSourceService.deleteByQuery( appointmentHistoryDataSource, AppointmentSlotUtil.buildQueryIdResource( nIdAppointment ) );
-        }
-        catch( ElasticClientException e )
-        {
-            AppLogService.error( "Error during ElasticDataAppointmentListener remove appointment: " + e.getMessage( ), e );
-        }
-
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_APPOINTMENT, nIdAppointment, IndexingOperation.DELETE,
+                listIdAppointment -> deleteListAppointmentAndHistory( appointmentDataSource, appointmentHistoryDataSource, listIdAppointment ) );
     }
 
     /**
@@ -223,34 +164,59 @@ public class IndexingAppointmentService
     public List<DataObject> buildDataObjects( List<Integer> listIdDataObject )
     {
 
-        Integer nIdstate;
         List<DataObject> collResult = new ArrayList<>( );
-        Map<Integer, AppointmentForm> mapForm = new HashMap<>( );
         AppointmentFilterDTO filter = new AppointmentFilterDTO( );
         filter.setListIdAppointment( listIdDataObject );
-        Map<Integer, State> mapState = _stateService.getListStateByFilter( new StateFilter( ) ).stream( )
-                .collect( Collectors.toMap( State::getId, state -> state ) );
-        Map<Integer, Category> mapCategory = CategoryHome.findAllCategories( ).stream( ).collect( Collectors.toMap( Category::getIdCategory, cat -> cat ) );
-        Map<Integer, Integer> mapIdState = new HashMap<>( );
+        List<Appointment> listAppointment = AppointmentService.findListAppointmentsByFilter( filter );
+        if ( CollectionUtils.isEmpty( listAppointment ) )
+        {
+            return collResult;
+        }
 
-        for ( ReferenceItem ref : FormService.findAllInReferenceList( ) )
+        // Each appointment belongs to the form of its first slot: the states are resolved once per form present in the batch
+        Map<Integer, List<Integer>> mapIdAppointmentByForm = new LinkedHashMap<>( );
+        for ( Appointment appointment : listAppointment )
         {
-            AppointmentFormDTO appointmentFormDTO = FormService.buildAppointmentFormWithoutReservationRule( Integer.parseInt( ref.getCode( ) ) );
-            mapForm.put( appointmentFormDTO.getIdForm( ), new AppointmentForm( appointmentFormDTO, mapCategory.get( appointmentFormDTO.getIdCategory( ) ) ) );
-            mapIdState.putAll( _resourceWorkflowService.getListIdStateByListId( listIdDataObject, appointmentFormDTO.getIdWorkflow( ),
-                    Appointment.APPOINTMENT_RESOURCE_TYPE, appointmentFormDTO.getIdForm( ) ) );
+            mapIdAppointmentByForm.computeIfAbsent( appointment.getSlot( ).get( 0 ).getIdForm( ), idForm -> new ArrayList<>( ) )
+                    .add( appointment.getIdAppointment( ) );
         }
-        List<Appointment> listAppointment = AppointmentService.findListAppointmentsByFilter( filter );
-        if ( !CollectionUtils.isEmpty( listAppointment ) )
+        Map<Integer, Integer> mapIdState = new HashMap<>( );
+        for ( Map.Entry<Integer, List<Integer>> entry : mapIdAppointmentByForm.entrySet( ) )
         {
-            for ( Appointment appointment : listAppointment )
-            {
+            AppointmentFormDTO appointmentFormDTO = ReferenceDataCache.getAppointmentFormDTO( entry.getKey( ) );
+            mapIdState.putAll( _resourceWorkflowService.getListIdStateByListId( entry.getValue( ), appointmentFormDTO.getIdWorkflow( ),
+                    Appointment.APPOINTMENT_RESOURCE_TYPE, entry.getKey( ) ) );
+        }
+        IndexingMetrics.add( METRIC_WORKFLOW_STATE_QUERIES, mapIdAppointmentByForm.size( ) );
+        AppLogService.debug( "Appointment batch of " + listIdDataObject.size( ) + " ids: " + mapIdAppointmentByForm.size( ) + " workflow state queries" );
 
-                nIdstate = mapIdState.get( appointment.getIdAppointment( ) );
-                AppointmentDataObject apptDataObject = new AppointmentDataObject( appointment, ( nIdstate != null ) ? mapState.get( nIdstate ) : null,
-                        mapForm.get( appointment.getSlot( ).get( 0 ).getIdForm( ) ) );
-                collResult.add( apptDataObject );
-            }
+        long lNow = System.currentTimeMillis( );
+        for ( Appointment appointment : listAppointment )
+        {
+            Integer nIdstate = mapIdState.get( appointment.getIdAppointment( ) );
+            collResult.add( setAvailability( new AppointmentDataObject( appointment, ( nIdstate != null ) ? ReferenceDataCache.getState( nIdstate ) : null,
+                    ReferenceDataCache.getAppointmentForm( appointment.getSlot( ).get( 0 ).getIdForm( ) ) ), lNow ) );
+        }
+        return collResult;
+    }
+
+    /**
+     * Build the data objects to index from the rows of the appointment index DAO: the appointments, their first slot and their workflow state are read in one
+     * joined query
+     * 
+     * @param listAppointment
+     *            the appointment rows
+     * @return the list of data object
+     */
+    public List<DataObject> buildDataObjectsFromIndex( List<AppointmentIndex> listAppointment )
+    {
+        List<DataObject> collResult = new ArrayList<>( listAppointment.size( ) );
+        long lNow = System.currentTimeMillis( );
+        for ( AppointmentIndex appointment : listAppointment )
+        {
+            State state = ( appointment.getIdState( ) != null ) ? ReferenceDataCache.getState( appointment.getIdState( ) ) : null;
+            collResult.add( setAvailability( new AppointmentDataObject( appointment, state, ReferenceDataCache.getAppointmentForm( appointment.getIdForm( ) ) ),
+                    lNow ) );
         }
         return collResult;
     }
@@ -275,62 +241,6 @@ public class IndexingAppointmentService
         return listResourceHistoryDataObject;
     }
 
-    /**
-     * index appointmentpartial data object and history data object
-     * 
-     * @param appointmentDataSource
-     *            the appointment DataSource
-     * @param appointmentHistoryDataSource
-     *            the appointment history DataSource
-     * @param nIdAppointment
-     *            the id of appointment to index
-     * @throws ElasticClientException
-     *             the Exception
-     */
-    private void indexingAppointmentStateAndHistory( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
-            int nIdresource ) throws ElasticClientException
-    {
-        if ( _queueAppointmentHistoryToIndex.isEmpty( ) || _queueAppointmentHistoryToIndex.size( ) < _nBatchSize )
-        {
-            Appointment appt = AppointmentService.findAppointmentById( nIdresource );
-            appt.setSlot( SlotService.findListSlotByIdAppointment( appt.getIdAppointment( ) ) );
-            Form form = FormService.findFormLightByPrimaryKey( appt.getSlot( ).get( 0 ).getIdForm( ) );
-            AppointmentPartialDataObject appPartialData = new AppointmentPartialDataObject( nIdresource,
-                    _stateService.findByResource( nIdresource, Appointment.APPOINTMENT_RESOURCE_TYPE, form.getIdWorkflow( ) ), appt.getIsCancelled( ) );
-
-            DataSourceService.partialUpdate( appointmentDataSource, appPartialData.getId( ), appPartialData );
-            DataSourceService.processIncrementalIndexing( new StringBuilder( ), appointmentHistoryDataSource,
-                    getResourceHistoryDataObject( nIdresource, appt, form ) );
-        }
-        else
-        {
-            indexListAppointmentAndHistory( appointmentDataSource, appointmentHistoryDataSource, _queueAppointmentHistoryToIndex, nIdresource );
-        }
-    }
-
-    /**
-     * Index appointment data object
-     * 
-     * @param appointmentDataSource
-     *            the appointment Datasource
-     * @param nIdAppointment
-     *            the id of appointment to index
-     * @throws ElasticClientException
-     *             the Exception
-     */
-    private void indexingAppointment( AppointmentDataSource appointmentDataSource, int nIdresource ) throws ElasticClientException
-    {
-        if ( _queueAppointmentToIndex.isEmpty( ) || _queueAppointmentToIndex.size( ) < _nBatchSize )
-        {
-
-            DataSourceService.processIncrementalIndexing( appointmentDataSource, builAppointmentDataObject( nIdresource ) );
-        }
-        else
-        {
-            indexListAppointment( appointmentDataSource, _queueAppointmentToIndex, nIdresource );
-        }
-    }
-
     /**
      * build list of AppointmentHistoryDataObject object
      * 
@@ -344,7 +254,6 @@ public class IndexingAppointmentService
         List<AppointmentHistoryDataObject> appointmentHistoryList = new ArrayList<>( );
         if ( CollectionUtils.isNotEmpty( listResourceHistory ) )
         {
-            Map<Integer, AppointmentForm> listAppointmentForm = getAllAppointmentForms( );
             Map<Integer, List<ResourceHistory>> resourceHistoryByResource = listResourceHistory.stream( )
                     .collect( Collectors.groupingBy( ResourceHistory::getIdResource ) );
             AppointmentFilterDTO filter = new AppointmentFilterDTO( );
@@ -365,9 +274,9 @@ public class IndexingAppointmentService
                     appointmentCreation = appointment.getAppointmentTakenSqlDate( );
                     appointmentPreviousActionCreation = appointmentCreation;
                     appointmentDate = Timestamp.valueOf( AppointmentUtilities.getStartingDateTime( appointment ) );
+                    appointmentForm = ReferenceDataCache.getAppointmentForm( appointment.getSlot( ).get( 0 ).getIdForm( ) );
                     for ( ResourceHistory resourceHistory : listResourceHistorySorted )
                     {
-                        appointmentForm = listAppointmentForm.get( appointment.getSlot( ).get( 0 ).getIdForm( ) );
                         AppointmentHistoryDataObject appointmentHistoryDataObject = new AppointmentHistoryDataObject( resourceHistory.getId( ),
                                 appointmentForm );
                         appointmentHistoryDataObject.setAppointmentId( AppointmentSlotUtil.INSTANCE_NAME + "_" + resourceHistory.getIdResource( ) );
@@ -403,30 +312,43 @@ public class IndexingAppointmentService
     }
 
     /**
-     * Index list of appointment
+     * Build the documents of a list of appointment
      * 
-     * @param queueApptToIndex
-     *            the Queue of id appointment
-     * @param nIdAppointment
-     *            the id appointment
+     * @param listIdAppointment
+     *            the list of id appointment handed off by the indexing engine
+     * @return the appointment documents
+     */
+    private List<DataObject> buildListAppointmentDataObjects( List<Integer> listIdAppointment )
+    {
+        return ( listIdAppointment.size( ) == 1 ) ? Collections.singletonList( builAppointmentDataObject( listIdAppointment.get( 0 ) ) )
+                : buildDataObjects( listIdAppointment );
+    }
+
+    /**
+     * Index appointment documents in one bulk request
+     * 
+     * @param appointmentDataSource
+     *            the appointment Datasource
+     * @param listDataObject
+     *            the appointment documents
      * @throws ElasticClientException
      *             the Exception
      */
-    private void indexListAppointment( AppointmentDataSource appointmentDataSource, Queue<Integer> queueApptToIndex, int nIdAppointment )
-            throws ElasticClientException
+    void indexAppointmentDataObjects( AppointmentDataSource appointmentDataSource, List<DataObject> listDataObject ) throws ElasticClientException
     {
-
-        StringBuilder builder = new StringBuilder( );
-        List<Integer> listIdappointment = new ArrayList<>( );
-        if ( !queueApptToIndex.contains( nIdAppointment ) )
-            queueApptToIndex.add( nIdAppointment );
-        while ( !queueApptToIndex.isEmpty( ) && listIdappointment.size( ) <= _nBatchSize )
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        try
         {
-
-            listIdappointment.add( queueApptToIndex.poll( ) );
+            for ( DataObject dataObject : listDataObject )
+            {
+                request.index( appointmentDataSource.getTargetIndexName( ), dataObject.getId( ), dataObject );
+            }
         }
-        DataSourceService.processIncrementalIndexing( builder, appointmentDataSource, buildDataObjects( listIdappointment ) );
-        AppLogService.debug( builder.toString( ) );
+        catch( JsonProcessingException e )
+        {
+            throw new ElasticClientException( "Error building the bulk indexing of the appointments", e );
+        }
+        ElasticBulkClient.execute( request );
     }
 
     /**
@@ -439,116 +361,271 @@ public class IndexingAppointmentService
     {
         Appointment appointment = AppointmentService.findAppointmentById( nIdAppointment );
         appointment.setSlot( SlotService.findListSlotByIdAppointment( appointment.getIdAppointment( ) ) );
-        AppointmentFormDTO form = FormService.buildAppointmentFormWithoutReservationRule( appointment.getSlot( ).get( 0 ).getIdForm( ) );
-        Category category = ( form.getIdCategory( ) != 0 ) ? CategoryHome.findByPrimaryKey( form.getIdCategory( ) ) : null;
-        return new AppointmentDataObject( appointment, AppointmentSlotUtil.getState( appointment.getIdAppointment( ), form.getIdWorkflow( ) ),
-                new AppointmentForm( form, category ) );
+        AppointmentForm form = ReferenceDataCache.getAppointmentForm( appointment.getSlot( ).get( 0 ).getIdForm( ) );
+        State state = AppointmentSlotUtil.getState( appointment.getIdAppointment( ), form.getIdWorkflow( ) );
+        return setAvailability( new AppointmentDataObject( appointment, state, form ), System.currentTimeMillis( ) );
     }
 
     /**
-     * build AppointmentHistoryDataObject objects
+     * Set the time until availability and the number of places before the appointment, computed on the availability index of the form and on the one of
+     * its category
      * 
-     * @param nIdresource
-     *            the id resource
-     * @param appt
-     *            the appointment obect
-     * @return return an AppointmentHistoryDataObject object
+     * @param appointmentDataObject
+     *            the appointment data object
+     * @param lNow
+     *            the current time in milliseconds
+     * @return the appointment data object
      */
-    private List<DataObject> getResourceHistoryDataObject( int nIdresource, Appointment appt, Form form )
+    private AppointmentDataObject setAvailability( AppointmentDataObject appointmentDataObject, long lNow )
     {
-        List<DataObject> appointmentHistoryList = new ArrayList<>( );
-        ResourceHistoryFilter filter = new ResourceHistoryFilter( );
-        filter.setListIdResources( Arrays.asList( nIdresource ) );
-        filter.setResourceType( Appointment.APPOINTMENT_RESOURCE_TYPE );
-        filter.setIdWorkflow( form.getIdWorkflow( ) );
-        List<ResourceHistory> listResourceHistory = _resourceHistoryService.getAllHistoryByFilter( filter ).stream( )
-                .sorted( Comparator.comparing( ResourceHistory::getCreationDate ) ).collect( Collectors.toList( ) );
-        Timestamp appointmentPreviousActionCreation = appt.getAppointmentTakenSqlDate( );
-        Timestamp appointmentDate = Timestamp.valueOf( AppointmentUtilities.getStartingDateTime( appt ) );
-        for ( ResourceHistory resourceHistory : listResourceHistory )
+        AppointmentForm form = appointmentDataObject.getAppointmentForm( );
+        if ( form == null || appointmentDataObject.getTimestamp( ) == null )
         {
-
-            AppointmentHistoryDataObject appointmentHistoryDataObject = new AppointmentHistoryDataObject( resourceHistory.getId( ),
-                    getAppointmentForm( form.getIdForm( ) ) );
-            appointmentHistoryDataObject.setAppointmentId( AppointmentSlotUtil.INSTANCE_NAME + "_" + resourceHistory.getIdResource( ) );
-            appointmentHistoryDataObject.setTimestamp( resourceHistory.getCreationDate( ).getTime( ) );
-            appointmentHistoryDataObject.setTaskDuration( duration( appointmentPreviousActionCreation, resourceHistory.getCreationDate( ) ) );
-            appointmentHistoryDataObject.setAppointmentDuration( duration( appt.getAppointmentTakenSqlDate( ), resourceHistory.getCreationDate( ) ) );
-            appointmentHistoryDataObject.setAppointmentDateActionDateDuration( duration( resourceHistory.getCreationDate( ), appointmentDate ) );
-            appointmentHistoryDataObject.setActionName( resourceHistory.getAction( ).getName( ) );
-            appointmentHistoryDataObject.setCreationDate( resourceHistory.getCreationDate( ) );
-
-            appointmentPreviousActionCreation = resourceHistory.getCreationDate( );
-
-            appointmentHistoryList.add( appointmentHistoryDataObject );
+            return appointmentDataObject;
         }
-        return appointmentHistoryList;
+        AppointmentSlotUtil.buildAppointmentDataObject( appointmentDataObject, SlotAvailabilityIndex.getIndex( form.getIdForms( ) ), lNow, form );
+        AppointmentFormDTO appointmentFormDTO = ReferenceDataCache.getAppointmentFormDTO( form.getIdForms( ) );
+        if ( appointmentFormDTO != null && appointmentFormDTO.getIdCategory( ) > 0 )
+        {
+            AppointmentSlotUtil.buildAppointmentCategoryAvailability( appointmentDataObject,
+                    CategoryAvailabilityIndex.getIndex( appointmentFormDTO.getIdCategory( ) ), lNow );
+        }
+        return appointmentDataObject;
     }
 
     /**
-     * Index list appointment and their history workflow
+     * Index the state of a list of appointments and their new workflow history entries in one bulk request: a partial update of each appointment document
+     * (its cancellation, and its state if it has one) and the indexing of each new history document. The cursor of the history of an appointment moves only
+     * if all its history documents were indexed.
      * 
      * @param appointmentDataSource
      *            the appointment DataSource
      * @param appointmentHistoryDataSource
      *            the appointment history DataSource
-     * @param queueAppointmentHistoryToIndex
-     *            the queue
-     * @param nIdAppointment
-     *            the id of appointment to index
-     * @param nIdAction
-     *            the action id
+     * @param listIdAppointment
+     *            the list of id appointment handed off by the indexing engine
      * @throws ElasticClientException
      *             the ElasticClientException
      */
     private void indexListAppointmentAndHistory( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
-            Queue<Integer> queueAppointmentHistoryToIndex, int nIdAppointment ) throws ElasticClientException
+            List<Integer> listIdAppointment ) throws ElasticClientException
     {
+        Map<Integer, Cursor> mapLastHistory = new HashMap<>( );
+        List<AppointmentIndex> listAppointmentIndex = AppointmentIndexHome.findByListId( listIdAppointment );
+        Map<Integer, List<AppointmentHistoryDataObject>> mapNewHistory = buildNewHistoryDataObjects( listAppointmentIndex, mapLastHistory );
+        indexStateAndHistoryDataObjects( appointmentDataSource, appointmentHistoryDataSource, listAppointmentIndex, mapNewHistory, mapLastHistory );
+    }
 
-        StringBuilder builder = new StringBuilder( );
-        List<Integer> listIdappointment = new ArrayList<>( );
-        queueAppointmentHistoryToIndex.add( nIdAppointment );
+    /**
+     * Send the partial updates of the appointments and their new history documents in one bulk request, then move the history cursor of each appointment
+     * whose history documents were all indexed
+     * 
+     * @param appointmentDataSource
+     *            the appointment DataSource
+     * @param appointmentHistoryDataSource
+     *            the appointment history DataSource
+     * @param listAppointmentIndex
+     *            the appointments
+     * @param mapNewHistory
+     *            the new history documents of each appointment
+     * @param mapLastHistory
+     *            the cursor of the last history document of each appointment
+     * @throws ElasticClientException
+     *             the ElasticClientException
+     */
+    void indexStateAndHistoryDataObjects( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
+            List<AppointmentIndex> listAppointmentIndex, Map<Integer, List<AppointmentHistoryDataObject>> mapNewHistory, Map<Integer, Cursor> mapLastHistory )
+            throws ElasticClientException
+    {
+        Map<Integer, Integer> mapHistoryPosition = new HashMap<>( );
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        int nNbStateUpdates = 0;
+        try
+        {
+            for ( AppointmentIndex appointment : listAppointmentIndex )
+            {
+                State state = ( appointment.getIdState( ) != null ) ? ReferenceDataCache.getState( appointment.getIdState( ) ) : null;
+                AppointmentPartialDataObject appPartialData = new AppointmentPartialDataObject( appointment.getIdAppointment( ), state,
+                        appointment.getIsCancelled( ) );
+                request.update( appointmentDataSource.getTargetIndexName( ), appPartialData.getId( ), appPartialData );
+                nNbStateUpdates++;
+                List<AppointmentHistoryDataObject> listHistory = mapNewHistory.get( appointment.getIdAppointment( ) );
+                if ( listHistory != null )
+                {
+                    mapHistoryPosition.put( appointment.getIdAppointment( ), request.size( ) );
+                    for ( AppointmentHistoryDataObject history : listHistory )
+                    {
+                        request.index( appointmentHistoryDataSource.getTargetIndexName( ), history.getId( ), history );
+                    }
+                }
+            }
+        }
+        catch( JsonProcessingException e )
+        {
+            throw new ElasticClientException( "Error building the bulk update of the appointment states", e );
+        }
 
-        while ( !queueAppointmentHistoryToIndex.isEmpty( ) && listIdappointment.size( ) <= _nBatchSize )
+        BitSet failures = ElasticBulkClient.executeForFailures( request );
+        IndexingMetrics.add( METRIC_STATE_UPDATES, nNbStateUpdates );
+        IndexingMetrics.add( METRIC_HISTORY_SENT, (long) request.size( ) - nNbStateUpdates );
+        for ( Map.Entry<Integer, Integer> entry : mapHistoryPosition.entrySet( ) )
         {
+            int nFrom = entry.getValue( );
+            // on an error, the cursor stays in place and the same entries are sent again by the next action
+            if ( failures.get( nFrom, nFrom + mapNewHistory.get( entry.getKey( ) ).size( ) ).isEmpty( ) )
+            {
+                HistoryCursorCache.put( entry.getKey( ), mapLastHistory.get( entry.getKey( ) ) );
+            }
+        }
+    }
 
-            listIdappointment.add( queueAppointmentHistoryToIndex.poll( ) );
+    /**
+     * Build the workflow history documents of the entries created since the last indexing of each appointment. The last entry indexed for each appointment
+     * is kept in the {@link HistoryCursorCache}: only the entries after the cursor of each appointment are loaded and built, the task duration of the first one
+     * being computed from the cached creation date of the previous one. The whole history of an appointment missing from the cache is built. Only the entries
+     * of the workflow of the form of each appointment are loaded.
+     * 
+     * @param listAppointmentIndex
+     *            the appointments
+     * @param mapLastHistory
+     *            filled with the cursor of the last entry built for each appointment
+     * @return the new history documents of each appointment
+     */
+    private Map<Integer, List<AppointmentHistoryDataObject>> buildNewHistoryDataObjects( List<AppointmentIndex> listAppointmentIndex,
+            Map<Integer, Cursor> mapLastHistory )
+    {
+        Map<Integer, Integer> mapIdWorkflow = new HashMap<>( );
+        Map<Integer, Cursor> mapCursor = new HashMap<>( );
+        Map<Integer, Integer> mapIdHistoryAfter = new LinkedHashMap<>( );
+        for ( AppointmentIndex appointmentIndex : listAppointmentIndex )
+        {
+            AppointmentFormDTO formDTO = ReferenceDataCache.getAppointmentFormDTO( appointmentIndex.getIdForm( ) );
+            if ( formDTO == null || formDTO.getIdWorkflow( ) <= 0 )
+            {
+                continue;
+            }
+            int nIdAppointment = appointmentIndex.getIdAppointment( );
+            mapIdWorkflow.put( nIdAppointment, formDTO.getIdWorkflow( ) );
+            Cursor cursor = HistoryCursorCache.get( nIdAppointment );
+            if ( cursor != null )
+            {
+                mapCursor.put( nIdAppointment, cursor );
+            }
+            mapIdHistoryAfter.put( nIdAppointment, ( cursor != null ) ? cursor.getIdHistory( ) : 0 );
+        }
+        Map<Integer, List<AppointmentHistoryIndex>> mapNewHistory = new LinkedHashMap<>( );
+        for ( AppointmentHistoryIndex history : AppointmentHistoryIndexHome.findByListIdAppointmentAfter( mapIdWorkflow, mapIdHistoryAfter ) )
+        {
+            mapNewHistory.computeIfAbsent( history.getIdResource( ), idAppointment -> new ArrayList<>( ) ).add( history );
+        }
+        Map<Integer, List<AppointmentHistoryDataObject>> mapHistoryDataObject = new HashMap<>( );
+        if ( mapNewHistory.isEmpty( ) )
+        {
+            return mapHistoryDataObject;
+        }
 
+        AppointmentFilterDTO filter = new AppointmentFilterDTO( );
+        filter.setListIdAppointment( new ArrayList<>( mapNewHistory.keySet( ) ) );
+        for ( Appointment appointment : AppointmentService.findListAppointmentsByFilter( filter ) )
+        {
+            List<AppointmentHistoryIndex> listHistory = mapNewHistory.get( appointment.getIdAppointment( ) );
+            if ( listHistory == null )
+            {
+                continue;
+            }
+            AppointmentForm appointmentForm = ReferenceDataCache.getAppointmentForm( appointment.getSlot( ).get( 0 ).getIdForm( ) );
+            long lAppointmentCreation = appointment.getAppointmentTakenSqlDate( ).getTime( );
+            long lAppointmentDate = Timestamp.valueOf( AppointmentUtilities.getStartingDateTime( appointment ) ).getTime( );
+            Cursor cursor = mapCursor.get( appointment.getIdAppointment( ) );
+            long lPreviousActionCreation = ( cursor != null ) ? cursor.getCreationDate( ) : lAppointmentCreation;
+            List<AppointmentHistoryDataObject> listHistoryDataObject = AppointmentSlotUtil.buildHistoryDataObjects( listHistory, appointmentForm,
+                    lAppointmentCreation, lAppointmentDate, lPreviousActionCreation );
+            AppointmentHistoryIndex lastHistory = listHistory.get( listHistory.size( ) - 1 );
+            mapLastHistory.put( appointment.getIdAppointment( ), new Cursor( lastHistory.getIdHistory( ), lastHistory.getCreationDate( ).getTime( ) ) );
+            mapHistoryDataObject.put( appointment.getIdAppointment( ), listHistoryDataObject );
         }
-        DataSourceService.processIncrementalIndexing( builder, appointmentDataSource, buildDataObjects( listIdappointment ) );
-        DataSourceService.processIncrementalIndexing( builder, appointmentHistoryDataSource, buildHistoryWfDataObjects( listIdappointment ) );
-        AppLogService.debug( builder.toString( ) );
+        return mapHistoryDataObject;
     }
 
     /**
-     * Get appointment form
+     * Index list of appointment and their history workflow
      * 
-     * @param form
-     *            the form
-     * @return the appointment form
+     * @param appointmentDataSource
+     *            the appointment DataSource
+     * @param appointmentHistoryDataSource
+     *            the appointment history DataSource
+     * @param listIdAppointment
+     *            the list of id appointment handed off by the indexing engine
+     * @throws ElasticClientException
+     *             the ElasticClientException
      */
-    private AppointmentForm getAppointmentForm( int idForm )
+    private void indexListAppointmentDocumentAndHistory( AppointmentDataSource appointmentDataSource,
+            AppointmentHistoryDataSource appointmentHistoryDataSource, List<Integer> listIdAppointment ) throws ElasticClientException
     {
-
-        AppointmentFormDTO formDTO = FormService.buildAppointmentFormWithoutReservationRule( idForm );
-        Category category = ( formDTO.getIdCategory( ) != 0 ) ? CategoryHome.findByPrimaryKey( formDTO.getIdCategory( ) ) : null;
-        return new AppointmentForm( formDTO, category );
+        indexAppointmentAndHistoryDataObjects( appointmentDataSource, appointmentHistoryDataSource, buildListAppointmentDataObjects( listIdAppointment ),
+                buildHistoryWfDataObjects( listIdAppointment ) );
     }
 
     /**
-     * Get all appointment forms mapped with form id
+     * Index appointment documents in one bulk request, then their workflow history documents
      * 
-     * @return the map with form id and appointment form
+     * @param appointmentDataSource
+     *            the appointment DataSource
+     * @param appointmentHistoryDataSource
+     *            the appointment history DataSource
+     * @param listDataObject
+     *            the appointment documents
+     * @param listHistoryDataObject
+     *            the workflow history documents of the appointments
+     * @throws ElasticClientException
+     *             the ElasticClientException
      */
-    private Map<Integer, AppointmentForm> getAllAppointmentForms( )
+    void indexAppointmentAndHistoryDataObjects( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
+            List<DataObject> listDataObject, List<DataObject> listHistoryDataObject ) throws ElasticClientException
     {
-        Map<Integer, AppointmentForm> listAppointmentForm = new HashMap<>( );
+        StringBuilder builder = new StringBuilder( );
+        indexAppointmentDataObjects( appointmentDataSource, listDataObject );
+        DataSourceService.processIncrementalIndexing( builder, appointmentHistoryDataSource, listHistoryDataObject );
+        AppLogService.debug( builder.toString( ) );
+    }
 
-        for ( Form form : FormService.findAllForms( ) )
+    /**
+     * Delete list of appointment and their history workflow in the index. The appointment documents are removed with bulk delete actions and the history
+     * documents with one terms query per batch of appointments, instead of one request per document and per appointment.
+     * 
+     * @param appointmentDataSource
+     *            the appointment DataSource
+     * @param appointmentHistoryDataSource
+     *            the appointment history DataSource
+     * @param listIdAppointment
+     *            the list of id appointment handed off by the indexing engine, or purged by the reindex
+     * @throws ElasticClientException
+     *             the ElasticClientException
+     */
+    void deleteListAppointmentAndHistory( AppointmentDataSource appointmentDataSource, AppointmentHistoryDataSource appointmentHistoryDataSource,
+            List<Integer> listIdAppointment ) throws ElasticClientException
+    {
+        long lStart = System.nanoTime( );
+        List<String> listId = new ArrayList<>( listIdAppointment.size( ) );
+        for ( int nIdAppointment : listIdAppointment )
         {
+            HistoryCursorCache.remove( nIdAppointment );
+            listId.add( String.valueOf( nIdAppointment ) );
+        }
+        int nNbErrors = ElasticBulkClient.deleteById( appointmentDataSource.getTargetIndexName( ), listId );
 
-            listAppointmentForm.put( form.getIdForm( ), getAppointmentForm( form.getIdForm( ) ) );
+        int nBatchSize = ElasticBulkClient.getDeleteBatchSize( );
+        for ( int i = 0; i < listIdAppointment.size( ); i += nBatchSize )
+        {
+            List<Integer> listBatch = listIdAppointment.subList( i, Math.min( i + nBatchSize, listIdAppointment.size( ) ) );
+            DataSourceService.deleteByQuery( appointmentHistoryDataSource, AppointmentSlotUtil.buildQueryIdResources( listBatch ) );
         }
-        return listAppointmentForm;
+
+        long lDuration = System.nanoTime( ) - lStart;
+        IndexingMetrics.add( METRIC_APPOINTMENT_DELETED, (long) listIdAppointment.size( ) - nNbErrors );
+        IndexingMetrics.recordLatency( METRIC_APPOINTMENT_DELETE, lDuration );
+        AppLogService.info( "Deleted " + listIdAppointment.size( ) + " appointments and their history in " + TimeUnit.NANOSECONDS.toMillis( lDuration )
+                + " ms (" + ( listIdAppointment.size( ) * TimeUnit.SECONDS.toNanos( 1 ) / Math.max( lDuration, 1 ) ) + " appointments/s, " + nNbErrors
+                + " failed)" );
     }
 }
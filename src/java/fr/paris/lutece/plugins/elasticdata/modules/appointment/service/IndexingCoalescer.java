@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Coalescing stage in front of the indexing engine. The events received on the same resource (appointment, slot or form) during a time window are merged into
+ * one indexing operation, keeping the strongest one (delete beats update beats partial).
+ */
+public final class IndexingCoalescer implements ShutdownService
+{
+    public static final String METRIC_EVENTS_RECEIVED = "coalescer.events.received";
+    public static final String METRIC_ACTIONS_HANDED_OFF = "coalescer.actions.handedOff";
+
+    private static final String NAME = "ElasticData Appointment Indexing Coalescer";
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-coalescer-";
+    private static final String PROPERTY_WINDOW = "elasticdata-appointment.coalescer.window";
+    private static final long DEFAULT_WINDOW = 200L;
+
+    private static IndexingCoalescer _instance = new IndexingCoalescer( );
+
+    private final long _lWindow = AppPropertiesService.getPropertyLong( PROPERTY_WINDOW, DEFAULT_WINDOW );
+    private final ConcurrentMap<IndexingTask, IndexingOperation> _mapPendingOperation = new ConcurrentHashMap<>( );
+    private final ConcurrentMap<String, IIndexingTaskHandler> _mapHandler = new ConcurrentHashMap<>( );
+    private volatile ScheduledExecutorService _scheduler;
+
+    /**
+     * Private constructor
+     */
+    private IndexingCoalescer( )
+    {
+    }
+
+    /**
+     * Return the instance of the coalescer
+     * 
+     * @return the instance of the coalescer
+     */
+    public static IndexingCoalescer getInstance( )
+    {
+        return _instance;
+    }
+
+    /**
+     * Start the periodic flush of the pending operations
+     */
+    public synchronized void start( )
+    {
+        if ( _scheduler == null && _lWindow > 0 )
+        {
+            _scheduler = Executors.newSingleThreadScheduledExecutor( new IndexingThreadFactory( THREAD_NAME_PREFIX ) );
+            _scheduler.scheduleWithFixedDelay( this::flush, _lWindow, _lWindow, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Submit an operation on a resource. It is merged with the operation already pending on the same resource and handed off to the indexing engine at the end
+     * of the window.
+     * 
+     * @param strResourceType
+     *            the resource type
+     * @param nIdResource
+     *            the resource id
+     * @param operation
+     *            the indexing operation
+     * @param handler
+     *            the handler processing this operation on this type of resource
+     */
+    public void submit( String strResourceType, int nIdResource, IndexingOperation operation, IIndexingTaskHandler handler )
+    {
+        IndexingMetrics.increment( METRIC_EVENTS_RECEIVED );
+        _mapHandler.putIfAbsent( getTaskType( strResourceType, operation ), handler );
+        if ( _lWindow <= 0 )
+        {
+            emit( strResourceType, nIdResource, operation );
+            return;
+        }
+        if ( _scheduler == null )
+        {
+            start( );
+        }
+        _mapPendingOperation.merge( new IndexingTask( strResourceType, nIdResource ), operation, IndexingOperation::merge );
+    }
+
+    /**
+     * Hand off all the pending operations to the indexing engine
+     */
+    private void flush( )
+    {
+        try
+        {
+            for ( IndexingTask resource : _mapPendingOperation.keySet( ) )
+            {
+                IndexingOperation operation = _mapPendingOperation.remove( resource );
+                if ( operation != null )
+                {
+                    emit( resource.getTaskType( ), resource.getIdResource( ), operation );
+                }
+            }
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( NAME + " flush error: " + e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * Hand off an operation to the indexing engine
+     * 
+     * @param strResourceType
+     *            the resource type
+     * @param nIdResource
+     *            the resource id
+     * @param operation
+     *            the indexing operation
+     */
+    private void emit( String strResourceType, int nIdResource, IndexingOperation operation )
+    {
+        String strTaskType = getTaskType( strResourceType, operation );
+        IndexingMetrics.increment( METRIC_ACTIONS_HANDED_OFF );
+        IndexingEngine.getInstance( ).submit( strResourceType, strTaskType, nIdResource, _mapHandler.get( strTaskType ) );
+    }
+
+    /**
+     * Returns the task type of the indexing engine for an operation on a type of resource
+     * 
+     * @param strResourceType
+     *            the resource type
+     * @param operation
+     *            the operation
+     * @return the task type
+     */
+    private static String getTaskType( String strResourceType, IndexingOperation operation )
+    {
+        return strResourceType + "_" + operation.name( ).toLowerCase( Locale.ENGLISH );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName( )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void process( )
+    {
+        if ( _scheduler != null )
+        {
+            _scheduler.shutdown( );
+        }
+        flush( );
+        AppLogService.info( NAME + " stopped: " + IndexingMetrics.getCounter( METRIC_EVENTS_RECEIVED ) + " event(s) received, "
+                + IndexingMetrics.getCounter( METRIC_ACTIONS_HANDED_OFF ) + " indexing action(s) handed off to the indexing engine" );
+    }
+}
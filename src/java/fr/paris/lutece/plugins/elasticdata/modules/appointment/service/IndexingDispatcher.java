@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Asynchronous dispatcher of the listener events. The listeners of the appointment plugin are called inside the booking requests: they only hand off their
+ * work to this dispatcher, and the time spent in the listener is recorded in the metric listener.&lt;event&gt;.
+ */
+public final class IndexingDispatcher implements ShutdownService
+{
+    public static final String METRIC_LISTENER_PREFIX = "listener.";
+
+    private static final String NAME = "ElasticData Appointment Listener Dispatcher";
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-dispatcher-";
+    private static final String PROPERTY_NB_THREADS = "elasticdata-appointment.dispatcher.nbThreads";
+    private static final String PROPERTY_QUEUE_CAPACITY = "elasticdata-appointment.dispatcher.queueCapacity";
+    private static final String PROPERTY_SHUTDOWN_TIMEOUT = "elasticdata-appointment.indexing.shutdownTimeout";
+    private static final String METRIC_REJECTED = "dispatcher.rejected";
+    private static final int DEFAULT_NB_THREADS = 1;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30;
+
+    private static IndexingDispatcher _instance = new IndexingDispatcher( );
+
+    private final ExecutorService _executor;
+
+    /**
+     * Private constructor
+     */
+    private IndexingDispatcher( )
+    {
+        int nNbThreads = AppPropertiesService.getPropertyInt( PROPERTY_NB_THREADS, DEFAULT_NB_THREADS );
+        _executor = new ThreadPoolExecutor( nNbThreads, nNbThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>( AppPropertiesService.getPropertyInt( PROPERTY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY ) ),
+                new IndexingThreadFactory( THREAD_NAME_PREFIX ) );
+    }
+
+    /**
+     * Return the instance of the dispatcher
+     * 
+     * @return the instance of the dispatcher
+     */
+    public static IndexingDispatcher getInstance( )
+    {
+        return _instance;
+    }
+
+    /**
+     * Run the work of a listener event in background and record the time spent by the caller
+     * 
+     * @param strEventName
+     *            the event name
+     * @param task
+     *            the work to do
+     */
+    public static void dispatch( String strEventName, Runnable task )
+    {
+        long lStart = System.nanoTime( );
+        try
+        {
+            _instance._executor.execute( ( ) -> run( strEventName, task ) );
+        }
+        catch( RejectedExecutionException e )
+        {
+            IndexingMetrics.increment( METRIC_REJECTED );
+            AppLogService.error( NAME + " rejected the event " + strEventName + ": " + e.getMessage( ), e );
+        }
+        IndexingMetrics.recordLatency( METRIC_LISTENER_PREFIX + strEventName, System.nanoTime( ) - lStart );
+    }
+
+    /**
+     * Run the work of a listener event
+     * 
+     * @param strEventName
+     *            the event name
+     * @param task
+     *            the work to do
+     */
+    private static void run( String strEventName, Runnable task )
+    {
+        try
+        {
+            task.run( );
+        }
+        catch( RuntimeException e )
+        {
+            AppLogService.error( "Error during the processing of the event " + strEventName + ": " + e.getMessage( ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName( )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void process( )
+    {
+        _executor.shutdown( );
+        try
+        {
+            if ( !_executor.awaitTermination( AppPropertiesService.getPropertyInt( PROPERTY_SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT ), TimeUnit.SECONDS ) )
+            {
+                _executor.shutdownNow( );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            _executor.shutdownNow( );
+            Thread.currentThread( ).interrupt( );
+        }
+        AppLogService.info( NAME + " stopped\n" + IndexingMetrics.getSnapshot( ) );
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.portal.service.init.ShutdownService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Asynchronous indexing engine. The listeners hand off the resources to index to a bounded queue, deduplicated by a pending set, which is consumed by a pool
+ * of worker threads. Each worker drains the queue by batch and delegates the indexing to the handler registered for the task type. A resource is processed
+ * by one worker at a time, whatever the task type: a task taken while the same resource is being indexed is deferred until the end of that indexing, so that
+ * the documents of a resource reach Elasticsearch in the order of its changes. The deferred tasks are queued again at the end of that indexing, in an overflow
+ * queue drained first by the workers when the queue is full, as they have already been accepted.
+ * <p>
+ * The tasks are queued under the read lock of the state of the engine and the engine is stopped under its write lock, so that no task is queued once the
+ * workers may have exited.
+ * </p>
+ */
+public final class IndexingEngine implements ShutdownService
+{
+    private static final String NAME = "ElasticData Appointment Indexing Engine";
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-indexer-";
+    private static final String PROPERTY_NB_WORKERS = "elasticdata-appointment.indexing.nbWorkers";
+    private static final String PROPERTY_QUEUE_CAPACITY = "elasticdata-appointment.indexing.queueCapacity";
+    private static final String PROPERTY_BATCH_SIZE = "elasticdata-appointment.indexing.batchSize";
+    private static final String PROPERTY_SHUTDOWN_TIMEOUT = "elasticdata-appointment.indexing.shutdownTimeout";
+    private static final int DEFAULT_NB_WORKERS = 2;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30;
+    private static final long POLL_TIMEOUT = 500L;
+    private static final String METRIC_TASK_PREFIX = "engine.";
+    private static final String METRIC_DEFERRED = "engine.deferred";
+    private static final String METRIC_WRITTEN = ".written";
+    private static final String METRIC_FAILED = ".failed";
+
+    private static IndexingEngine _instance = new IndexingEngine( );
+
+    private final int _nNbWorkers = AppPropertiesService.getPropertyInt( PROPERTY_NB_WORKERS, DEFAULT_NB_WORKERS );
+    private final int _nBatchSize = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE );
+    private final BlockingQueue<IndexingTask> _queueTask = new LinkedBlockingQueue<>(
+            AppPropertiesService.getPropertyInt( PROPERTY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY ) );
+    private final Queue<IndexingTask> _queueOverflowTask = new ConcurrentLinkedQueue<>( );
+    private final Set<IndexingTask> _setPendingTask = ConcurrentHashMap.newKeySet( );
+    private final Set<IndexingTask> _setInFlightResource = new HashSet<>( );
+    private final Map<IndexingTask, List<IndexingTask>> _mapDeferredTask = new HashMap<>( );
+    private final Object _lockInFlight = new Object( );
+    private final ReadWriteLock _lockState = new ReentrantReadWriteLock( );
+    private final ConcurrentMap<String, IIndexingTaskHandler> _mapHandler = new ConcurrentHashMap<>( );
+    private volatile ExecutorService _executor;
+    private volatile boolean _bRunning;
+
+    /**
+     * Private constructor
+     */
+    private IndexingEngine( )
+    {
+    }
+
+    /**
+     * Return the instance of the indexing engine
+     * 
+     * @return the instance of the indexing engine
+     */
+    public static IndexingEngine getInstance( )
+    {
+        return _instance;
+    }
+
+    /**
+     * Start the worker threads
+     */
+    public synchronized void start( )
+    {
+        if ( _bRunning )
+        {
+            return;
+        }
+        _bRunning = true;
+        _executor = Executors.newFixedThreadPool( _nNbWorkers, new IndexingThreadFactory( THREAD_NAME_PREFIX ) );
+        for ( int i = 0; i < _nNbWorkers; i++ )
+        {
+            _executor.execute( this::work );
+        }
+        AppLogService.info( NAME + " started with " + _nNbWorkers + " worker(s)" );
+    }
+
+    /**
+     * Stop accepting tasks, let the workers drain the queue and wait for them
+     */
+    public synchronized void stop( )
+    {
+        _lockState.writeLock( ).lock( );
+        try
+        {
+            if ( !_bRunning )
+            {
+                return;
+            }
+            _bRunning = false;
+        }
+        finally
+        {
+            _lockState.writeLock( ).unlock( );
+        }
+        _executor.shutdown( );
+        try
+        {
+            if ( !_executor.awaitTermination( AppPropertiesService.getPropertyInt( PROPERTY_SHUTDOWN_TIMEOUT, DEFAULT_SHUTDOWN_TIMEOUT ), TimeUnit.SECONDS ) )
+            {
+                AppLogService.error( NAME + " stopped before the end of the indexing, " + getQueueSize( ) + " task(s) lost" );
+                _executor.shutdownNow( );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            _executor.shutdownNow( );
+            Thread.currentThread( ).interrupt( );
+        }
+        AppLogService.info( NAME + " stopped" );
+    }
+
+    /**
+     * Hand off a resource to index. The call never waits for room in the queue: a full queue rejects the task. A resource already waiting in the queue is not
+     * added twice.
+     * 
+     * @param strResourceType
+     *            the resource type
+     * @param strTaskType
+     *            the task type
+     * @param nIdResource
+     *            the resource id
+     * @param handler
+     *            the handler processing the tasks of this type
+     * @return false if the task has been rejected because the queue is full or the engine is stopped, true otherwise
+     */
+    public boolean submit( String strResourceType, String strTaskType, int nIdResource, IIndexingTaskHandler handler )
+    {
+        _mapHandler.putIfAbsent( strTaskType, handler );
+        if ( !_bRunning )
+        {
+            startIfNeverStarted( );
+        }
+        IndexingTask task = new IndexingTask( strResourceType, strTaskType, nIdResource );
+        _lockState.readLock( ).lock( );
+        try
+        {
+            if ( !_bRunning )
+            {
+                AppLogService.error( NAME + " is stopped, the task " + task + " is rejected" );
+                return false;
+            }
+            if ( !_setPendingTask.add( task ) )
+            {
+                return true;
+            }
+            if ( !_queueTask.offer( task ) )
+            {
+                _setPendingTask.remove( task );
+                AppLogService.error( NAME + " queue is full, the task " + task + " is rejected" );
+                return false;
+            }
+            return true;
+        }
+        finally
+        {
+            _lockState.readLock( ).unlock( );
+        }
+    }
+
+    /**
+     * Start the engine unless it has already been started: an engine stopped by the shutdown of the webapp is not restarted
+     */
+    private synchronized void startIfNeverStarted( )
+    {
+        if ( _executor == null )
+        {
+            start( );
+        }
+    }
+
+    /**
+     * Returns the number of tasks waiting in the queue and in the overflow queue
+     * 
+     * @return the number of tasks waiting in the queue and in the overflow queue
+     */
+    public int getQueueSize( )
+    {
+        return _queueTask.size( ) + _queueOverflowTask.size( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName( )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void process( )
+    {
+        stop( );
+    }
+
+    /**
+     * Worker loop: take the tasks by batch, the overflow ones first, until the engine is stopped and the queues are empty
+     */
+    private void work( )
+    {
+        List<IndexingTask> listTask = new ArrayList<>( _nBatchSize );
+        while ( _bRunning || getQueueSize( ) > 0 )
+        {
+            try
+            {
+                IndexingTask task = _queueOverflowTask.poll( );
+                if ( task == null )
+                {
+                    task = _queueTask.poll( POLL_TIMEOUT, TimeUnit.MILLISECONDS );
+                }
+                if ( task != null )
+                {
+                    listTask.add( task );
+                    _queueTask.drainTo( listTask, _nBatchSize - 1 );
+                    processBatch( listTask );
+                    listTask.clear( );
+                }
+            }
+            catch( InterruptedException e )
+            {
+                Thread.currentThread( ).interrupt( );
+                return;
+            }
+        }
+    }
+
+    /**
+     * Group the tasks by type and call the handler of each type. The tasks are removed from the pending set before the processing so that a change occurring
+     * during the indexing is queued again; the tasks of the resources being indexed by another worker are deferred. The resources written and those in error
+     * are counted per task type.
+     * 
+     * @param listTask
+     *            the batch of tasks
+     */
+    private void processBatch( List<IndexingTask> listTask )
+    {
+        List<IndexingTask> listClaimedTask = claim( listTask );
+        Map<String, List<Integer>> mapIdResourceByType = new LinkedHashMap<>( );
+        for ( IndexingTask task : listClaimedTask )
+        {
+            mapIdResourceByType.computeIfAbsent( task.getTaskType( ), type -> new ArrayList<>( ) ).add( task.getIdResource( ) );
+        }
+        try
+        {
+            for ( Map.Entry<String, List<Integer>> entry : mapIdResourceByType.entrySet( ) )
+            {
+                long lStart = System.nanoTime( );
+                try
+                {
+                    _mapHandler.get( entry.getKey( ) ).process( entry.getValue( ) );
+                    IndexingMetrics.add( METRIC_TASK_PREFIX + entry.getKey( ) + METRIC_WRITTEN, entry.getValue( ).size( ) );
+                }
+                catch( ElasticClientException e )
+                {
+                    IndexingMetrics.add( METRIC_TASK_PREFIX + entry.getKey( ) + METRIC_FAILED, entry.getValue( ).size( ) );
+                    AppLogService.error( "Error during the indexing of " + entry.getKey( ) + " " + entry.getValue( ) + ": " + e.getMessage( ), e );
+                }
+                catch( RuntimeException e )
+                {
+                    IndexingMetrics.add( METRIC_TASK_PREFIX + entry.getKey( ) + METRIC_FAILED, entry.getValue( ).size( ) );
+                    AppLogService.error( "Unexpected error during the indexing of " + entry.getKey( ) + " " + entry.getValue( ) + ": " + e.getMessage( ), e );
+                }
+                IndexingMetrics.recordLatency( METRIC_TASK_PREFIX + entry.getKey( ), System.nanoTime( ) - lStart );
+            }
+        }
+        finally
+        {
+            release( listClaimedTask );
+        }
+    }
+
+    /**
+     * Mark the resources of the tasks of a batch as in flight. A task whose resource is already in flight stays pending and is deferred until its release.
+     * 
+     * @param listTask
+     *            the batch of tasks
+     * @return the tasks to process
+     */
+    private List<IndexingTask> claim( List<IndexingTask> listTask )
+    {
+        List<IndexingTask> listClaimedTask = new ArrayList<>( listTask.size( ) );
+        synchronized( _lockInFlight )
+        {
+            for ( IndexingTask task : listTask )
+            {
+                if ( _setInFlightResource.add( task.getResourceKey( ) ) )
+                {
+                    _setPendingTask.remove( task );
+                    listClaimedTask.add( task );
+                }
+                else
+                {
+                    _mapDeferredTask.computeIfAbsent( task.getResourceKey( ), resource -> new ArrayList<>( ) ).add( task );
+                    IndexingMetrics.increment( METRIC_DEFERRED );
+                }
+            }
+        }
+        return listClaimedTask;
+    }
+
+    /**
+     * Release the resources of the processed tasks and queue again the tasks deferred while they were in flight, in the overflow queue when the queue is full
+     * 
+     * @param listClaimedTask
+     *            the processed tasks
+     */
+    private void release( List<IndexingTask> listClaimedTask )
+    {
+        synchronized( _lockInFlight )
+        {
+            for ( IndexingTask task : listClaimedTask )
+            {
+                _setInFlightResource.remove( task.getResourceKey( ) );
+                List<IndexingTask> listDeferredTask = _mapDeferredTask.remove( task.getResourceKey( ) );
+                if ( listDeferredTask == null )
+                {
+                    continue;
+                }
+                for ( IndexingTask deferredTask : listDeferredTask )
+                {
+                    if ( !_queueTask.offer( deferredTask ) )
+                    {
+                        _queueOverflowTask.add( deferredTask );
+                    }
+                }
+            }
+        }
+    }
+}
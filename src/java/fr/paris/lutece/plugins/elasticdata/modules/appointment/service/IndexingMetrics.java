@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies of the indexing of the module
+ */
+public final class IndexingMetrics
+{
+    private static final ConcurrentMap<String, LongAdder> _mapCounter = new ConcurrentHashMap<>( );
+    private static final ConcurrentMap<String, Latency> _mapLatency = new ConcurrentHashMap<>( );
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private IndexingMetrics( )
+    {
+    }
+
+    /**
+     * Increment a counter
+     * 
+     * @param strName
+     *            the counter name
+     */
+    public static void increment( String strName )
+    {
+        add( strName, 1L );
+    }
+
+    /**
+     * Add a value to a counter
+     * 
+     * @param strName
+     *            the counter name
+     * @param lValue
+     *            the value to add
+     */
+    public static void add( String strName, long lValue )
+    {
+        _mapCounter.computeIfAbsent( strName, name -> new LongAdder( ) ).add( lValue );
+    }
+
+    /**
+     * Returns the value of a counter
+     * 
+     * @param strName
+     *            the counter name
+     * @return the value of the counter
+     */
+    public static long getCounter( String strName )
+    {
+        LongAdder counter = _mapCounter.get( strName );
+        return ( counter != null ) ? counter.sum( ) : 0L;
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param strName
+     *            the latency name
+     * @param lDurationNanos
+     *            the duration in nanoseconds
+     */
+    public static void recordLatency( String strName, long lDurationNanos )
+    {
+        _mapLatency.computeIfAbsent( strName, name -> new Latency( ) ).record( lDurationNanos );
+    }
+
+    /**
+     * Returns the mean latency in microseconds
+     * 
+     * @param strName
+     *            the latency name
+     * @return the mean latency in microseconds
+     */
+    public static long getMeanLatencyMicros( String strName )
+    {
+        Latency latency = _mapLatency.get( strName );
+        return ( latency != null ) ? latency.getMeanMicros( ) : 0L;
+    }
+
+    /**
+     * Returns the max latency in microseconds
+     * 
+     * @param strName
+     *            the latency name
+     * @return the max latency in microseconds
+     */
+    public static long getMaxLatencyMicros( String strName )
+    {
+        Latency latency = _mapLatency.get( strName );
+        return ( latency != null ) ? TimeUnit.NANOSECONDS.toMicros( latency._lMaxNanos.get( ) ) : 0L;
+    }
+
+    /**
+     * Reset all the counters and latencies
+     */
+    public static void reset( )
+    {
+        _mapCounter.clear( );
+        _mapLatency.clear( );
+    }
+
+    /**
+     * Returns a readable snapshot of all the counters and latencies
+     * 
+     * @return the snapshot
+     */
+    public static String getSnapshot( )
+    {
+        StringBuilder sbSnapshot = new StringBuilder( );
+        for ( Map.Entry<String, LongAdder> entry : new TreeMap<>( _mapCounter ).entrySet( ) )
+        {
+            sbSnapshot.append( entry.getKey( ) ).append( '=' ).append( entry.getValue( ).sum( ) ).append( '\n' );
+        }
+        for ( Map.Entry<String, Latency> entry : new TreeMap<>( _mapLatency ).entrySet( ) )
+        {
+            Latency latency = entry.getValue( );
+            sbSnapshot.append( entry.getKey( ) ).append( " count=" ).append( latency._lCount.sum( ) ).append( " mean=" ).append( latency.getMeanMicros( ) )
+                    .append( "us max=" ).append( TimeUnit.NANOSECONDS.toMicros( latency._lMaxNanos.get( ) ) ).append( "us\n" );
+        }
+        return sbSnapshot.toString( );
+    }
+
+    /**
+     * Latency accumulator
+     */
+    private static final class Latency
+    {
+        private final LongAdder _lCount = new LongAdder( );
+        private final LongAdder _lTotalNanos = new LongAdder( );
+        private final LongAccumulator _lMaxNanos = new LongAccumulator( Long::max, 0L );
+
+        private void record( long lDurationNanos )
+        {
+            _lCount.increment( );
+            _lTotalNanos.add( lDurationNanos );
+            _lMaxNanos.accumulate( lDurationNanos );
+        }
+
+        private long getMeanMicros( )
+        {
+            long lCount = _lCount.sum( );
+            return ( lCount == 0 ) ? 0L : TimeUnit.NANOSECONDS.toMicros( _lTotalNanos.sum( ) / lCount );
+        }
+    }
+}
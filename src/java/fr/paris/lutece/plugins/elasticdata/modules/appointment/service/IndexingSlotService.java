@@ -35,41 +35,59 @@ package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
 
 import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
 
 import fr.paris.lutece.plugins.appointment.business.category.Category;
-import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
 import fr.paris.lutece.plugins.appointment.business.slot.Slot;
-import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.service.SlotService;
 import fr.paris.lutece.plugins.appointment.service.WeekDefinitionService;
 import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
 import fr.paris.lutece.plugins.elasticdata.business.DataObject;
 import fr.paris.lutece.plugins.elasticdata.business.DataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.SlotIndexHome;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.SlotDocumentHashRegistry.SlotChange;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.SlotDocumentHashRegistry.SlotDiff;
 import fr.paris.lutece.plugins.elasticdata.service.DataSourceService;
 import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
 import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
 
 public class IndexingSlotService
 {
 
-    private static final int _nBatchSize = 100;
+    private static final String RESOURCE_SLOT = "slot";
+    private static final String RESOURCE_FORM = "form";
+    private static final String PROPERTY_SLOT_DIFF_INDEXING = "elasticdata-appointment.slot.diffIndexing";
+    private static final String METRIC_SLOT_DIFF_UNCHANGED = "slot.diff.unchanged";
+    private static final String METRIC_SLOT_DIFF_UPSERTED = "slot.diff.upserted";
+    private static final String METRIC_SLOT_DIFF_DELETED = "slot.diff.deleted";
+    private static final String METRIC_SLOT_EVENT_UNCHANGED = "slot.event.unchanged";
+    private static final String METRIC_SLOT_EVENT_PARTIAL = "slot.event.partial";
+    private static final String METRIC_SLOT_EVENT_FULL = "slot.event.full";
+    private static final ISlotLoader DATABASE_SLOT_LOADER = new DatabaseSlotLoader( );
     private static ConcurrentMap<Integer, AtomicBoolean> _lockIndexerIsRuning = new ConcurrentHashMap<>( );
     private static ConcurrentMap<Integer, AtomicBoolean> _lockIndexToLunch = new ConcurrentHashMap<>( );
-    private static AtomicBoolean _bIndexIsRunning = new AtomicBoolean( false );
-    private static Queue<Integer> _queueSlotToIndex = new ConcurrentLinkedQueue<>( );
+    private static ConcurrentMap<Integer, LocalDate [ ]> _mapPendingDateRange = new ConcurrentHashMap<>( );
 
     private IndexingSlotService( )
     {
@@ -97,18 +115,11 @@ public class IndexingSlotService
                 while ( bIndexToLunch.compareAndSet( true, false ) )
                 {
 
-                    Collection<DataObject> collResult = new ArrayList<>( );
-                    Category category = CategoryHome.findByPrimaryKey( apptFormDTO.getIdCategory( ) );
-                    List<Slot> listSlots = AppointmentSlotUtil.getAllSlots( apptFormDTO );
-
-                    for ( Slot appointmentSlot : listSlots )
-                    {
-                        collResult.add( new AppointmentSlotDataObject( apptFormDTO, appointmentSlot, AppointmentSlotUtil.INSTANCE_NAME, category ) );
-
-                    }
-
-                    DataSourceService.deleteByQuery( dataSource, AppointmentSlotUtil.buildQuery( apptFormDTO.getIdForm( ) ) );
-                    DataSourceService.processIncrementalIndexing( sbuilderLogs, dataSource, collResult );
+                    List<Slot> listSlot = AppointmentSlotUtil.getAllSlots( apptFormDTO );
+                    SlotAvailabilityIndex.reset( apptFormDTO.getIdForm( ), listSlot );
+                    List<AppointmentSlotDataObject> listSlotDataObject = buildSlotDataObjects( apptFormDTO, listSlot );
+                    indexSlots( dataSource, apptFormDTO.getIdForm( ), listSlotDataObject, Long.MIN_VALUE, Long.MAX_VALUE,
+                            AppointmentSlotUtil.buildFilter( apptFormDTO.getIdForm( ) ), sbuilderLogs );
                 }
 
             }
@@ -125,31 +136,32 @@ public class IndexingSlotService
     }
 
     /**
-     * Index the form and the slots in elastic-searche
+     * Index the slots of a date range of a form in elasticsearch
      * 
      * @param dataSource
      *            the data source
      * @param apptFormdto
      *            the form
+     * @param startingDate
+     *            the first day of the range
+     * @param endingDate
+     *            the last day of the range
      */
-    public static void indexFormByDateRange( DataSource dataSource, AppointmentFormDTO apptFormDTO, LocalDate startingDate, LocalDate endingDate )
+    private static void indexFormByDateRange( DataSource dataSource, AppointmentFormDTO apptFormDTO, LocalDate startingDate, LocalDate endingDate )
     {
         StringBuilder sbuilderLogs = new StringBuilder( );
         try
         {
-            Collection<DataObject> collResult = new ArrayList<>( );
-            Category category = CategoryHome.findByPrimaryKey( apptFormDTO.getIdCategory( ) );
             List<Slot> listSlots = SlotService.buildListSlot( apptFormDTO.getIdForm( ), WeekDefinitionService.findAllWeekDefinition( apptFormDTO.getIdForm( ) ),
                     startingDate, endingDate );
-
-            for ( Slot appointmentSlot : listSlots )
-            {
-                collResult.add( new AppointmentSlotDataObject( apptFormDTO, appointmentSlot, AppointmentSlotUtil.INSTANCE_NAME, category ) );
-            }
-
-            DataSourceService.deleteByQuery( dataSource, AppointmentSlotUtil.buildQueryDateRange( apptFormDTO.getIdForm( ),
-                    Timestamp.valueOf( startingDate.atStartOfDay( ) ).getTime( ), Timestamp.valueOf( endingDate.atTime( LocalTime.MAX ) ).getTime( ) ) );
-            DataSourceService.processIncrementalIndexing( sbuilderLogs, dataSource, collResult );
+            LocalDateTime startingDateTime = startingDate.atStartOfDay( );
+            LocalDateTime endingDateTime = endingDate.atTime( LocalTime.MAX );
+            SlotAvailabilityIndex.updateRange( apptFormDTO.getIdForm( ), listSlots, Timestamp.valueOf( startingDateTime ).getTime( ),
+                    Timestamp.valueOf( endingDateTime ).getTime( ) );
+            String strFilter = AppointmentSlotUtil.buildFilterDateRange( apptFormDTO.getIdForm( ), Timestamp.valueOf( startingDateTime ).getTime( ),
+                    Timestamp.valueOf( endingDateTime ).getTime( ) );
+            indexSlots( dataSource, apptFormDTO.getIdForm( ), buildSlotDataObjects( apptFormDTO, listSlots ),
+                    AppointmentSlotUtil.getSlotKey( startingDateTime ), AppointmentSlotUtil.getSlotKey( endingDateTime ), strFilter, sbuilderLogs );
         }
         catch( ElasticClientException e )
         {
@@ -158,47 +170,92 @@ public class IndexingSlotService
     }
 
     /**
-     * Index the slot (and the related form to have the good number of available places) in elasticsearch
+     * Build the slot documents of a form, with the number of consecutive available slots computed on the timeline of the given slots. The documents share
+     * one form sub-document, the one of the {@link ReferenceDataCache} when the form has not changed since it was cached.
+     * 
+     * @param apptFormDTO
+     *            the form
+     * @param listSlots
+     *            the slots
+     * @return the slot documents
+     */
+    public static List<AppointmentSlotDataObject> buildSlotDataObjects( AppointmentFormDTO apptFormDTO, List<Slot> listSlots )
+    {
+        Category category = ReferenceDataCache.getCategory( apptFormDTO.getIdCategory( ) );
+        AppointmentForm appointmentForm = ReferenceDataCache.internAppointmentForm( new AppointmentForm( apptFormDTO, category ) );
+        int [ ] arrayConsecutiveSlots = SlotTimeline.computeConsecutiveSlots( listSlots );
+        List<AppointmentSlotDataObject> listSlotDataObject = new ArrayList<>( listSlots.size( ) );
+        for ( int i = 0; i < listSlots.size( ); i++ )
+        {
+            AppointmentSlotDataObject slotDataObject = new AppointmentSlotDataObject( listSlots.get( i ), AppointmentSlotUtil.INSTANCE_NAME, appointmentForm );
+            slotDataObject.setNbConsecutiveSlots( arrayConsecutiveSlots [i] );
+            listSlotDataObject.add( slotDataObject );
+        }
+        return listSlotDataObject;
+    }
+
+    /**
+     * Index the slots of a form or of a date range of a form. When the form is tracked by the {@link SlotDocumentHashRegistry}, the slots are upserted (only
+     * the changed ones in diff mode) and the vanished ones deleted by id; otherwise the ids of the slots in the index are searched, all the slots are indexed
+     * again and the slots of the index which were not generated are deleted by id.
      * 
-     * @param nIdSlot
-     *            the id slot
      * @param dataSource
      *            the data source
+     * @param nIdForm
+     *            the form id
+     * @param listSlotDataObject
+     *            the slots generated for the form or the range
+     * @param lKeyFrom
+     *            the key of the first slot of the range, Long.MIN_VALUE for the whole form
+     * @param lKeyTo
+     *            the key of the last slot of the range, Long.MAX_VALUE for the whole form
+     * @param strFilter
+     *            the query clause matching the slots of the form or the range
+     * @param sbuilderLogs
+     *            the logs
+     * @throws ElasticClientException
+     *             the ElasticClientException
      */
-    public static void indexSlot( int nIdSlot, DataSource dataSource )
+    static void indexSlots( DataSource dataSource, int nIdForm, List<AppointmentSlotDataObject> listSlotDataObject, long lKeyFrom, long lKeyTo,
+            String strFilter, StringBuilder sbuilderLogs ) throws ElasticClientException
     {
-        if ( _bIndexIsRunning.compareAndSet( false, true ) )
+        SlotDiff diff = SlotDocumentHashRegistry.diff( nIdForm, listSlotDataObject, lKeyFrom, lKeyTo );
+        try
         {
-            try
+            if ( diff == null )
             {
-                Integer nIdresource = nIdSlot;
-                do
+                Set<String> setVanishedUid = new HashSet<>( ElasticBulkClient.searchIds( dataSource.getTargetIndexName( ), strFilter ) );
+                DataSourceService.processIncrementalIndexing( sbuilderLogs, dataSource, new ArrayList<>( listSlotDataObject ) );
+                for ( AppointmentSlotDataObject slotDataObject : listSlotDataObject )
                 {
-
-                    indexingSlot( nIdresource, dataSource );
-                    nIdresource = _queueSlotToIndex.poll( );
-
+                    setVanishedUid.remove( slotDataObject.getId( ) );
                 }
-                while ( nIdresource != null );
-            }
-            catch( ElasticClientException e )
-            {
-                AppLogService.error( "Error during ElasticDataAppointmentListener reindexSlot: " + e.getMessage( ), e );
-            }
-            finally
-            {
-                _bIndexIsRunning.set( false );
-                if ( !_queueSlotToIndex.isEmpty( ) )
+                deleteSlotsById( dataSource, new ArrayList<>( setVanishedUid ) );
+                if ( lKeyFrom == Long.MIN_VALUE && lKeyTo == Long.MAX_VALUE )
                 {
-                    indexSlot( _queueSlotToIndex.poll( ), dataSource );
+                    SlotDocumentHashRegistry.register( nIdForm, listSlotDataObject );
                 }
+                return;
             }
-        }
-        else
-            if ( !_queueSlotToIndex.contains( nIdSlot ) )
+            // the slots of a tracked form are replaced in place: upsert (the changed or all) slots, then delete the vanished ones by id
+            boolean bDiffIndexing = AppPropertiesService.getPropertyBoolean( PROPERTY_SLOT_DIFF_INDEXING, false );
+            List<AppointmentSlotDataObject> listUpsert = bDiffIndexing ? diff.getChangedSlots( ) : listSlotDataObject;
+            if ( !listUpsert.isEmpty( ) )
             {
-                _queueSlotToIndex.add( nIdSlot );
+                DataSourceService.processIncrementalIndexing( sbuilderLogs, dataSource, new ArrayList<>( listUpsert ) );
             }
+            deleteSlotsById( dataSource, diff.getVanishedUids( ) );
+            SlotDocumentHashRegistry.commit( diff );
+            IndexingMetrics.add( METRIC_SLOT_DIFF_UNCHANGED, (long) listSlotDataObject.size( ) - diff.getChangedSlots( ).size( ) );
+            IndexingMetrics.add( METRIC_SLOT_DIFF_UPSERTED, listUpsert.size( ) );
+            IndexingMetrics.add( METRIC_SLOT_DIFF_DELETED, diff.getVanishedUids( ).size( ) );
+        }
+        catch( ElasticClientException | RuntimeException e )
+        {
+            // the index no longer matches the registry: the next indexing of the form rewrites all its slots
+            SlotDocumentHashRegistry.forget( nIdForm );
+            throw e;
+        }
     }
 
     /**
@@ -208,24 +265,100 @@ public class IndexingSlotService
      *            the id slot
      * @param dataSource
      *            the data source
-     * @throws ElasticClientException
-     *             the Exception
      */
-    private static void indexingSlot( int nIdresource, DataSource dataSource ) throws ElasticClientException
+    public static void indexSlot( int nIdSlot, DataSource dataSource )
     {
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_SLOT, nIdSlot, IndexingOperation.UPDATE,
+                listIdSlot -> indexListSlot( listIdSlot, dataSource, DATABASE_SLOT_LOADER ) );
+    }
 
-        if ( _queueSlotToIndex.isEmpty( ) || _queueSlotToIndex.size( ) < _nBatchSize )
+    /**
+     * Index the capacity of the slots vacated and taken by an appointment whose date changed. The slots are handed off to the same batch, so that the
+     * capacity updates of the old and new slots are sent together
+     * 
+     * @param nIdAppointment
+     *            the id of the appointment
+     * @param listIdOldSlot
+     *            the ids of the slots the appointment was moved from
+     * @param dataSource
+     *            the data source
+     */
+    public static void indexAppointmentSlots( int nIdAppointment, List<Integer> listIdOldSlot, DataSource dataSource )
+    {
+        Set<Integer> setIdSlot = new LinkedHashSet<>( );
+        if ( listIdOldSlot != null )
         {
-
-            DataSourceService.processIncrementalIndexing( dataSource, builAppointmentSlotDataObject( nIdresource ) );
-
+            setIdSlot.addAll( listIdOldSlot );
+        }
+        for ( Slot slot : SlotService.findListSlotByIdAppointment( nIdAppointment ) )
+        {
+            setIdSlot.add( slot.getIdSlot( ) );
         }
-        else
+        for ( int nIdSlot : setIdSlot )
         {
-            indexListSlot( _queueSlotToIndex, nIdresource, dataSource );
+            indexSlot( nIdSlot, dataSource );
         }
     }
 
+    /**
+     * Index the form and the slots in elasticsearch, in background
+     * 
+     * @param dataSource
+     *            the data source
+     * @param nIdForm
+     *            the form id
+     */
+    public static void indexForm( DataSource dataSource, int nIdForm )
+    {
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_FORM, nIdForm, IndexingOperation.UPDATE, listIdForm -> {
+            for ( int nIdFormToIndex : listIdForm )
+            {
+                // the reference data are invalidated in the order of the form tasks, so that the indexing reads the new form; the whole form covers the
+                // pending date ranges
+                ReferenceDataCache.invalidateForm( nIdFormToIndex );
+                _mapPendingDateRange.remove( nIdFormToIndex );
+                AppointmentFormDTO appointmentForm = ReferenceDataCache.getAppointmentFormDTO( nIdFormToIndex );
+                if ( appointmentForm != null )
+                {
+                    indexForm( dataSource, appointmentForm );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Index the slots of a date range of a form in elasticsearch, in background. The ranges of a form received until its indexing are merged into the range
+     * covering them.
+     * 
+     * @param dataSource
+     *            the data source
+     * @param nIdForm
+     *            the form id
+     * @param startingDate
+     *            the first day of the range
+     * @param endingDate
+     *            the last day of the range
+     */
+    public static void indexFormByDateRange( DataSource dataSource, int nIdForm, LocalDate startingDate, LocalDate endingDate )
+    {
+        _mapPendingDateRange.merge( nIdForm, new LocalDate [ ] {
+                startingDate, endingDate
+        }, ( range, other ) -> new LocalDate [ ] {
+                Collections.min( Arrays.asList( range [0], other [0] ) ), Collections.max( Arrays.asList( range [1], other [1] ) )
+        } );
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_FORM, nIdForm, IndexingOperation.PARTIAL, listIdForm -> {
+            for ( int nIdFormToIndex : listIdForm )
+            {
+                LocalDate [ ] range = _mapPendingDateRange.remove( nIdFormToIndex );
+                AppointmentFormDTO appointmentForm = ReferenceDataCache.getAppointmentFormDTO( nIdFormToIndex );
+                if ( range != null && appointmentForm != null )
+                {
+                    indexFormByDateRange( dataSource, appointmentForm, range [0], range [1] );
+                }
+            }
+        } );
+    }
+
     /**
      * Delete list slot of the form in the index
      * 
@@ -236,89 +369,238 @@ public class IndexingSlotService
      */
     public static void deleteSlotsForm( DataSource dataSource, int nIdForm )
     {
-        try
-        {
-            DataSourceService.deleteByQuery( dataSource, AppointmentSlotUtil.buildQuery( nIdForm ) );
-        }
-        catch( ElasticClientException e )
+        IndexingCoalescer.getInstance( ).submit( RESOURCE_FORM, nIdForm, IndexingOperation.DELETE, listIdForm -> {
+            for ( int nIdFormToDelete : listIdForm )
+            {
+                ReferenceDataCache.invalidateForm( nIdFormToDelete );
+                SlotAvailabilityIndex.invalidate( nIdFormToDelete );
+                _mapPendingDateRange.remove( nIdFormToDelete );
+                deleteIndexedSlotsForm( dataSource, nIdFormToDelete );
+            }
+        } );
+    }
+
+    /**
+     * Delete by id all the slot documents of a form, their ids being searched in the index: the {@link SlotDocumentHashRegistry} only knows the slots indexed
+     * since the start, not those of the past days or of a full indexing
+     * 
+     * @param dataSource
+     *            the data source
+     * @param nIdForm
+     *            the form id
+     * @throws ElasticClientException
+     *             the ElasticClientException
+     */
+    static void deleteIndexedSlotsForm( DataSource dataSource, int nIdForm ) throws ElasticClientException
+    {
+        SlotDocumentHashRegistry.forget( nIdForm );
+        deleteSlotsById( dataSource, ElasticBulkClient.searchIds( dataSource.getTargetIndexName( ), AppointmentSlotUtil.buildFilter( nIdForm ) ) );
+    }
+
+    /**
+     * Delete slot documents by id with bulk delete actions
+     * 
+     * @param dataSource
+     *            the data source
+     * @param listUid
+     *            the slot uids
+     * @throws ElasticClientException
+     *             the ElasticClientException
+     */
+    private static void deleteSlotsById( DataSource dataSource, List<String> listUid ) throws ElasticClientException
+    {
+        ElasticBulkClient.deleteById( dataSource.getTargetIndexName( ), listUid );
+    }
+
+    /**
+     * Reindex list of slot. The slots of the days of the given slots are built for the tracked forms; the first slot event of an untracked form builds all its
+     * slots, so that the form becomes tracked and its next bookings are sent as partial updates.
+     * 
+     * @param listIdSlot
+     *            the list of slot id handed off by the indexing engine
+     * @param dataSource
+     *            the dataSource
+     * @param slotLoader
+     *            the loader of the forms and of the slots
+     * @throws ElasticClientException
+     *             the Exception
+     */
+    static void indexListSlot( List<Integer> listIdSlot, DataSource dataSource, ISlotLoader slotLoader ) throws ElasticClientException
+    {
+        Map<Integer, List<AppointmentSlotDataObject>> mapSlotDataObjectByForm = new HashMap<>( );
+        Set<Integer> setUntrackedForm = new HashSet<>( );
+        for ( Map.Entry<Integer, List<Slot>> entry : slotLoader.getSlotsByForm( listIdSlot ).entrySet( ) )
         {
-            AppLogService.error( "Error during ElasticDataAppointmentListener remove Form: " + e.getMessage( ), e );
+            int nIdForm = entry.getKey( );
+            AppointmentFormDTO appointmentForm = slotLoader.getForm( nIdForm );
+            List<Slot> listDaySlot = slotLoader.getDaySlots( nIdForm, entry.getValue( ) );
+            SlotAvailabilityIndex.update( nIdForm, listDaySlot );
+            List<AppointmentSlotDataObject> listSlotDataObject;
+            if ( SlotDocumentHashRegistry.isTracked( nIdForm ) )
+            {
+                listSlotDataObject = buildSlotDataObjects( appointmentForm, listDaySlot );
+            }
+            else
+            {
+                List<Slot> listSlot = slotLoader.getAllSlots( appointmentForm );
+                listSlotDataObject = buildSlotDataObjects( appointmentForm, listSlot );
+                // the days of the given slots outside of the slots of the form are indexed too
+                Set<LocalDate> setDay = new HashSet<>( );
+                for ( Slot slot : listSlot )
+                {
+                    setDay.add( slot.getStartingDateTime( ).toLocalDate( ) );
+                }
+                listDaySlot.removeIf( slot -> setDay.contains( slot.getStartingDateTime( ).toLocalDate( ) ) );
+                listSlotDataObject.addAll( buildSlotDataObjects( appointmentForm, listDaySlot ) );
+                setUntrackedForm.add( nIdForm );
+            }
+            mapSlotDataObjectByForm.put( nIdForm, listSlotDataObject );
         }
+        indexSlotDataObjects( dataSource, mapSlotDataObjectByForm, setUntrackedForm );
     }
 
     /**
-     * Reindex list of slot
+     * Index slot documents built after slot events. A slot whose capacity only changed since it was last indexed is partially updated; an unchanged slot is
+     * not sent. The new documents and the partial updates are sent in one bulk request. The untracked forms, whose slots are all given, become tracked once
+     * all their slots are indexed; a form with a failed slot is no longer tracked.
      * 
-     * @param queueSlotToIndex
-     *            the queue of slot id
-     * @param nIdSlot
-     *            the id slot
      * @param dataSource
      *            the dataSource
+     * @param mapSlotDataObjectByForm
+     *            the slot documents, by form id
+     * @param setUntrackedForm
+     *            the ids of the forms which were not tracked, whose slot documents are all the slots of the form
+     * @return true if all the sent slots are indexed
      * @throws ElasticClientException
      *             the Exception
      */
-    private static void indexListSlot( Queue<Integer> queueSlotToIndex, int nIdSlot, DataSource dataSource ) throws ElasticClientException
+    static boolean indexSlotDataObjects( DataSource dataSource, Map<Integer, List<AppointmentSlotDataObject>> mapSlotDataObjectByForm,
+            Set<Integer> setUntrackedForm ) throws ElasticClientException
     {
-
-        StringBuilder builder = new StringBuilder( );
-        List<Integer> listIdSlot = new ArrayList<>( );
-        if ( !queueSlotToIndex.contains( nIdSlot ) )
-            queueSlotToIndex.add( nIdSlot );
-        while ( !queueSlotToIndex.isEmpty( ) && listIdSlot.size( ) <= _nBatchSize )
+        List<AppointmentSlotDataObject> listSentSlot = new ArrayList<>( );
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        int nNbSlots = 0;
+        int nNbPartial = 0;
+        try
         {
-            listIdSlot.add( queueSlotToIndex.poll( ) );
+            for ( Map.Entry<Integer, List<AppointmentSlotDataObject>> entry : mapSlotDataObjectByForm.entrySet( ) )
+            {
+                boolean bUntracked = setUntrackedForm.contains( entry.getKey( ) );
+                for ( AppointmentSlotDataObject appointmentSlotDataObject : entry.getValue( ) )
+                {
+                    SlotChange change = bUntracked ? SlotChange.UNKNOWN : SlotDocumentHashRegistry.compare( entry.getKey( ), appointmentSlotDataObject );
+                    if ( change == SlotChange.CAPACITY )
+                    {
+                        request.update( dataSource.getTargetIndexName( ), appointmentSlotDataObject.getId( ),
+                                new AppointmentSlotPartialDataObject( appointmentSlotDataObject ) );
+                        listSentSlot.add( appointmentSlotDataObject );
+                        nNbPartial++;
+                    }
+                    else
+                        if ( change != SlotChange.UNCHANGED )
+                        {
+                            request.index( dataSource.getTargetIndexName( ), appointmentSlotDataObject.getId( ), appointmentSlotDataObject );
+                            listSentSlot.add( appointmentSlotDataObject );
+                        }
+                }
+                nNbSlots += entry.getValue( ).size( );
+            }
+        }
+        catch( JsonProcessingException e )
+        {
+            throw new ElasticClientException( "Error building the bulk indexing of the slots", e );
+        }
+        IndexingMetrics.add( METRIC_SLOT_EVENT_UNCHANGED, (long) nNbSlots - listSentSlot.size( ) );
+        IndexingMetrics.add( METRIC_SLOT_EVENT_PARTIAL, nNbPartial );
+        IndexingMetrics.add( METRIC_SLOT_EVENT_FULL, (long) listSentSlot.size( ) - nNbPartial );
+
+        BitSet failures = ElasticBulkClient.executeForFailures( request );
+        Set<Integer> setFailedForm = new HashSet<>( );
+        Map<Integer, List<AppointmentSlotDataObject>> mapIndexedSlotByForm = new HashMap<>( );
+        for ( int i = 0; i < listSentSlot.size( ); i++ )
+        {
+            AppointmentSlotDataObject slot = listSentSlot.get( i );
+            int nIdForm = slot.getAppointmentForm( ).getIdForms( );
+            if ( failures.get( i ) )
+            {
+                setFailedForm.add( nIdForm );
+            }
+            else
+            {
+                mapIndexedSlotByForm.computeIfAbsent( nIdForm, idForm -> new ArrayList<>( ) ).add( slot );
+            }
         }
-        DataSourceService.processIncrementalIndexing( builder, dataSource, builAppointmentSlotDataObject( listIdSlot ) );
-        AppLogService.debug( builder.toString( ) );
+        mapIndexedSlotByForm.forEach( ( nIdForm, listIndexedSlot ) -> {
+            if ( setUntrackedForm.contains( nIdForm ) )
+            {
+                if ( !setFailedForm.contains( nIdForm ) )
+                {
+                    SlotDocumentHashRegistry.registerIfUntracked( nIdForm, listIndexedSlot );
+                }
+            }
+            else
+            {
+                SlotDocumentHashRegistry.update( nIdForm, listIndexedSlot );
+            }
+        } );
+        // the next indexing of the forms with a failed slot rewrites all their slots
+        setFailedForm.forEach( SlotDocumentHashRegistry::forget );
+        return setFailedForm.isEmpty( );
     }
 
     /**
-     * build AppointmentSlotDataObject
+     * Index all the slot documents of forms during a full reindex. Every slot is sent, and each form becomes tracked by the {@link SlotDocumentHashRegistry}
+     * once all its slots are indexed.
      * 
-     * @param nIslot
-     *            the slot id
-     * @return AppointmentSlotDataObject
+     * @param dataSource
+     *            the dataSource
+     * @param listDataObject
+     *            all the slot documents of the forms
+     * @throws ElasticClientException
+     *             if the request fails or if some slots are not indexed
      */
-    private static AppointmentSlotDataObject builAppointmentSlotDataObject( int nIdSlot )
+    static void reindexSlotDataObjects( DataSource dataSource, List<DataObject> listDataObject ) throws ElasticClientException
     {
-        Slot slot = SlotService.findSlotById( nIdSlot );
-        AppointmentFormDTO apptFormdto = FormService.buildAppointmentFormWithoutReservationRule( slot.getIdForm( ) );
-        return new AppointmentSlotDataObject( apptFormdto, slot, AppointmentSlotUtil.INSTANCE_NAME,
-                CategoryHome.findByPrimaryKey( apptFormdto.getIdCategory( ) ) );
-
+        Map<Integer, List<AppointmentSlotDataObject>> mapSlotDataObjectByForm = new HashMap<>( );
+        for ( DataObject dataObject : listDataObject )
+        {
+            AppointmentSlotDataObject slot = (AppointmentSlotDataObject) dataObject;
+            mapSlotDataObjectByForm.computeIfAbsent( slot.getAppointmentForm( ).getIdForms( ), idForm -> new ArrayList<>( ) ).add( slot );
+        }
+        if ( !indexSlotDataObjects( dataSource, mapSlotDataObjectByForm, mapSlotDataObjectByForm.keySet( ) ) )
+        {
+            throw new ElasticClientException( "Some slots of the forms " + mapSlotDataObjectByForm.keySet( ) + " are not indexed" );
+        }
     }
 
     /**
-     * Build list of AppointmentSlotDataObject
+     * Build the slots of the days of the given slots of a form. All the slots of these days are built, as a booking or a cancellation also changes the
+     * consecutive slots of the slots before it; the unchanged slots are then skipped thanks to the {@link SlotDocumentHashRegistry}. The slots are generated
+     * in one call over the range of the affected days, then restricted to these days.
      * 
-     * @param lisIdSlot
-     *            the list of id slot
-     * @return the list of AppointmentSlotDataObject
+     * @param nIdForm
+     *            the form id
+     * @param listSlot
+     *            the given slots of the form
+     * @return the slots of the days
      */
-    private static List<DataObject> builAppointmentSlotDataObject( List<Integer> lisIdSlot )
+    private static List<Slot> buildDaySlots( int nIdForm, List<Slot> listSlot )
     {
-
-        List<DataObject> collResult = new ArrayList<>( );
-        Map<Integer, Category> mapCategory = CategoryHome.findAllCategories( ).stream( ).collect( Collectors.toMap( Category::getIdCategory, cat -> cat ) );
-        Map<Integer, AppointmentFormDTO> mapForm = new HashMap<>( );
-
-        for ( int nIdSlot : lisIdSlot )
+        TreeSet<LocalDate> setDay = new TreeSet<>( );
+        for ( Slot slot : listSlot )
         {
-
-            Slot slot = SlotService.findSlotById( nIdSlot );
-            AppointmentFormDTO appointmentForm = mapForm.get( slot.getIdForm( ) );
-            if ( appointmentForm == null )
+            setDay.add( slot.getStartingDateTime( ).toLocalDate( ) );
+        }
+        List<Slot> listAllSlot = SlotService.buildListSlot( nIdForm, WeekDefinitionService.findAllWeekDefinition( nIdForm ), setDay.first( ), setDay.last( ) );
+        List<Slot> listDaySlot = new ArrayList<>( listAllSlot.size( ) );
+        for ( Slot slot : listAllSlot )
+        {
+            if ( setDay.contains( slot.getStartingDateTime( ).toLocalDate( ) ) )
             {
-
-                appointmentForm = FormService.buildAppointmentFormWithoutReservationRule( slot.getIdForm( ) );
-                mapForm.put( appointmentForm.getIdForm( ), appointmentForm );
-                collResult.add( new AppointmentSlotDataObject( appointmentForm, slot, AppointmentSlotUtil.INSTANCE_NAME,
-                        mapCategory.get( appointmentForm.getIdCategory( ) ) ) );
+                listDaySlot.add( slot );
             }
         }
-
-        return collResult;
+        return listDaySlot;
     }
 
     private static synchronized AtomicBoolean getIndexRuningLock( int nkey )
@@ -333,4 +615,95 @@ public class IndexingSlotService
         return _lockIndexToLunch.get( nkey );
     }
 
+    /**
+     * Loader of the forms and of the slots indexed on slot events
+     */
+    interface ISlotLoader
+    {
+        /**
+         * Load the given slots, by form id
+         * 
+         * @param listIdSlot
+         *            the slot ids
+         * @return the slots, by form id
+         */
+        Map<Integer, List<Slot>> getSlotsByForm( List<Integer> listIdSlot );
+
+        /**
+         * Load a form
+         * 
+         * @param nIdForm
+         *            the form id
+         * @return the form
+         */
+        AppointmentFormDTO getForm( int nIdForm );
+
+        /**
+         * Build all the slots of the days of the given slots of a form
+         * 
+         * @param nIdForm
+         *            the form id
+         * @param listSlot
+         *            the given slots of the form
+         * @return the slots of the days, in a modifiable list
+         */
+        List<Slot> getDaySlots( int nIdForm, List<Slot> listSlot );
+
+        /**
+         * Build all the slots of a form
+         * 
+         * @param appointmentForm
+         *            the form
+         * @return the slots of the form
+         */
+        List<Slot> getAllSlots( AppointmentFormDTO appointmentForm );
+    }
+
+    /**
+     * Loader of the forms and of the slots from the appointment database
+     */
+    private static final class DatabaseSlotLoader implements ISlotLoader
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<Integer, List<Slot>> getSlotsByForm( List<Integer> listIdSlot )
+        {
+            if ( listIdSlot.size( ) == 1 )
+            {
+                Slot slot = SlotService.findSlotById( listIdSlot.get( 0 ) );
+                return Collections.singletonMap( slot.getIdForm( ), Collections.singletonList( slot ) );
+            }
+            return SlotIndexHome.findByListIdGroupByForm( listIdSlot );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public AppointmentFormDTO getForm( int nIdForm )
+        {
+            return ReferenceDataCache.getAppointmentFormDTO( nIdForm );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Slot> getDaySlots( int nIdForm, List<Slot> listSlot )
+        {
+            return buildDaySlots( nIdForm, listSlot );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Slot> getAllSlots( AppointmentFormDTO appointmentForm )
+        {
+            return AppointmentSlotUtil.getAllSlots( appointmentForm );
+        }
+    }
+
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+/**
+ * An indexing task: a type of task and the id of the resource to index. The tasks of different types on the same resource share the resource type.
+ */
+public final class IndexingTask
+{
+    private final String _strResourceType;
+    private final String _strTaskType;
+    private final int _nIdResource;
+
+    /**
+     * Constructor of a task whose type is the resource type
+     * 
+     * @param strTaskType
+     *            the task type
+     * @param nIdResource
+     *            the resource id
+     */
+    public IndexingTask( String strTaskType, int nIdResource )
+    {
+        this( strTaskType, strTaskType, nIdResource );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param strResourceType
+     *            the resource type
+     * @param strTaskType
+     *            the task type
+     * @param nIdResource
+     *            the resource id
+     */
+    public IndexingTask( String strResourceType, String strTaskType, int nIdResource )
+    {
+        _strResourceType = strResourceType;
+        _strTaskType = strTaskType;
+        _nIdResource = nIdResource;
+    }
+
+    /**
+     * Returns the key of the resource of the task, equal for all the tasks on the same resource
+     * 
+     * @return the key of the resource
+     */
+    public IndexingTask getResourceKey( )
+    {
+        return new IndexingTask( _strResourceType, _nIdResource );
+    }
+
+    /**
+     * Returns the task type
+     * 
+     * @return The task type
+     */
+    public String getTaskType( )
+    {
+        return _strTaskType;
+    }
+
+    /**
+     * Returns the resource id
+     * 
+     * @return The resource id
+     */
+    public int getIdResource( )
+    {
+        return _nIdResource;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object obj )
+    {
+        if ( this == obj )
+        {
+            return true;
+        }
+        if ( !( obj instanceof IndexingTask ) )
+        {
+            return false;
+        }
+        IndexingTask other = (IndexingTask) obj;
+        return _nIdResource == other._nIdResource && _strTaskType.equals( other._strTaskType );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode( )
+    {
+        return 31 * _strTaskType.hashCode( ) + _nIdResource;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString( )
+    {
+        return _strTaskType + "_" + _nIdResource;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+
+import fr.paris.lutece.plugins.elasticdata.business.AbstractDataSource;
+import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+
+/**
+ * Iterator over the batches of a data source, fed by a keyset-paginated cursor of primitive int ids. Each batch is a task building the data objects of a page
+ * of ids, so that it can be run ahead of time by the {@link PrefetchingDataObjectsIterator}
+ */
+public class KeysetBatchIterator implements Iterator<Callable<List<DataObject>>>
+{
+    private final IIdCursor _cursor;
+    private final Function<int [ ], List<DataObject>> _builder;
+    private final int _nPageSize;
+    private int _nLastId;
+    private boolean _bExhausted;
+    private int [ ] _arrayNextPage;
+
+    /**
+     * Page loader of the cursor
+     */
+    @FunctionalInterface
+    public interface IIdCursor
+    {
+        /**
+         * Load the next page of ids
+         * 
+         * @param nIdAfter
+         *            the last id of the previous page, 0 for the first page
+         * @param nLimit
+         *            the maximum number of ids to load
+         * @return the ids greater than nIdAfter, in ascending order
+         */
+        int [ ] next( int nIdAfter, int nLimit );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param cursor
+     *            the page loader of the ids
+     * @param builder
+     *            the builder of the data objects of a page of ids
+     * @param nPageSize
+     *            the number of ids per page, the default batch size if not positive
+     */
+    public KeysetBatchIterator( IIdCursor cursor, Function<int [ ], List<DataObject>> builder, int nPageSize )
+    {
+        _cursor = cursor;
+        _builder = builder;
+        _nPageSize = ( nPageSize > 0 ) ? nPageSize : AbstractDataSource.BATCH_SIZE;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext( )
+    {
+        if ( _arrayNextPage == null && !_bExhausted )
+        {
+            int [ ] arrayId = _cursor.next( _nLastId, _nPageSize );
+            if ( arrayId.length < _nPageSize )
+            {
+                _bExhausted = true;
+            }
+            if ( arrayId.length > 0 )
+            {
+                _nLastId = arrayId [arrayId.length - 1];
+                _arrayNextPage = arrayId;
+            }
+        }
+        return _arrayNextPage != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Callable<List<DataObject>> next( )
+    {
+        if ( !hasNext( ) )
+        {
+            throw new NoSuchElementException( );
+        }
+        int [ ] arrayId = _arrayNextPage;
+        _arrayNextPage = null;
+        return ( ) -> _builder.apply( arrayId );
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable UTF-8 byte buffer holding the NDJSON body of a bulk request. The JSON tokens are written straight into the buffer, with the same escaping as
+ * Jackson, so that a document is encoded without intermediate strings. The buffer keeps its capacity when it is cleared, to be reused by the next request.
+ */
+public class NdjsonWriter
+{
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final byte [ ] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'A', 'B', 'C', 'D', 'E', 'F'
+    };
+    private static final byte [ ] NULL = {
+            'n', 'u', 'l', 'l'
+    };
+    private static final byte [ ] TRUE = {
+            't', 'r', 'u', 'e'
+    };
+    private static final byte [ ] FALSE = {
+            'f', 'a', 'l', 's', 'e'
+    };
+    private static final byte [ ] MIN_LONG = String.valueOf( Long.MIN_VALUE ).getBytes( StandardCharsets.US_ASCII );
+    // escape of the ASCII characters: 0 none, a letter for the short escapes, 'u' for the unicode escape
+    private static final byte [ ] ESCAPES = new byte [ 128];
+
+    static
+    {
+        for ( int i = 0; i < 0x20; i++ )
+        {
+            ESCAPES [i] = 'u';
+        }
+        ESCAPES ['"'] = '"';
+        ESCAPES ['\\'] = '\\';
+        ESCAPES ['\b'] = 'b';
+        ESCAPES ['\t'] = 't';
+        ESCAPES ['\f'] = 'f';
+        ESCAPES ['\n'] = 'n';
+        ESCAPES ['\r'] = 'r';
+    }
+
+    private byte [ ] _buffer;
+    private int _nSize;
+
+    /**
+     * Constructor
+     */
+    public NdjsonWriter( )
+    {
+        _buffer = new byte [ DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Returns the number of bytes written
+     * 
+     * @return the number of bytes written
+     */
+    public int size( )
+    {
+        return _nSize;
+    }
+
+    /**
+     * Empty the buffer, keeping its capacity
+     */
+    public void clear( )
+    {
+        _nSize = 0;
+    }
+
+    /**
+     * Returns a copy of the bytes written from a position
+     * 
+     * @param nFrom
+     *            the position of the first byte
+     * @return the bytes written from the position
+     */
+    public byte [ ] toByteArray( int nFrom )
+    {
+        return Arrays.copyOfRange( _buffer, nFrom, _nSize );
+    }
+
+    /**
+     * Returns the content of the buffer as a string
+     * 
+     * @return the content of the buffer
+     */
+    @Override
+    public String toString( )
+    {
+        return new String( _buffer, 0, _nSize, StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * Write an ASCII character
+     * 
+     * @param c
+     *            the character
+     * @return this writer
+     */
+    public NdjsonWriter writeAscii( char c )
+    {
+        ensureCapacity( 1 );
+        _buffer [_nSize++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Write ASCII characters as they are, for the punctuation and the field names known to need no escape
+     * 
+     * @param strAscii
+     *            the characters
+     * @return this writer
+     */
+    public NdjsonWriter writeAscii( String strAscii )
+    {
+        int nLength = strAscii.length( );
+        ensureCapacity( nLength );
+        for ( int i = 0; i < nLength; i++ )
+        {
+            _buffer [_nSize++] = (byte) strAscii.charAt( i );
+        }
+        return this;
+    }
+
+    /**
+     * Write raw bytes, such as a document already encoded
+     * 
+     * @param bytes
+     *            the bytes
+     * @return this writer
+     */
+    public NdjsonWriter writeRaw( byte [ ] bytes )
+    {
+        ensureCapacity( bytes.length );
+        System.arraycopy( bytes, 0, _buffer, _nSize, bytes.length );
+        _nSize += bytes.length;
+        return this;
+    }
+
+    /**
+     * Write a field name followed by the colon, after a comma unless it is the first field of the object
+     * 
+     * @param strName
+     *            the field name, which needs no escape
+     * @param bFirst
+     *            true for the first field of the object
+     * @return this writer
+     */
+    public NdjsonWriter writeField( String strName, boolean bFirst )
+    {
+        if ( !bFirst )
+        {
+            writeAscii( ',' );
+        }
+        return writeAscii( '"' ).writeAscii( strName ).writeAscii( "\":" );
+    }
+
+    /**
+     * Write a string value, or null
+     * 
+     * @param strValue
+     *            the string
+     * @return this writer
+     */
+    public NdjsonWriter writeString( String strValue )
+    {
+        if ( strValue == null )
+        {
+            return writeRaw( NULL );
+        }
+        int nLength = strValue.length( );
+        // a char needs at most 6 bytes once escaped
+        ensureCapacity( nLength * 6 + 2 );
+        byte [ ] buffer = _buffer;
+        int nPos = _nSize;
+        buffer [nPos++] = '"';
+        for ( int i = 0; i < nLength; i++ )
+        {
+            char c = strValue.charAt( i );
+            if ( c < 0x80 )
+            {
+                byte escape = ESCAPES [c];
+                if ( escape == 0 )
+                {
+                    buffer [nPos++] = (byte) c;
+                }
+                else
+                {
+                    buffer [nPos++] = '\\';
+                    buffer [nPos++] = escape;
+                    if ( escape == 'u' )
+                    {
+                        buffer [nPos++] = '0';
+                        buffer [nPos++] = '0';
+                        buffer [nPos++] = HEX_DIGITS [c >> 4];
+                        buffer [nPos++] = HEX_DIGITS [c & 0xF];
+                    }
+                }
+            }
+            else
+                if ( c < 0x800 )
+                {
+                    buffer [nPos++] = (byte) ( 0xC0 | ( c >> 6 ) );
+                    buffer [nPos++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+                else
+                    if ( Character.isHighSurrogate( c ) && i + 1 < nLength && Character.isLowSurrogate( strValue.charAt( i + 1 ) ) )
+                    {
+                        int nCodePoint = Character.toCodePoint( c, strValue.charAt( ++i ) );
+                        buffer [nPos++] = (byte) ( 0xF0 | ( nCodePoint >> 18 ) );
+                        buffer [nPos++] = (byte) ( 0x80 | ( ( nCodePoint >> 12 ) & 0x3F ) );
+                        buffer [nPos++] = (byte) ( 0x80 | ( ( nCodePoint >> 6 ) & 0x3F ) );
+                        buffer [nPos++] = (byte) ( 0x80 | ( nCodePoint & 0x3F ) );
+                    }
+                    else
+                        if ( Character.isSurrogate( c ) )
+                        {
+                            // an unpaired surrogate cannot be encoded in UTF-8
+                            buffer [nPos++] = '?';
+                        }
+                        else
+                        {
+                            buffer [nPos++] = (byte) ( 0xE0 | ( c >> 12 ) );
+                            buffer [nPos++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+                            buffer [nPos++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                        }
+        }
+        buffer [nPos++] = '"';
+        _nSize = nPos;
+        return this;
+    }
+
+    /**
+     * Write an integer value
+     * 
+     * @param lValue
+     *            the value
+     * @return this writer
+     */
+    public NdjsonWriter writeLong( long lValue )
+    {
+        if ( lValue == Long.MIN_VALUE )
+        {
+            return writeRaw( MIN_LONG );
+        }
+        ensureCapacity( 20 );
+        long lAbs = lValue;
+        if ( lValue < 0 )
+        {
+            _buffer [_nSize++] = '-';
+            lAbs = -lValue;
+        }
+        int nDigits = 1;
+        for ( long lBound = 10; nDigits < 19 && lAbs >= lBound; lBound *= 10 )
+        {
+            nDigits++;
+        }
+        int nPos = _nSize + nDigits;
+        _nSize = nPos;
+        do
+        {
+            _buffer [--nPos] = (byte) ( '0' + lAbs % 10 );
+            lAbs /= 10;
+        }
+        while ( lAbs != 0 );
+        return this;
+    }
+
+    /**
+     * Write a boolean value
+     * 
+     * @param bValue
+     *            the value
+     * @return this writer
+     */
+    public NdjsonWriter writeBoolean( boolean bValue )
+    {
+        return writeRaw( bValue ? TRUE : FALSE );
+    }
+
+    /**
+     * Write the null value
+     * 
+     * @return this writer
+     */
+    public NdjsonWriter writeNull( )
+    {
+        return writeRaw( NULL );
+    }
+
+    /**
+     * Write a non negative number on a fixed number of digits, padded with zeros
+     * 
+     * @param nValue
+     *            the value
+     * @param nDigits
+     *            the number of digits
+     * @return this writer
+     */
+    public NdjsonWriter writePadded( int nValue, int nDigits )
+    {
+        ensureCapacity( nDigits );
+        int nRemaining = nValue;
+        for ( int nPos = _nSize + nDigits - 1; nPos >= _nSize; nPos-- )
+        {
+            _buffer [nPos] = (byte) ( '0' + nRemaining % 10 );
+            nRemaining /= 10;
+        }
+        _nSize += nDigits;
+        return this;
+    }
+
+    /**
+     * Grow the buffer to hold more bytes
+     * 
+     * @param nLength
+     *            the number of bytes to write
+     */
+    private void ensureCapacity( int nLength )
+    {
+        int nRequired = _nSize + nLength;
+        if ( nRequired > _buffer.length )
+        {
+            _buffer = Arrays.copyOf( _buffer, Math.max( nRequired, _buffer.length * 2 ) );
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.plugins.elasticdata.business.DataSource;
+import fr.paris.lutece.plugins.elasticdata.service.DataSourceService;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Parallel reindex of a data source whose documents are loaded by id ranges. The id space is split into ranges claimed one after the other by the workers;
+ * each worker reads its ranges from the database and sends them to Elasticsearch on its own, through the incremental indexing of elasticdata or through a
+ * given writer.
+ * <p>
+ * The ranges in error are retried once the workers are done; the run fails if some of them are still in error after the last attempt.
+ * </p>
+ */
+public class ParallelRangeIndexer
+{
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-reindex-";
+    private static final String METRIC_PREFIX = "reindex.";
+    private static final String METRIC_DOCUMENTS = ".documents";
+    private static final String METRIC_ERRORS = ".errors";
+    private static final String METRIC_RETRIES = ".retries";
+
+    private final DataSource _dataSource;
+    private final IRangeBuilder _builder;
+    private final IRangeWriter _writer;
+    private final int _nIdMin;
+    private final int _nIdMax;
+    private final int _nRangeWidth;
+    private final int _nNbWorkers;
+    private final int _nNbRetries;
+    private final AtomicLong _lNextRangeStart = new AtomicLong( );
+    private final AtomicInteger _nNbIndexed = new AtomicInteger( );
+    private final AtomicInteger _nNbErrors = new AtomicInteger( );
+    private final Queue<int [ ]> _queueFailedRange = new ConcurrentLinkedQueue<>( );
+
+    /**
+     * Builder of the data objects of an id range
+     */
+    @FunctionalInterface
+    public interface IRangeBuilder
+    {
+        /**
+         * Build the data objects of the ids in the range ]nIdAfter, nIdTo]
+         * 
+         * @param nIdAfter
+         *            the lower bound of the range, excluded
+         * @param nIdTo
+         *            the upper bound of the range, included
+         * @return the data objects
+         */
+        List<DataObject> build( int nIdAfter, int nIdTo );
+    }
+
+    /**
+     * Writer of the data objects of an id range
+     */
+    @FunctionalInterface
+    public interface IRangeWriter
+    {
+        /**
+         * Send the data objects of an id range to Elasticsearch
+         * 
+         * @param sbLogs
+         *            the logs of the indexing
+         * @param listDataObject
+         *            the data objects
+         * @throws ElasticClientException
+         *             if the data objects are not all indexed
+         */
+        void write( StringBuilder sbLogs, List<DataObject> listDataObject ) throws ElasticClientException;
+    }
+
+    /**
+     * Constructor of an indexer sending the ranges through the incremental indexing of elasticdata
+     * 
+     * @param dataSource
+     *            the data source to reindex
+     * @param builder
+     *            the builder of the data objects of an id range
+     * @param arrayIdBounds
+     *            the lowest and the highest id
+     * @param nRangeWidth
+     *            the width of the id ranges claimed by the workers
+     * @param nNbWorkers
+     *            the number of workers
+     * @param nNbRetries
+     *            the number of new attempts made on a range in error
+     */
+    public ParallelRangeIndexer( DataSource dataSource, IRangeBuilder builder, int [ ] arrayIdBounds, int nRangeWidth, int nNbWorkers, int nNbRetries )
+    {
+        this( dataSource, builder, ( sbLogs, listDataObject ) -> DataSourceService.processIncrementalIndexing( sbLogs, dataSource, listDataObject ),
+                arrayIdBounds, nRangeWidth, nNbWorkers, nNbRetries );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param dataSource
+     *            the data source to reindex
+     * @param builder
+     *            the builder of the data objects of an id range
+     * @param writer
+     *            the writer of the data objects of an id range
+     * @param arrayIdBounds
+     *            the lowest and the highest id
+     * @param nRangeWidth
+     *            the width of the id ranges claimed by the workers
+     * @param nNbWorkers
+     *            the number of workers
+     * @param nNbRetries
+     *            the number of new attempts made on a range in error
+     */
+    public ParallelRangeIndexer( DataSource dataSource, IRangeBuilder builder, IRangeWriter writer, int [ ] arrayIdBounds, int nRangeWidth, int nNbWorkers,
+            int nNbRetries )
+    {
+        _dataSource = dataSource;
+        _builder = builder;
+        _writer = writer;
+        _nIdMin = arrayIdBounds [0];
+        _nIdMax = arrayIdBounds [1];
+        _nRangeWidth = Math.max( 1, nRangeWidth );
+        _nNbWorkers = Math.max( 1, nNbWorkers );
+        _nNbRetries = Math.max( 0, nNbRetries );
+        _lNextRangeStart.set( _nIdMin - 1L );
+    }
+
+    /**
+     * Run the workers, wait for them and retry the ranges in error
+     * 
+     * @return the number of indexed documents
+     * @throws AppException
+     *             if the run is interrupted or if some ranges are still in error after the last attempt
+     */
+    public int run( )
+    {
+        if ( _nIdMax <= 0 )
+        {
+            return 0;
+        }
+        long lStart = System.currentTimeMillis( );
+        ExecutorService executor = Executors.newFixedThreadPool( _nNbWorkers, new IndexingThreadFactory( THREAD_NAME_PREFIX ) );
+        try
+        {
+            List<Future<?>> listFuture = new ArrayList<>( _nNbWorkers );
+            for ( int i = 0; i < _nNbWorkers; i++ )
+            {
+                listFuture.add( executor.submit( this::work ) );
+            }
+            for ( Future<?> future : listFuture )
+            {
+                future.get( );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            throw new AppException( "Interrupted during the parallel reindex of " + _dataSource.getId( ), e );
+        }
+        catch( Exception e )
+        {
+            throw new AppException( "Error during the parallel reindex of " + _dataSource.getId( ), e );
+        }
+        finally
+        {
+            executor.shutdownNow( );
+        }
+
+        List<int [ ]> listFailedRange = retryFailedRanges( );
+
+        long lDuration = Math.max( 1, System.currentTimeMillis( ) - lStart );
+        AppLogService.info( "Parallel reindex of " + _dataSource.getId( ) + " with " + _nNbWorkers + " workers: " + _nNbIndexed.get( ) + " documents in "
+                + lDuration + " ms (" + ( _nNbIndexed.get( ) * 1000L / lDuration ) + " docs/s), " + _nNbErrors.get( ) + " errors, "
+                + listFailedRange.size( ) + " ranges in error" );
+
+        if ( !listFailedRange.isEmpty( ) )
+        {
+            StringBuilder sbRanges = new StringBuilder( );
+            for ( int [ ] arrayRange : listFailedRange )
+            {
+                sbRanges.append( " ]" ).append( arrayRange [0] ).append( ", " ).append( arrayRange [1] ).append( ']' );
+            }
+            throw new AppException( "Parallel reindex of " + _dataSource.getId( ) + " failed for the ids" + sbRanges );
+        }
+        return _nNbIndexed.get( );
+    }
+
+    /**
+     * Loop of a worker: claim the next id range, build and send its documents, until the whole id space is indexed
+     */
+    private void work( )
+    {
+        long lIdAfter;
+        while ( !Thread.currentThread( ).isInterrupted( ) && ( lIdAfter = _lNextRangeStart.getAndAdd( _nRangeWidth ) ) < _nIdMax )
+        {
+            int nIdAfter = (int) lIdAfter;
+            int nIdTo = (int) Math.min( lIdAfter + _nRangeWidth, _nIdMax );
+            if ( !indexRange( nIdAfter, nIdTo ) )
+            {
+                _queueFailedRange.add( new int [ ] {
+                        nIdAfter, nIdTo
+                } );
+            }
+        }
+    }
+
+    /**
+     * Retry the ranges in error, one after the other
+     * 
+     * @return the ranges still in error after the last attempt
+     */
+    private List<int [ ]> retryFailedRanges( )
+    {
+        List<int [ ]> listFailedRange = new ArrayList<>( _queueFailedRange );
+        for ( int nAttempt = 0; nAttempt < _nNbRetries && !listFailedRange.isEmpty( ) && !Thread.currentThread( ).isInterrupted( ); nAttempt++ )
+        {
+            List<int [ ]> listStillFailed = new ArrayList<>( );
+            for ( int [ ] arrayRange : listFailedRange )
+            {
+                IndexingMetrics.increment( METRIC_PREFIX + _dataSource.getId( ) + METRIC_RETRIES );
+                if ( !indexRange( arrayRange [0], arrayRange [1] ) )
+                {
+                    listStillFailed.add( arrayRange );
+                }
+            }
+            listFailedRange = listStillFailed;
+        }
+        return listFailedRange;
+    }
+
+    /**
+     * Build and send the documents of an id range
+     * 
+     * @param nIdAfter
+     *            the lower bound of the range, excluded
+     * @param nIdTo
+     *            the upper bound of the range, included
+     * @return true if the range is indexed, false if it is in error
+     */
+    private boolean indexRange( int nIdAfter, int nIdTo )
+    {
+        StringBuilder sbLogs = new StringBuilder( );
+        try
+        {
+            List<DataObject> listDataObject = _builder.build( nIdAfter, nIdTo );
+            if ( !listDataObject.isEmpty( ) )
+            {
+                _writer.write( sbLogs, listDataObject );
+                IndexingMetrics.add( METRIC_PREFIX + _dataSource.getId( ) + METRIC_DOCUMENTS, listDataObject.size( ) );
+                _dataSource.getIndexingStatus( ).setCurrentNbIndexedObj( _nNbIndexed.addAndGet( listDataObject.size( ) ) );
+            }
+            return true;
+        }
+        catch( ElasticClientException | RuntimeException e )
+        {
+            _nNbErrors.incrementAndGet( );
+            IndexingMetrics.increment( METRIC_PREFIX + _dataSource.getId( ) + METRIC_ERRORS );
+            AppLogService.error( "Error during the parallel reindex of " + _dataSource.getId( ) + " for the ids ]" + nIdAfter + ", " + nIdTo + "]: " + sbLogs,
+                    e );
+            return false;
+        }
+    }
+}
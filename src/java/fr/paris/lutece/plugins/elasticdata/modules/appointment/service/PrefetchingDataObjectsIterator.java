@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Iterator over the data objects of a data source which builds the next batches on background threads while the current one is consumed (i.e. sent to
+ * Elasticsearch). The batches are built by a pool of threads shared by all the reindexes, so that a reindex abandoned by its consumer leaves no thread
+ * behind: at most its batches built in advance are completed, and the idle threads of the pool stop after a while. Several batches of a reindex are built
+ * concurrently when the pool has several threads. The batches are returned in their original order; the look-ahead bounds the number of batches built in
+ * advance, and so the memory used.
+ */
+public class PrefetchingDataObjectsIterator implements Iterator<DataObject>
+{
+    private static final String PROPERTY_PREFETCH_LOOK_AHEAD = "elasticdata-appointment.reindex.prefetchLookAhead";
+    private static final String PROPERTY_PREFETCH_THREADS = "elasticdata-appointment.reindex.prefetchThreads";
+    private static final int DEFAULT_PREFETCH_LOOK_AHEAD = 2;
+    private static final int DEFAULT_PREFETCH_THREADS = 4;
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-prefetch-";
+
+    private static ExecutorService _executorShared;
+
+    private final Iterator<Callable<List<DataObject>>> _itBatch;
+    private final int _nLookAhead;
+    private final Deque<Future<List<DataObject>>> _window = new ArrayDeque<>( );
+    private ExecutorService _executor;
+    private Iterator<DataObject> _itCurrentBatch = Collections.emptyIterator( );
+
+    /**
+     * Constructor using the look-ahead of the configuration
+     * 
+     * @param itBatch
+     *            the iterator over the tasks building the batches
+     */
+    public PrefetchingDataObjectsIterator( Iterator<Callable<List<DataObject>>> itBatch )
+    {
+        this( itBatch, getLookAhead( ) );
+    }
+
+    /**
+     * Constructor
+     * 
+     * @param itBatch
+     *            the iterator over the tasks building the batches
+     * @param nLookAhead
+     *            the maximum number of batches built in advance, 0 to build them on the calling thread
+     */
+    public PrefetchingDataObjectsIterator( Iterator<Callable<List<DataObject>>> itBatch, int nLookAhead )
+    {
+        _itBatch = itBatch;
+        _nLookAhead = Math.max( 0, nLookAhead );
+        _executor = ( _nLookAhead > 0 ) ? getSharedExecutor( ) : null;
+    }
+
+    /**
+     * Returns the number of batches built in advance set in the configuration
+     * 
+     * @return the look-ahead, 0 to build the batches on the calling thread
+     */
+    public static int getLookAhead( )
+    {
+        return AppPropertiesService.getPropertyInt( PROPERTY_PREFETCH_LOOK_AHEAD, DEFAULT_PREFETCH_LOOK_AHEAD );
+    }
+
+    /**
+     * Returns the pool of threads building the batches, shared by all the reindexes and created on first use. Its threads stop once idle for a minute.
+     * 
+     * @return the pool
+     */
+    private static synchronized ExecutorService getSharedExecutor( )
+    {
+        if ( _executorShared == null )
+        {
+            int nNbThreads = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_PREFETCH_THREADS, DEFAULT_PREFETCH_THREADS ) );
+            ThreadPoolExecutor executor = new ThreadPoolExecutor( nNbThreads, nNbThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>( ),
+                    new IndexingThreadFactory( THREAD_NAME_PREFIX ) );
+            executor.allowCoreThreadTimeOut( true );
+            _executorShared = executor;
+        }
+        return _executorShared;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext( )
+    {
+        // a batch may contain no data object: keep reading until one is found
+        while ( !_itCurrentBatch.hasNext( ) )
+        {
+            List<DataObject> listBatch = nextBatch( );
+            if ( listBatch == null )
+            {
+                return false;
+            }
+            _itCurrentBatch = listBatch.iterator( );
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DataObject next( )
+    {
+        if ( !hasNext( ) )
+        {
+            throw new NoSuchElementException( );
+        }
+        return _itCurrentBatch.next( );
+    }
+
+    /**
+     * Returns the next batch, after having refilled the window of the batches built in advance
+     * 
+     * @return the next batch, null if there are no more batches
+     */
+    private List<DataObject> nextBatch( )
+    {
+        try
+        {
+            if ( _executor == null )
+            {
+                return _itBatch.hasNext( ) ? _itBatch.next( ).call( ) : null;
+            }
+            while ( _window.size( ) <= _nLookAhead && _itBatch.hasNext( ) )
+            {
+                _window.addLast( _executor.submit( _itBatch.next( ) ) );
+            }
+            Future<List<DataObject>> future = _window.pollFirst( );
+            if ( future == null )
+            {
+                close( );
+                return null;
+            }
+            return future.get( );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            close( );
+            throw new AppException( "Interrupted while building the data objects to index", e );
+        }
+        catch( ExecutionException e )
+        {
+            close( );
+            throw new AppException( "Error while building the data objects to index", e.getCause( ) );
+        }
+        catch( RuntimeException e )
+        {
+            close( );
+            throw e;
+        }
+        catch( Exception e )
+        {
+            close( );
+            throw new AppException( "Error while building the data objects to index", e );
+        }
+    }
+
+    /**
+     * Cancel the batches built in advance; the next batches are built on the calling thread, if any
+     */
+    private void close( )
+    {
+        if ( _executor != null )
+        {
+            _window.forEach( future -> future.cancel( true ) );
+            _window.clear( );
+            _executor = null;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import fr.paris.lutece.plugins.appointment.business.category.Category;
+import fr.paris.lutece.plugins.appointment.business.category.CategoryHome;
+import fr.paris.lutece.plugins.appointment.business.display.Display;
+import fr.paris.lutece.plugins.appointment.service.DisplayService;
+import fr.paris.lutece.plugins.appointment.service.FormService;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.workflowcore.business.state.State;
+import fr.paris.lutece.plugins.workflowcore.business.state.StateFilter;
+import fr.paris.lutece.plugins.workflowcore.service.state.IStateService;
+import fr.paris.lutece.plugins.workflowcore.service.state.StateService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+/**
+ * In-memory cache of the reference data shared by the data sources: forms, categories, workflow states and displays. The form entries are invalidated by the
+ * form listener; each invalidation increments the version of the cache. The categories and the states are loaded all at once; they are loaded again when an
+ * unknown id is requested, once per id, so that the ones created since the last load are found. The ids still unknown after a load are kept by the next
+ * loads, so that they do not trigger a load again.
+ */
+public final class ReferenceDataCache
+{
+    private static final String CACHE_FORM_DTO = "formDTO";
+    private static final String CACHE_FORM = "form";
+    private static final String CACHE_DISPLAY = "display";
+    private static final String CACHE_CATEGORY = "category";
+    private static final String CACHE_STATE = "state";
+    private static final String METRIC_PREFIX = "cache.";
+    private static final String METRIC_HIT = ".hit";
+    private static final String METRIC_MISS = ".miss";
+    private static final String METRIC_INTERN_HIT = ".intern.hit";
+    private static final String METRIC_INTERN_MISS = ".intern.miss";
+
+    private static final ConcurrentMap<Integer, AppointmentFormDTO> _mapFormDTO = new ConcurrentHashMap<>( );
+    private static final ConcurrentMap<Integer, AppointmentForm> _mapForm = new ConcurrentHashMap<>( );
+    private static final ConcurrentMap<Integer, Display> _mapDisplay = new ConcurrentHashMap<>( );
+    private static final AtomicLong _lVersion = new AtomicLong( );
+    private static final AtomicReference<LoadedMap<Category>> _refCategory = new AtomicReference<>( );
+    private static final AtomicReference<LoadedMap<State>> _refState = new AtomicReference<>( );
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private ReferenceDataCache( )
+    {
+    }
+
+    /**
+     * Returns the appointment form DTO (without the reservation rules)
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the appointment form DTO
+     */
+    public static AppointmentFormDTO getAppointmentFormDTO( int nIdForm )
+    {
+        return get( CACHE_FORM_DTO, _mapFormDTO, nIdForm, FormService::buildAppointmentFormWithoutReservationRule );
+    }
+
+    /**
+     * Returns the appointment form sub-document
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the appointment form sub-document
+     */
+    public static AppointmentForm getAppointmentForm( int nIdForm )
+    {
+        return get( CACHE_FORM, _mapForm, nIdForm, idForm -> {
+            AppointmentFormDTO formDTO = getAppointmentFormDTO( idForm );
+            return ( formDTO != null ) ? new AppointmentForm( formDTO, getCategory( formDTO.getIdCategory( ) ) ) : null;
+        } );
+    }
+
+    /**
+     * Returns the cached form sub-document if it is equal to the given one, so that the documents built from a form DTO loaded elsewhere share the cached
+     * instance and its JSON encoding. A different form is returned as it is and not cached, its DTO possibly being older than the cache.
+     * 
+     * @param appointmentForm
+     *            the form sub-document
+     * @return the cached form sub-document, or the given one
+     */
+    public static AppointmentForm internAppointmentForm( AppointmentForm appointmentForm )
+    {
+        AppointmentForm cachedForm = _mapForm.get( appointmentForm.getIdForms( ) );
+        if ( appointmentForm.equals( cachedForm ) )
+        {
+            IndexingMetrics.increment( METRIC_PREFIX + CACHE_FORM + METRIC_INTERN_HIT );
+            return cachedForm;
+        }
+        IndexingMetrics.increment( METRIC_PREFIX + CACHE_FORM + METRIC_INTERN_MISS );
+        return appointmentForm;
+    }
+
+    /**
+     * Returns the display of a form
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the display of the form
+     */
+    public static Display getDisplay( int nIdForm )
+    {
+        return get( CACHE_DISPLAY, _mapDisplay, nIdForm, DisplayService::findDisplayWithFormId );
+    }
+
+    /**
+     * Returns a category
+     * 
+     * @param nIdCategory
+     *            the category id
+     * @return the category, null if not found
+     */
+    public static Category getCategory( int nIdCategory )
+    {
+        return getLoaded( CACHE_CATEGORY, _refCategory, nIdCategory, ReferenceDataCache::loadCategories );
+    }
+
+    /**
+     * Returns a workflow state
+     * 
+     * @param nIdState
+     *            the state id
+     * @return the state, null if not found
+     */
+    public static State getState( int nIdState )
+    {
+        return getLoaded( CACHE_STATE, _refState, nIdState, ReferenceDataCache::loadStates );
+    }
+
+    /**
+     * Invalidate the entries of a form: its DTO, its sub-document and its display. A category or a state the form now refers to is loaded on its first
+     * request, being unknown to the cache.
+     * 
+     * @param nIdForm
+     *            the form id
+     */
+    public static void invalidateForm( int nIdForm )
+    {
+        _lVersion.incrementAndGet( );
+        _mapFormDTO.remove( nIdForm );
+        _mapForm.remove( nIdForm );
+        _mapDisplay.remove( nIdForm );
+    }
+
+    /**
+     * Returns the version of the cache, incremented at each invalidation
+     * 
+     * @return the version of the cache
+     */
+    public static long getVersion( )
+    {
+        return _lVersion.get( );
+    }
+
+    /**
+     * Get an entry of a cache, loading it on a miss
+     * 
+     * @param <T>
+     *            the type of the entries
+     * 
+     * @param strCacheName
+     *            the cache name used by the statistics
+     * @param mapCache
+     *            the cache
+     * @param nKey
+     *            the key
+     * @param loader
+     *            the loader of a missing entry
+     * @return the entry, null if the loader does not find it
+     */
+    private static <T> T get( String strCacheName, ConcurrentMap<Integer, T> mapCache, int nKey, Function<Integer, T> loader )
+    {
+        T value = mapCache.get( nKey );
+        if ( value != null )
+        {
+            IndexingMetrics.increment( METRIC_PREFIX + strCacheName + METRIC_HIT );
+            return value;
+        }
+        IndexingMetrics.increment( METRIC_PREFIX + strCacheName + METRIC_MISS );
+        long lVersion = _lVersion.get( );
+        value = loader.apply( nKey );
+        // an entry loaded while an invalidation occurred may be stale: it is returned but not cached
+        if ( value != null && lVersion == _lVersion.get( ) )
+        {
+            mapCache.put( nKey, value );
+        }
+        return value;
+    }
+
+    /**
+     * Get an entry of a cache loaded all at once. The cache is loaded again on the first request of an id it does not hold; the ids not found by the previous
+     * loads are kept unknown.
+     * 
+     * @param <T>
+     *            the type of the entries
+     * 
+     * @param strCacheName
+     *            the cache name used by the statistics
+     * @param refCache
+     *            the reference to the loaded cache
+     * @param nKey
+     *            the key
+     * @param loader
+     *            the loader of all the entries
+     * @return the entry, null if the loader does not find it
+     */
+    private static <T> T getLoaded( String strCacheName, AtomicReference<LoadedMap<T>> refCache, int nKey, Supplier<Map<Integer, T>> loader )
+    {
+        LoadedMap<T> loadedMap = refCache.get( );
+        if ( loadedMap != null )
+        {
+            T value = loadedMap._map.get( nKey );
+            if ( value != null || loadedMap._setUnknownKey.contains( nKey ) )
+            {
+                IndexingMetrics.increment( METRIC_PREFIX + strCacheName + METRIC_HIT );
+                return value;
+            }
+        }
+        IndexingMetrics.increment( METRIC_PREFIX + strCacheName + METRIC_MISS );
+        LoadedMap<T> reloadedMap = new LoadedMap<>( loader.get( ) );
+        if ( loadedMap != null )
+        {
+            for ( Integer nUnknownKey : loadedMap._setUnknownKey )
+            {
+                if ( !reloadedMap._map.containsKey( nUnknownKey ) )
+                {
+                    reloadedMap._setUnknownKey.add( nUnknownKey );
+                }
+            }
+        }
+        T value = reloadedMap._map.get( nKey );
+        if ( value == null )
+        {
+            reloadedMap._setUnknownKey.add( nKey );
+        }
+        refCache.compareAndSet( loadedMap, reloadedMap );
+        return value;
+    }
+
+    /**
+     * Load all the categories
+     * 
+     * @return the categories by id
+     */
+    private static Map<Integer, Category> loadCategories( )
+    {
+        return CategoryHome.findAllCategories( ).stream( ).collect( Collectors.toMap( Category::getIdCategory, Function.identity( ) ) );
+    }
+
+    /**
+     * Load all the workflow states
+     * 
+     * @return the states by id
+     */
+    private static Map<Integer, State> loadStates( )
+    {
+        IStateService stateService = SpringContextService.getBean( StateService.BEAN_SERVICE );
+        return stateService.getListStateByFilter( new StateFilter( ) ).stream( ).collect( Collectors.toMap( State::getId, Function.identity( ) ) );
+    }
+
+    /**
+     * Entries loaded all at once, with the keys requested since the load and not found
+     * 
+     * @param <T>
+     *            the type of the entries
+     */
+    private static final class LoadedMap<T>
+    {
+        private final Map<Integer, T> _map;
+        private final Set<Integer> _setUnknownKey = ConcurrentHashMap.newKeySet( );
+
+        /**
+         * Constructor
+         * 
+         * @param map
+         *            the entries by key
+         */
+        LoadedMap( Map<Integer, T> map )
+        {
+            _map = map;
+        }
+    }
+}
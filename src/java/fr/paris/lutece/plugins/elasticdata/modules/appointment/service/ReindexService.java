@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.concurrent.Callable;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+/**
+ * Runs the full reindexes launched from the back office. A launch runs its reindex once, on a background thread, and a reindex cannot be launched while
+ * another one is running. The outcome of the last reindex is kept to be displayed.
+ */
+public final class ReindexService
+{
+    private static final String THREAD_NAME_PREFIX = "elasticdata-appointment-admin-reindex-";
+    private static final IndexingThreadFactory _threadFactory = new IndexingThreadFactory( THREAD_NAME_PREFIX );
+    private static String _strRunningReindex;
+    private static volatile String _strLastRunLogs;
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private ReindexService( )
+    {
+    }
+
+    /**
+     * Launch a reindex, unless a reindex is running
+     * 
+     * @param strName
+     *            the name of the reindex, such as the id of the reindexed data source
+     * @param reindex
+     *            the reindex, returning the number of indexed documents
+     * @return true if the reindex is launched, false if a reindex is running
+     */
+    public static synchronized boolean start( String strName, Callable<Integer> reindex )
+    {
+        if ( _strRunningReindex != null )
+        {
+            return false;
+        }
+        _strRunningReindex = strName;
+        _threadFactory.newThread( ( ) -> run( strName, reindex ) ).start( );
+        return true;
+    }
+
+    /**
+     * Returns the name of the running reindex
+     * 
+     * @return the name of the running reindex, null if no reindex is running
+     */
+    public static synchronized String getRunningReindex( )
+    {
+        return _strRunningReindex;
+    }
+
+    /**
+     * Returns the outcome of the last reindex
+     * 
+     * @return the outcome of the last reindex, null if no reindex has run since the start
+     */
+    public static String getLastRunLogs( )
+    {
+        return _strLastRunLogs;
+    }
+
+    /**
+     * Run a reindex and record its outcome
+     * 
+     * @param strName
+     *            the name of the reindex
+     * @param reindex
+     *            the reindex
+     */
+    private static void run( String strName, Callable<Integer> reindex )
+    {
+        long lStart = System.currentTimeMillis( );
+        try
+        {
+            int nNbIndexed = reindex.call( );
+            _strLastRunLogs = "Reindex of " + strName + ": " + nNbIndexed + " documents in " + ( System.currentTimeMillis( ) - lStart ) + " ms";
+            AppLogService.info( _strLastRunLogs );
+        }
+        catch( Exception e )
+        {
+            AppLogService.error( "Error during the reindex of " + strName, e );
+            _strLastRunLogs = "Reindex of " + strName + " failed after " + ( System.currentTimeMillis( ) - lStart ) + " ms: " + e.getMessage( );
+        }
+        finally
+        {
+            synchronized( ReindexService.class )
+            {
+                _strRunningReindex = null;
+            }
+        }
+    }
+}
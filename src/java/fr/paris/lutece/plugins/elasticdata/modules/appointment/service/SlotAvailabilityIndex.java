@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+/**
+ * Availability index of the slots of a form: the open slots sorted by starting date, the prefix sums of their capacity and, for each slot, the next slot
+ * with remaining places. The capacity and the first free slot of any date range are then found with two binary searches. The indexes are cached per form
+ * for a limited time; the slot events update the cached index of their form with the current state of their slots, without generating the slots of the
+ * form again. The availability of a category is answered from the indexes of its forms by the {@link CategoryAvailabilityIndex}.
+ */
+public final class SlotAvailabilityIndex
+{
+    private static final String PROPERTY_TTL = "elasticdata-appointment.availability.ttl";
+    private static final int DEFAULT_TTL = 300;
+    private static final String METRIC_BUILD = "availability.index.build";
+    private static final String METRIC_UPDATE = "availability.index.update";
+    private static final int INDEX_BITS = 32;
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+    private static final long MILLIS_PER_MINUTE = 60_000L;
+
+    private static final ConcurrentMap<Integer, SlotAvailabilityIndex> _mapIndex = new ConcurrentHashMap<>( );
+    private static final AtomicLong _lVersion = new AtomicLong( );
+
+    private final long [ ] _arrayStart;
+    private final long [ ] _arrayPrefixCapacity;
+    private final int [ ] _arrayNextFree;
+    private final long _lExpiration;
+
+    /**
+     * Constructor
+     * 
+     * @param arrayStart
+     *            the sorted starting dates of the open slots
+     * @param arrayPrefixCapacity
+     *            the sums of the capacity of the slots before each index
+     * @param arrayNextFree
+     *            the index of the first slot with remaining places from each index
+     * @param lExpiration
+     *            the time after which the index is rebuilt
+     */
+    private SlotAvailabilityIndex( long [ ] arrayStart, long [ ] arrayPrefixCapacity, int [ ] arrayNextFree, long lExpiration )
+    {
+        _arrayStart = arrayStart;
+        _arrayPrefixCapacity = arrayPrefixCapacity;
+        _arrayNextFree = arrayNextFree;
+        _lExpiration = lExpiration;
+    }
+
+    /**
+     * Returns the availability index of a form, built from the displayed slots of the form if it is not cached or expired
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return the availability index
+     */
+    public static SlotAvailabilityIndex getIndex( int nIdForm )
+    {
+        SlotAvailabilityIndex index = _mapIndex.get( nIdForm );
+        long lNow = System.currentTimeMillis( );
+        if ( index != null && index._lExpiration > lNow )
+        {
+            return index;
+        }
+        long lVersion = _lVersion.get( );
+        AppointmentFormDTO appointmentForm = ReferenceDataCache.getAppointmentFormDTO( nIdForm );
+        List<Slot> listSlot = ( appointmentForm != null ) ? AppointmentSlotUtil.getAllSlots( appointmentForm ) : Collections.emptyList( );
+        index = build( listSlot, lNow + getTimeToLive( ) );
+        IndexingMetrics.increment( METRIC_BUILD );
+        // an index built while an invalidation occurred may be stale: it is returned but not cached
+        if ( lVersion == _lVersion.get( ) )
+        {
+            _mapIndex.put( nIdForm, index );
+        }
+        return index;
+    }
+
+    /**
+     * Invalidate the availability index of a form and the indexes of the categories
+     * 
+     * @param nIdForm
+     *            the form id
+     */
+    public static void invalidate( int nIdForm )
+    {
+        _lVersion.incrementAndGet( );
+        _mapIndex.remove( nIdForm );
+        CategoryAvailabilityIndex.invalidate( );
+    }
+
+    /**
+     * Replace the availability index of a form by an index of all its displayed slots, freshly generated, and invalidate the indexes of the categories
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param listSlot
+     *            all the displayed slots of the form
+     */
+    public static void reset( int nIdForm, List<Slot> listSlot )
+    {
+        _lVersion.incrementAndGet( );
+        _mapIndex.put( nIdForm, build( listSlot, System.currentTimeMillis( ) + getTimeToLive( ) ) );
+        IndexingMetrics.increment( METRIC_BUILD );
+        CategoryAvailabilityIndex.invalidate( );
+    }
+
+    /**
+     * Update the cached availability index of a form with the current state of some of its slots, after a booking or a cancellation. Nothing is done if
+     * the index is not cached: it will be built from the current slots on its next use.
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param listSlot
+     *            the changed slots
+     */
+    public static void update( int nIdForm, List<Slot> listSlot )
+    {
+        updateRange( nIdForm, listSlot, Long.MAX_VALUE, Long.MIN_VALUE );
+    }
+
+    /**
+     * Update the cached availability index of a form with all the slots of a date range, after a change of the planning of this range: the slots of the
+     * range missing from the given ones are removed. Nothing is done if the index is not cached.
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param listSlot
+     *            all the slots of the range
+     * @param lRangeFrom
+     *            the start of the range, in milliseconds
+     * @param lRangeTo
+     *            the end of the range, in milliseconds
+     */
+    public static void updateRange( int nIdForm, List<Slot> listSlot, long lRangeFrom, long lRangeTo )
+    {
+        // an index being built from slots generated before this update must not be cached
+        _lVersion.incrementAndGet( );
+        if ( _mapIndex.computeIfPresent( nIdForm, ( nId, index ) -> index.withSlots( listSlot, lRangeFrom, lRangeTo ) ) != null )
+        {
+            IndexingMetrics.increment( METRIC_UPDATE );
+        }
+    }
+
+    /**
+     * Returns a copy of this index with the current state of some slots. The slots already in the index are updated in the copied capacity and free slot
+     * arrays, which are then summed again in one pass; the slots opened since the index was built are inserted by sorting the slots again.
+     * 
+     * @param listSlot
+     *            the slots
+     * @param lRangeFrom
+     *            the start of the range whose slots missing from the given ones are removed, in milliseconds
+     * @param lRangeTo
+     *            the end of this range, in milliseconds; before its start if no slot is to be removed
+     * @return the updated index
+     */
+    private SlotAvailabilityIndex withSlots( List<Slot> listSlot, long lRangeFrom, long lRangeTo )
+    {
+        int nSize = _arrayStart.length;
+        long [ ] arrayCapacity = new long [ nSize + listSlot.size( )];
+        boolean [ ] arrayFree = new boolean [ nSize + listSlot.size( )];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            arrayCapacity [i] = _arrayPrefixCapacity [i + 1] - _arrayPrefixCapacity [i];
+            arrayFree [i] = _arrayNextFree [i] == i;
+        }
+        if ( lRangeFrom <= lRangeTo )
+        {
+            // a removed slot is kept without capacity nor places, which is the same for the queries
+            int nRangeEnd = upperBound( lRangeTo );
+            for ( int i = lowerBound( lRangeFrom ); i < nRangeEnd; i++ )
+            {
+                arrayCapacity [i] = 0;
+                arrayFree [i] = false;
+            }
+        }
+        long [ ] arrayNewStart = null;
+        int nNewSize = nSize;
+        for ( Slot slot : listSlot )
+        {
+            long lStart = Timestamp.valueOf( slot.getStartingDateTime( ) ).getTime( );
+            int nPosition = lowerBound( lStart );
+            if ( nPosition < nSize && _arrayStart [nPosition] == lStart )
+            {
+                arrayCapacity [nPosition] = slot.getIsOpen( ) ? slot.getMaxCapacity( ) : 0;
+                arrayFree [nPosition] = slot.getIsOpen( ) && slot.getNbRemainingPlaces( ) > 0;
+            }
+            else
+                if ( slot.getIsOpen( ) )
+                {
+                    if ( arrayNewStart == null )
+                    {
+                        arrayNewStart = Arrays.copyOf( _arrayStart, nSize + listSlot.size( ) );
+                    }
+                    arrayNewStart [nNewSize] = lStart;
+                    arrayCapacity [nNewSize] = slot.getMaxCapacity( );
+                    arrayFree [nNewSize] = slot.getNbRemainingPlaces( ) > 0;
+                    nNewSize++;
+                }
+        }
+        if ( arrayNewStart != null )
+        {
+            return sort( arrayNewStart, arrayCapacity, arrayFree, nNewSize, _lExpiration );
+        }
+        long [ ] arrayPrefixCapacity = new long [ nSize + 1];
+        int [ ] arrayNextFree = new int [ nSize + 1];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            arrayPrefixCapacity [i + 1] = arrayPrefixCapacity [i] + arrayCapacity [i];
+        }
+        arrayNextFree [nSize] = nSize;
+        for ( int i = nSize - 1; i >= 0; i-- )
+        {
+            arrayNextFree [i] = arrayFree [i] ? i : arrayNextFree [i + 1];
+        }
+        // the starting dates are unchanged and shared with this index
+        return new SlotAvailabilityIndex( _arrayStart, arrayPrefixCapacity, arrayNextFree, _lExpiration );
+    }
+
+    /**
+     * Build an availability index
+     * 
+     * @param listSlot
+     *            the slots, in any order
+     * @param lExpiration
+     *            the time after which the index is rebuilt
+     * @return the availability index
+     */
+    public static SlotAvailabilityIndex build( List<Slot> listSlot, long lExpiration )
+    {
+        long [ ] arrayStart = new long [ listSlot.size( )];
+        long [ ] arrayCapacity = new long [ listSlot.size( )];
+        boolean [ ] arrayFree = new boolean [ listSlot.size( )];
+        int nSize = 0;
+        for ( Slot slot : listSlot )
+        {
+            if ( slot.getIsOpen( ) )
+            {
+                arrayStart [nSize] = Timestamp.valueOf( slot.getStartingDateTime( ) ).getTime( );
+                arrayCapacity [nSize] = slot.getMaxCapacity( );
+                arrayFree [nSize] = slot.getNbRemainingPlaces( ) > 0;
+                nSize++;
+            }
+        }
+        return sort( arrayStart, arrayCapacity, arrayFree, nSize, lExpiration );
+    }
+
+    /**
+     * Returns the sum of the capacity of the open slots starting strictly between two dates
+     * 
+     * @param lAfter
+     *            the lower bound, in milliseconds
+     * @param lBefore
+     *            the upper bound, in milliseconds
+     * @return the sum of the capacity
+     */
+    public long getSumCapacity( long lAfter, long lBefore )
+    {
+        int nFrom = upperBound( lAfter );
+        int nTo = lowerBound( lBefore );
+        return ( nFrom < nTo ) ? _arrayPrefixCapacity [nTo] - _arrayPrefixCapacity [nFrom] : 0;
+    }
+
+    /**
+     * Returns the starting date of the first open slot with remaining places starting strictly between two dates
+     * 
+     * @param lAfter
+     *            the lower bound, in milliseconds
+     * @param lBefore
+     *            the upper bound, in milliseconds
+     * @return the starting date in milliseconds, -1 if there is no such slot
+     */
+    public long getFirstFreeSlot( long lAfter, long lBefore )
+    {
+        int nFirstFree = _arrayNextFree [upperBound( lAfter )];
+        return ( nFirstFree < lowerBound( lBefore ) ) ? _arrayStart [nFirstFree] : -1;
+    }
+
+    /**
+     * Returns the number of slots of the index
+     * 
+     * @return the number of slots
+     */
+    public int size( )
+    {
+        return _arrayStart.length;
+    }
+
+    /**
+     * Build an availability index from unsorted slots
+     * 
+     * @param arrayStart
+     *            the starting dates of the slots, in milliseconds
+     * @param arrayCapacity
+     *            the capacity of the slots
+     * @param arrayFree
+     *            whether the slots have remaining places
+     * @param nSize
+     *            the number of slots
+     * @param lExpiration
+     *            the time after which the index is rebuilt
+     * @return the availability index
+     */
+    private static SlotAvailabilityIndex sort( long [ ] arrayStart, long [ ] arrayCapacity, boolean [ ] arrayFree, int nSize, long lExpiration )
+    {
+        // the starting minute and the position of the slots are packed in a long, so that they are sorted without boxing
+        long [ ] arrayOrder = new long [ nSize];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            arrayOrder [i] = ( ( arrayStart [i] / MILLIS_PER_MINUTE ) << INDEX_BITS ) | i;
+        }
+        Arrays.sort( arrayOrder );
+
+        long [ ] arraySortedStart = new long [ nSize];
+        long [ ] arrayPrefixCapacity = new long [ nSize + 1];
+        int [ ] arrayNextFree = new int [ nSize + 1];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            int nSlot = (int) ( arrayOrder [i] & INDEX_MASK );
+            arraySortedStart [i] = arrayStart [nSlot];
+            arrayPrefixCapacity [i + 1] = arrayPrefixCapacity [i] + arrayCapacity [nSlot];
+        }
+        arrayNextFree [nSize] = nSize;
+        for ( int i = nSize - 1; i >= 0; i-- )
+        {
+            arrayNextFree [i] = arrayFree [(int) ( arrayOrder [i] & INDEX_MASK )] ? i : arrayNextFree [i + 1];
+        }
+        return new SlotAvailabilityIndex( arraySortedStart, arrayPrefixCapacity, arrayNextFree, lExpiration );
+    }
+
+    /**
+     * Returns the time during which an index is reused
+     * 
+     * @return the time to live in milliseconds
+     */
+    private static long getTimeToLive( )
+    {
+        return TimeUnit.SECONDS.toMillis( AppPropertiesService.getPropertyInt( PROPERTY_TTL, DEFAULT_TTL ) );
+    }
+
+    /**
+     * Returns the index of the first slot starting at or after a date
+     * 
+     * @param lDate
+     *            the date in milliseconds
+     * @return the index, the number of slots if there is none
+     */
+    private int lowerBound( long lDate )
+    {
+        int nLow = 0;
+        int nHigh = _arrayStart.length;
+        while ( nLow < nHigh )
+        {
+            int nMiddle = ( nLow + nHigh ) >>> 1;
+            if ( _arrayStart [nMiddle] < lDate )
+            {
+                nLow = nMiddle + 1;
+            }
+            else
+            {
+                nHigh = nMiddle;
+            }
+        }
+        return nLow;
+    }
+
+    /**
+     * Returns the index of the first slot starting after a date
+     * 
+     * @param lDate
+     *            the date in milliseconds
+     * @return the index, the number of slots if there is none
+     */
+    private int upperBound( long lDate )
+    {
+        return ( lDate == Long.MAX_VALUE ) ? _arrayStart.length : lowerBound( lDate + 1 );
+    }
+}
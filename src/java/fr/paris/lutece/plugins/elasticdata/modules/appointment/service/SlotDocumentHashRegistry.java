@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+
+/**
+ * Registry of the content hashes of the slot documents last indexed, per form. The slots of a form are held in sorted arrays (the slot keys, which sort like
+ * the starting dates, the structure hashes and the capacity hashes), so that the slots of a form or of a date range can be compared with the last indexed ones
+ * to send only the changed slots and the deletion of the vanished ones, so that the slots can be deleted by id, and so that a slot whose capacity only changed
+ * can be partially updated.
+ * <p>
+ * A form is tracked once all its slots have been indexed: by the indexing of the form, by the reindex of the slots launched from the admin page, which
+ * registers each form when the bulk request of its slots succeeds, or by its first slot event, which indexes all the slots of an untracked form. The full
+ * indexing of elasticdata, which does not report which slots were indexed, forgets all the forms. The registry is held in memory, so after a restart the
+ * first indexing or the first slot event of a form rewrites all its slots.
+ * </p>
+ */
+public final class SlotDocumentHashRegistry
+{
+    private static final ConcurrentMap<Integer, FormHashes> _mapFormHashes = new ConcurrentHashMap<>( );
+
+    /**
+     * Change of a slot compared with the last indexed one
+     */
+    public enum SlotChange
+    {
+        /** the form is not tracked or the slot is unknown */
+        UNKNOWN,
+        /** the slot did not change */
+        UNCHANGED,
+        /** only the remaining places and the places taken changed */
+        CAPACITY,
+        /** other fields changed */
+        STRUCTURE
+    }
+
+    /**
+     * Private constructor - this class does not need to be instantiated
+     */
+    private SlotDocumentHashRegistry( )
+    {
+    }
+
+    /**
+     * Compare the slots generated for a form, or a date range of a form, with the last indexed ones
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param collSlot
+     *            the slots generated for the whole form or for the range
+     * @param lKeyFrom
+     *            the key of the first slot of the range (included), Long.MIN_VALUE for the whole form
+     * @param lKeyTo
+     *            the key of the last slot of the range (included), Long.MAX_VALUE for the whole form
+     * @return the difference, null if the form is not tracked
+     */
+    public static SlotDiff diff( int nIdForm, Collection<AppointmentSlotDataObject> collSlot, long lKeyFrom, long lKeyTo )
+    {
+        FormHashes formHashes = _mapFormHashes.get( nIdForm );
+        if ( formHashes == null )
+        {
+            return null;
+        }
+
+        List<AppointmentSlotDataObject> listSorted = sort( collSlot );
+        FormHashes generated = FormHashes.of( listSorted );
+        int nSize = generated.size( );
+        int nLow = formHashes.lowerBound( lKeyFrom );
+        int nHigh = formHashes.upperBound( lKeyTo );
+        SlotDiff diff = new SlotDiff( nIdForm, formHashes );
+        int nOld = nLow;
+        int nNew = 0;
+        while ( nOld < nHigh || nNew < nSize )
+        {
+            if ( nNew == nSize || ( nOld < nHigh && formHashes._arrayKey [nOld] < generated._arrayKey [nNew] ) )
+            {
+                diff._listVanishedUid.add( AppointmentSlotUtil.getSlotUid( nIdForm, formHashes._arrayKey [nOld++] ) );
+            }
+            else
+            {
+                if ( nOld == nHigh || formHashes._arrayKey [nOld] > generated._arrayKey [nNew] )
+                {
+                    diff._listChangedSlot.add( listSorted.get( nNew ) );
+                }
+                else
+                {
+                    if ( formHashes.compare( nOld, generated, nNew ) != SlotChange.UNCHANGED )
+                    {
+                        diff._listChangedSlot.add( listSorted.get( nNew ) );
+                    }
+                    nOld++;
+                }
+                nNew++;
+            }
+        }
+
+        // the new state: the slots before the range, the generated slots, the slots after the range
+        int nNewSize = nLow + nSize + formHashes.size( ) - nHigh;
+        FormHashes newHashes = new FormHashes( nNewSize );
+        newHashes.copy( formHashes, 0, 0, nLow );
+        newHashes.copy( generated, 0, nLow, nSize );
+        newHashes.copy( formHashes, nHigh, nLow + nSize, formHashes.size( ) - nHigh );
+        diff._newHashes = newHashes;
+        return diff;
+    }
+
+    /**
+     * Compare a slot with the last indexed one
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param slot
+     *            the slot document
+     * @return the change of the slot
+     */
+    public static SlotChange compare( int nIdForm, AppointmentSlotDataObject slot )
+    {
+        FormHashes formHashes = _mapFormHashes.get( nIdForm );
+        if ( formHashes == null )
+        {
+            return SlotChange.UNKNOWN;
+        }
+        int nIndex = Arrays.binarySearch( formHashes._arrayKey, AppointmentSlotUtil.getSlotKey( slot.getId( ) ) );
+        if ( nIndex < 0 )
+        {
+            return SlotChange.UNKNOWN;
+        }
+        return formHashes.compare( nIndex, FormHashes.of( Arrays.asList( slot ) ), 0 );
+    }
+
+    /**
+     * Returns true if the slots of a form are tracked
+     * 
+     * @param nIdForm
+     *            the form id
+     * @return true if the form is tracked
+     */
+    public static boolean isTracked( int nIdForm )
+    {
+        return _mapFormHashes.containsKey( nIdForm );
+    }
+
+    /**
+     * Returns the uids of the last indexed slots of a form or of a date range of a form
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param lKeyFrom
+     *            the key of the first slot of the range (included), Long.MIN_VALUE for the whole form
+     * @param lKeyTo
+     *            the key of the last slot of the range (included), Long.MAX_VALUE for the whole form
+     * @return the slot uids, null if the form is not tracked
+     */
+    public static List<String> getUids( int nIdForm, long lKeyFrom, long lKeyTo )
+    {
+        FormHashes formHashes = _mapFormHashes.get( nIdForm );
+        if ( formHashes == null )
+        {
+            return null;
+        }
+        int nHigh = formHashes.upperBound( lKeyTo );
+        List<String> listUid = new ArrayList<>( );
+        for ( int i = formHashes.lowerBound( lKeyFrom ); i < nHigh; i++ )
+        {
+            listUid.add( AppointmentSlotUtil.getSlotUid( nIdForm, formHashes._arrayKey [i] ) );
+        }
+        return listUid;
+    }
+
+    /**
+     * Record the slots of a difference as indexed. If the form was indexed again since the difference was computed, the form is no longer tracked.
+     * 
+     * @param diff
+     *            the difference whose documents have been sent
+     */
+    public static void commit( SlotDiff diff )
+    {
+        if ( !_mapFormHashes.replace( diff._nIdForm, diff._oldHashes, diff._newHashes ) )
+        {
+            forget( diff._nIdForm );
+        }
+    }
+
+    /**
+     * Record all the slots of a form as indexed: the form becomes tracked
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param collSlot
+     *            all the slots of the form
+     */
+    public static void register( int nIdForm, Collection<AppointmentSlotDataObject> collSlot )
+    {
+        _mapFormHashes.put( nIdForm, FormHashes.of( sort( collSlot ) ) );
+    }
+
+    /**
+     * Record all the slots of a form indexed after a slot event as indexed, unless the form has been registered since: the form becomes tracked
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param collSlot
+     *            all the slots of the form
+     */
+    public static void registerIfUntracked( int nIdForm, Collection<AppointmentSlotDataObject> collSlot )
+    {
+        _mapFormHashes.putIfAbsent( nIdForm, FormHashes.of( sort( collSlot ) ) );
+    }
+
+    /**
+     * Record slots of a tracked form indexed on their own (i.e. after slot events). The slots are merged into one copy of the snapshot of the form; a slot
+     * unknown to the registry, such as a slot outside of the slots generated for the form, is added.
+     * 
+     * @param nIdForm
+     *            the form id
+     * @param listSlot
+     *            the slot documents sent
+     */
+    public static void update( int nIdForm, List<AppointmentSlotDataObject> listSlot )
+    {
+        FormHashes sent = FormHashes.of( sort( listSlot ) );
+        _mapFormHashes.computeIfPresent( nIdForm, ( idForm, formHashes ) -> formHashes.merge( sent ) );
+    }
+
+    /**
+     * Stop tracking a form: its next indexing rewrites all its slots
+     * 
+     * @param nIdForm
+     *            the form id
+     */
+    public static void forget( int nIdForm )
+    {
+        _mapFormHashes.remove( nIdForm );
+    }
+
+    /**
+     * Stop tracking all the forms, i.e. when the whole index is rebuilt: the next indexing of each form rewrites all its slots
+     */
+    public static void forgetAll( )
+    {
+        _mapFormHashes.clear( );
+    }
+
+    /**
+     * Sort slots by key
+     * 
+     * @param collSlot
+     *            the slots
+     * @return the sorted slots
+     */
+    private static List<AppointmentSlotDataObject> sort( Collection<AppointmentSlotDataObject> collSlot )
+    {
+        List<AppointmentSlotDataObject> listSorted = new ArrayList<>( collSlot );
+        listSorted.sort( Comparator.comparingLong( slot -> AppointmentSlotUtil.getSlotKey( slot.getId( ) ) ) );
+        return listSorted;
+    }
+
+    /**
+     * Snapshot of the slots of a form: sorted keys and their hashes. A snapshot is not modified once registered.
+     */
+    static final class FormHashes
+    {
+        private final long [ ] _arrayKey;
+        private final long [ ] _arrayStructureHash;
+        private final long [ ] _arrayCapacityHash;
+
+        /**
+         * Constructor
+         * 
+         * @param nSize
+         *            the number of slots
+         */
+        FormHashes( int nSize )
+        {
+            _arrayKey = new long [ nSize];
+            _arrayStructureHash = new long [ nSize];
+            _arrayCapacityHash = new long [ nSize];
+        }
+
+        /**
+         * Build the snapshot of sorted slots
+         * 
+         * @param listSorted
+         *            the slots, sorted by key
+         * @return the snapshot
+         */
+        static FormHashes of( List<AppointmentSlotDataObject> listSorted )
+        {
+            FormHashes formHashes = new FormHashes( listSorted.size( ) );
+            for ( int i = 0; i < listSorted.size( ); i++ )
+            {
+                AppointmentSlotDataObject slot = listSorted.get( i );
+                formHashes._arrayKey [i] = AppointmentSlotUtil.getSlotKey( slot.getId( ) );
+                formHashes._arrayStructureHash [i] = slot.computeStructureHash( );
+                formHashes._arrayCapacityHash [i] = slot.computeCapacityHash( );
+            }
+            return formHashes;
+        }
+
+        /**
+         * Copy slots from another snapshot
+         * 
+         * @param source
+         *            the source snapshot
+         * @param nSourceIndex
+         *            the index of the first slot to copy
+         * @param nIndex
+         *            the index of the first copied slot in this snapshot
+         * @param nLength
+         *            the number of slots to copy
+         */
+        void copy( FormHashes source, int nSourceIndex, int nIndex, int nLength )
+        {
+            System.arraycopy( source._arrayKey, nSourceIndex, _arrayKey, nIndex, nLength );
+            System.arraycopy( source._arrayStructureHash, nSourceIndex, _arrayStructureHash, nIndex, nLength );
+            System.arraycopy( source._arrayCapacityHash, nSourceIndex, _arrayCapacityHash, nIndex, nLength );
+        }
+
+        /**
+         * Merge the slots of another snapshot into a copy of this one, the slots of the other snapshot replacing the slots with the same key
+         * 
+         * @param other
+         *            the other snapshot
+         * @return the merged snapshot
+         */
+        FormHashes merge( FormHashes other )
+        {
+            int nSize = size( ) + other.size( );
+            for ( int i = 0, j = 0; i < size( ) && j < other.size( ); )
+            {
+                if ( _arrayKey [i] == other._arrayKey [j] )
+                {
+                    nSize--;
+                    i++;
+                    j++;
+                }
+                else
+                    if ( _arrayKey [i] < other._arrayKey [j] )
+                    {
+                        i++;
+                    }
+                    else
+                    {
+                        j++;
+                    }
+            }
+            FormHashes merged = new FormHashes( nSize );
+            int i = 0;
+            int j = 0;
+            for ( int nIndex = 0; nIndex < nSize; nIndex++ )
+            {
+                if ( j == other.size( ) || ( i < size( ) && _arrayKey [i] < other._arrayKey [j] ) )
+                {
+                    merged.copy( this, i++, nIndex, 1 );
+                }
+                else
+                {
+                    if ( i < size( ) && _arrayKey [i] == other._arrayKey [j] )
+                    {
+                        i++;
+                    }
+                    merged.copy( other, j++, nIndex, 1 );
+                }
+            }
+            return merged;
+        }
+
+        /**
+         * Compare a slot of this snapshot with a slot of another one
+         * 
+         * @param nIndex
+         *            the index of the slot in this snapshot
+         * @param other
+         *            the other snapshot
+         * @param nOtherIndex
+         *            the index of the slot in the other snapshot
+         * @return the change between the two slots
+         */
+        SlotChange compare( int nIndex, FormHashes other, int nOtherIndex )
+        {
+            if ( _arrayStructureHash [nIndex] != other._arrayStructureHash [nOtherIndex] )
+            {
+                return SlotChange.STRUCTURE;
+            }
+            return ( _arrayCapacityHash [nIndex] != other._arrayCapacityHash [nOtherIndex] ) ? SlotChange.CAPACITY : SlotChange.UNCHANGED;
+        }
+
+        /**
+         * Returns the number of slots
+         * 
+         * @return the number of slots
+         */
+        int size( )
+        {
+            return _arrayKey.length;
+        }
+
+        /**
+         * Returns the index of the first key greater than or equal to a key
+         * 
+         * @param lKey
+         *            the key
+         * @return the index
+         */
+        int lowerBound( long lKey )
+        {
+            int nIndex = Arrays.binarySearch( _arrayKey, lKey );
+            return ( nIndex >= 0 ) ? nIndex : -nIndex - 1;
+        }
+
+        /**
+         * Returns the index following the last key lower than or equal to a key
+         * 
+         * @param lKey
+         *            the key
+         * @return the index
+         */
+        int upperBound( long lKey )
+        {
+            int nIndex = Arrays.binarySearch( _arrayKey, lKey );
+            return ( nIndex >= 0 ) ? nIndex + 1 : -nIndex - 1;
+        }
+    }
+
+    /**
+     * Difference between the generated slots of a form and the last indexed ones
+     */
+    public static final class SlotDiff
+    {
+        private final int _nIdForm;
+        private final FormHashes _oldHashes;
+        private final List<AppointmentSlotDataObject> _listChangedSlot = new ArrayList<>( );
+        private final List<String> _listVanishedUid = new ArrayList<>( );
+        private FormHashes _newHashes;
+
+        /**
+         * Constructor
+         * 
+         * @param nIdForm
+         *            the form id
+         * @param oldHashes
+         *            the hashes the difference is computed against
+         */
+        private SlotDiff( int nIdForm, FormHashes oldHashes )
+        {
+            _nIdForm = nIdForm;
+            _oldHashes = oldHashes;
+        }
+
+        /**
+         * Returns the slots which are new or whose content changed
+         * 
+         * @return the slots to upsert
+         */
+        public List<AppointmentSlotDataObject> getChangedSlots( )
+        {
+            return _listChangedSlot;
+        }
+
+        /**
+         * Returns the uids of the slots which disappeared
+         * 
+         * @return the uids of the slots to delete
+         */
+        public List<String> getVanishedUids( )
+        {
+            return _listVanishedUid;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+
+/**
+ * Timeline of the slots of a form: the slots are sorted once by starting date in primitive arrays, then the run of consecutive available slots starting
+ * with each slot is computed in a single reverse pass
+ */
+public final class SlotTimeline
+{
+    private static final int INDEX_BITS = 32;
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+    private static final long SECONDS_PER_MINUTE = 60L;
+
+    /**
+     * Private constructor
+     */
+    private SlotTimeline( )
+    {
+    }
+
+    /**
+     * Computes, for every slot, the number of consecutive slots with potential remaining places starting with it: a slot is followed by the slot starting
+     * at its ending date. A slot without potential remaining places has no consecutive slots.
+     * 
+     * @param listSlot
+     *            the slots of a form, in any order
+     * @return the number of consecutive slots of each slot, in the order of the list
+     */
+    public static int [ ] computeConsecutiveSlots( List<Slot> listSlot )
+    {
+        int nSize = listSlot.size( );
+        // the starting minute and the position in the list are packed in a long, so that the slots are sorted without boxing
+        long [ ] arrayOrder = new long [ nSize];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            arrayOrder [i] = ( toMinutes( listSlot.get( i ).getStartingDateTime( ) ) << INDEX_BITS ) | i;
+        }
+        Arrays.sort( arrayOrder );
+
+        long [ ] arrayStart = new long [ nSize];
+        long [ ] arrayEnd = new long [ nSize];
+        boolean [ ] arrayAvailable = new boolean [ nSize];
+        for ( int i = 0; i < nSize; i++ )
+        {
+            Slot slot = listSlot.get( (int) ( arrayOrder [i] & INDEX_MASK ) );
+            arrayStart [i] = arrayOrder [i] >>> INDEX_BITS;
+            arrayEnd [i] = toMinutes( slot.getEndingDateTime( ) );
+            arrayAvailable [i] = slot.getNbPotentialRemainingPlaces( ) > 0;
+        }
+
+        int [ ] arrayRun = new int [ nSize];
+        int [ ] arrayConsecutiveSlots = new int [ nSize];
+        for ( int i = nSize - 1; i >= 0; i-- )
+        {
+            if ( arrayAvailable [i] )
+            {
+                int nNext = findNext( arrayStart, i + 1, arrayEnd [i] );
+                arrayRun [i] = ( nNext < 0 ) ? 1 : 1 + arrayRun [nNext];
+            }
+            arrayConsecutiveSlots [(int) ( arrayOrder [i] & INDEX_MASK )] = arrayRun [i];
+        }
+        return arrayConsecutiveSlots;
+    }
+
+    /**
+     * Find the slot starting at a given minute. The next slot of the timeline is checked first, as the slots of a day usually follow each other.
+     * 
+     * @param arrayStart
+     *            the sorted starting minutes
+     * @param nFrom
+     *            the first index to search
+     * @param lStart
+     *            the starting minute
+     * @return the index of the slot, or -1 if no slot starts at this minute
+     */
+    private static int findNext( long [ ] arrayStart, int nFrom, long lStart )
+    {
+        if ( nFrom >= arrayStart.length )
+        {
+            return -1;
+        }
+        if ( arrayStart [nFrom] == lStart )
+        {
+            return nFrom;
+        }
+        int nIndex = Arrays.binarySearch( arrayStart, nFrom, arrayStart.length, lStart );
+        return ( nIndex < 0 ) ? -1 : nIndex;
+    }
+
+    /**
+     * Returns the number of minutes since the epoch of a date time, which fits in 31 bits for the slot dates
+     * 
+     * @param dateTime
+     *            the date time
+     * @return the number of minutes
+     */
+    private static long toMinutes( LocalDateTime dateTime )
+    {
+        return dateTime.toEpochSecond( ZoneOffset.UTC ) / SECONDS_PER_MINUTE;
+    }
+}
@@ -42,7 +42,10 @@ import fr.paris.lutece.plugins.appointment.service.listeners.IAppointmentListene
 import fr.paris.lutece.plugins.appointment.service.listeners.IAppointmentWorkflowActionListener;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentDataSource;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentHistoryDataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotDataSource;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingAppointmentService;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingDispatcher;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingSlotService;
 import fr.paris.lutece.portal.business.event.EventRessourceListener;
 import fr.paris.lutece.portal.business.event.ResourceEvent;
 
@@ -53,29 +56,41 @@ public class AppointmentServiceListener implements IAppointmentListener, IAppoin
 {
 
     private static final String NAME = "APPOINTMENT_ELASTIC_DATA_LISTNER";
+    private static final String EVENT_APPOINTMENT_REMOVAL = "appointmentRemoval";
+    private static final String EVENT_APPOINTMENT_DATE_CHANGED = "appointmentDateChanged";
+    private static final String EVENT_APPOINTMENT_CREATED = "appointmentCreated";
+    private static final String EVENT_RESOURCE_UPDATED = "resourceUpdated";
     @Inject
     private AppointmentDataSource _appointmentDataSource;
     @Inject
     private AppointmentHistoryDataSource _appointmentHistoryDataSource;
+    @Inject
+    private AppointmentSlotDataSource _appointmentSlotDataSource;
 
     @Override
     public void notifyAppointmentRemoval( int nIdAppointment )
     {
-        IndexingAppointmentService.getService( ).deleteAppointmentAndHistory( _appointmentDataSource, _appointmentHistoryDataSource, nIdAppointment );
+        IndexingDispatcher.dispatch( EVENT_APPOINTMENT_REMOVAL, ( ) -> IndexingAppointmentService.getService( )
+                .deleteAppointmentAndHistory( _appointmentDataSource, _appointmentHistoryDataSource, nIdAppointment ) );
 
     }
 
     @Override
     public String appointmentDateChanged( int nIdAppointment, List<Integer> listIdSlot, Locale locale )
     {
-        IndexingAppointmentService.getService( ).indexAppointment( _appointmentDataSource, nIdAppointment );
+        IndexingDispatcher.dispatch( EVENT_APPOINTMENT_DATE_CHANGED, ( ) -> {
+            IndexingAppointmentService.getService( ).indexAppointment( _appointmentDataSource, _appointmentHistoryDataSource, nIdAppointment );
+            // the places of the vacated and of the newly taken slots changed too
+            IndexingSlotService.indexAppointmentSlots( nIdAppointment, listIdSlot, _appointmentSlotDataSource );
+        } );
         return null;
     }
 
     @Override
     public void notifyAppointmentCreated( int nIdAppointment )
     {
-        IndexingAppointmentService.getService( ).indexAppointment( _appointmentDataSource, nIdAppointment );
+        IndexingDispatcher.dispatch( EVENT_APPOINTMENT_CREATED,
+                ( ) -> IndexingAppointmentService.getService( ).indexAppointment( _appointmentDataSource, _appointmentHistoryDataSource, nIdAppointment ) );
 
     }
 
@@ -119,8 +134,9 @@ public class AppointmentServiceListener implements IAppointmentListener, IAppoin
         // listener on the actions of the workflow
         if ( event.getTypeResource( ).equals( Appointment.APPOINTMENT_RESOURCE_TYPE ) )
         {
-            IndexingAppointmentService.getService( ).indexAppointmentStateAndHistory( _appointmentDataSource, _appointmentHistoryDataSource,
-                    Integer.parseInt( event.getIdResource( ) ) );
+            int nIdAppointment = Integer.parseInt( event.getIdResource( ) );
+            IndexingDispatcher.dispatch( EVENT_RESOURCE_UPDATED, ( ) -> IndexingAppointmentService.getService( )
+                    .indexAppointmentStateAndHistory( _appointmentDataSource, _appointmentHistoryDataSource, nIdAppointment ) );
         }
 
     }
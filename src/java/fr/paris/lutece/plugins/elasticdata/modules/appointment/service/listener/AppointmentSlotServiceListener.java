@@ -40,12 +40,12 @@ import javax.inject.Inject;
 import fr.paris.lutece.plugins.appointment.business.planning.WeekDefinition;
 import fr.paris.lutece.plugins.appointment.business.rule.ReservationRule;
 import fr.paris.lutece.plugins.appointment.business.slot.Slot;
-import fr.paris.lutece.plugins.appointment.service.FormService;
 import fr.paris.lutece.plugins.appointment.service.ReservationRuleService;
 import fr.paris.lutece.plugins.appointment.service.listeners.IFormListener;
 import fr.paris.lutece.plugins.appointment.service.listeners.ISlotListener;
 import fr.paris.lutece.plugins.appointment.service.listeners.IWeekDefinitionListener;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotDataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingDispatcher;
 import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingSlotService;
 
 /**
@@ -53,28 +53,38 @@ import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingS
  */
 public class AppointmentSlotServiceListener implements IFormListener, ISlotListener, IWeekDefinitionListener
 {
+    private static final String EVENT_LIST_WEEKS_CHANGED = "listWeeksChanged";
+    private static final String EVENT_WEEK_ASSIGNED = "weekAssigned";
+    private static final String EVENT_SLOT_CHANGE = "slotChange";
+    private static final String EVENT_SLOT_REMOVAL = "slotRemoval";
+    private static final String EVENT_SLOT_ENDING_TIME_CHANGED = "slotEndingTimeChanged";
+    private static final String EVENT_FORM_CHANGE = "formChange";
+    private static final String EVENT_FORM_REMOVAL = "formRemoval";
+
     @Inject
     private AppointmentSlotDataSource _appointmentSlotDataSource;
 
     @Override
     public void notifyListWeeksChanged( int nIdForm, List<WeekDefinition> listWeek )
     {
-        WeekDefinition weekWithDateMin = listWeek.stream( ).min( Comparator.comparing( WeekDefinition::getDateOfApply ) ).orElse( null );
-        WeekDefinition weekWithDateMax = listWeek.stream( ).max( Comparator.comparing( WeekDefinition::getEndingDateOfApply ) ).orElse( null );
+        IndexingDispatcher.dispatch( EVENT_LIST_WEEKS_CHANGED, ( ) -> {
+            WeekDefinition weekWithDateMin = listWeek.stream( ).min( Comparator.comparing( WeekDefinition::getDateOfApply ) ).orElse( null );
+            WeekDefinition weekWithDateMax = listWeek.stream( ).max( Comparator.comparing( WeekDefinition::getEndingDateOfApply ) ).orElse( null );
 
-        IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, FormService.buildAppointmentFormWithoutReservationRule( nIdForm ),
-                weekWithDateMin.getDateOfApply( ), weekWithDateMax.getEndingDateOfApply( ) );
+            IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, nIdForm, weekWithDateMin.getDateOfApply( ),
+                    weekWithDateMax.getEndingDateOfApply( ) );
+        } );
 
     }
 
     @Override
     public void notifyWeekAssigned( WeekDefinition weekDefinition )
     {
-
-        ReservationRule reservationRule = ReservationRuleService.findReservationRuleById( weekDefinition.getIdReservationRule( ) );
-        IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource,
-                FormService.buildAppointmentFormWithoutReservationRule( reservationRule.getIdForm( ) ), weekDefinition.getDateOfApply( ),
-                weekDefinition.getEndingDateOfApply( ) );
+        IndexingDispatcher.dispatch( EVENT_WEEK_ASSIGNED, ( ) -> {
+            ReservationRule reservationRule = ReservationRuleService.findReservationRuleById( weekDefinition.getIdReservationRule( ) );
+            IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, reservationRule.getIdForm( ), weekDefinition.getDateOfApply( ),
+                    weekDefinition.getEndingDateOfApply( ) );
+        } );
 
     }
 
@@ -88,7 +98,7 @@ public class AppointmentSlotServiceListener implements IFormListener, ISlotListe
     @Override
     public void notifySlotChange( int nIdSlot )
     {
-        IndexingSlotService.indexSlot( nIdSlot, _appointmentSlotDataSource );
+        IndexingDispatcher.dispatch( EVENT_SLOT_CHANGE, ( ) -> IndexingSlotService.indexSlot( nIdSlot, _appointmentSlotDataSource ) );
     }
 
     @Override
@@ -100,38 +110,39 @@ public class AppointmentSlotServiceListener implements IFormListener, ISlotListe
     @Override
     public void notifySlotRemoval( Slot slot )
     {
-        IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, FormService.buildAppointmentFormWithoutReservationRule( slot.getIdForm( ) ),
-                slot.getEndingDateTime( ).toLocalDate( ), slot.getEndingDateTime( ).toLocalDate( ) );
+        IndexingDispatcher.dispatch( EVENT_SLOT_REMOVAL,
+                ( ) -> IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, slot.getIdForm( ), slot.getEndingDateTime( ).toLocalDate( ),
+                        slot.getEndingDateTime( ).toLocalDate( ) ) );
 
     }
 
     @Override
     public void notifySlotEndingTimeHasChanged( int nIdSlot, int nIdFom, LocalDateTime endingDateTime )
     {
-
-        IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, FormService.buildAppointmentFormWithoutReservationRule( nIdFom ),
-                endingDateTime.toLocalDate( ), endingDateTime.toLocalDate( ) );
+        IndexingDispatcher.dispatch( EVENT_SLOT_ENDING_TIME_CHANGED,
+                ( ) -> IndexingSlotService.indexFormByDateRange( _appointmentSlotDataSource, nIdFom, endingDateTime.toLocalDate( ),
+                        endingDateTime.toLocalDate( ) ) );
 
     }
 
     @Override
     public void notifyFormChange( int nIdForm )
     {
-        IndexingSlotService.indexForm( _appointmentSlotDataSource, FormService.buildAppointmentFormWithoutReservationRule( nIdForm ) );
+        IndexingDispatcher.dispatch( EVENT_FORM_CHANGE, ( ) -> IndexingSlotService.indexForm( _appointmentSlotDataSource, nIdForm ) );
 
     }
 
     @Override
     public void notifyFormCreation( int nIdForm )
     {
-        IndexingSlotService.indexForm( _appointmentSlotDataSource, FormService.buildAppointmentFormWithoutReservationRule( nIdForm ) );
+        notifyFormChange( nIdForm );
 
     }
 
     @Override
     public void notifyFormRemoval( int nIdForm )
     {
-        IndexingSlotService.deleteSlotsForm( _appointmentSlotDataSource, nIdForm );
+        IndexingDispatcher.dispatch( EVENT_FORM_REMOVAL, ( ) -> IndexingSlotService.deleteSlotsForm( _appointmentSlotDataSource, nIdForm ) );
     }
 
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.web;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentDataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.AppointmentSlotDataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingMetrics;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.ReindexService;
+import fr.paris.lutece.portal.service.admin.AccessDeniedException;
+import fr.paris.lutece.portal.service.security.SecurityTokenService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.util.mvc.admin.MVCAdminJspBean;
+import fr.paris.lutece.portal.util.mvc.admin.annotations.Controller;
+import fr.paris.lutece.portal.util.mvc.commons.annotations.Action;
+import fr.paris.lutece.portal.util.mvc.commons.annotations.View;
+
+/**
+ * Back office page of the indexing of the appointments and of the slots: launch of the full reindexes, outcome of the last one and metrics of the indexing
+ * since the start
+ */
+@Controller( controllerJsp = "ManageIndexing.jsp", controllerPath = "jsp/admin/plugins/elasticdata/modules/appointment/",
+        right = ManageIndexingJspBean.RIGHT_MANAGE_INDEXING )
+public class ManageIndexingJspBean extends MVCAdminJspBean
+{
+    public static final String RIGHT_MANAGE_INDEXING = "ELASTICDATA_APPOINTMENT_INDEXING_MANAGEMENT";
+
+    private static final long serialVersionUID = 1L;
+
+    // Templates
+    private static final String TEMPLATE_MANAGE_INDEXING = "/admin/plugins/elasticdata/modules/appointment/manage_indexing.html";
+
+    // Properties
+    private static final String PROPERTY_PAGE_TITLE_MANAGE_INDEXING = "module.elasticdata.appointment.manage_indexing.pageTitle";
+
+    // Markers
+    private static final String MARK_RUNNING_REINDEX = "running_reindex";
+    private static final String MARK_LAST_RUN_LOGS = "last_run_logs";
+    private static final String MARK_METRICS = "metrics";
+
+    // Views
+    private static final String VIEW_MANAGE_INDEXING = "manageIndexing";
+
+    // Actions
+    private static final String ACTION_REINDEX_APPOINTMENTS = "reindexAppointments";
+    private static final String ACTION_REINDEX_SLOTS = "reindexSlots";
+
+    // Security token
+    private static final String TOKEN_MANAGE_INDEXING = "manageIndexing";
+
+    // Infos and errors
+    private static final String INFO_REINDEX_STARTED = "module.elasticdata.appointment.manage_indexing.info.reindexStarted";
+    private static final String ERROR_REINDEX_RUNNING = "module.elasticdata.appointment.manage_indexing.error.reindexRunning";
+
+    // Beans
+    private static final String BEAN_APPOINTMENT_DATA_SOURCE = "elasticdata-appointment.appointmentdataSource";
+    private static final String BEAN_SLOT_DATA_SOURCE = "elasticdata-appointment.appointmentslotdataSource";
+
+    /**
+     * Build the page of the indexing
+     * 
+     * @param request
+     *            the request
+     * @return the page
+     */
+    @View( value = VIEW_MANAGE_INDEXING, defaultView = true )
+    public String getManageIndexing( HttpServletRequest request )
+    {
+        Map<String, Object> model = getModel( );
+        model.put( MARK_RUNNING_REINDEX, ReindexService.getRunningReindex( ) );
+        model.put( MARK_LAST_RUN_LOGS, ReindexService.getLastRunLogs( ) );
+        model.put( MARK_METRICS, IndexingMetrics.getSnapshot( ) );
+        model.put( SecurityTokenService.MARK_TOKEN, SecurityTokenService.getInstance( ).getToken( request, TOKEN_MANAGE_INDEXING ) );
+        return getPage( PROPERTY_PAGE_TITLE_MANAGE_INDEXING, TEMPLATE_MANAGE_INDEXING, model );
+    }
+
+    /**
+     * Launch the reindex of all the appointments, in the existing index, once
+     * 
+     * @param request
+     *            the request
+     * @return the page of the indexing
+     * @throws AccessDeniedException
+     *             if the security token is invalid
+     */
+    @Action( ACTION_REINDEX_APPOINTMENTS )
+    public String doReindexAppointments( HttpServletRequest request ) throws AccessDeniedException
+    {
+        AppointmentDataSource dataSource = SpringContextService.getBean( BEAN_APPOINTMENT_DATA_SOURCE );
+        return startReindex( request, dataSource.getId( ), dataSource::reindexInParallel );
+    }
+
+    /**
+     * Launch the reindex of all the slots, in the existing index, once
+     * 
+     * @param request
+     *            the request
+     * @return the page of the indexing
+     * @throws AccessDeniedException
+     *             if the security token is invalid
+     */
+    @Action( ACTION_REINDEX_SLOTS )
+    public String doReindexSlots( HttpServletRequest request ) throws AccessDeniedException
+    {
+        AppointmentSlotDataSource dataSource = SpringContextService.getBean( BEAN_SLOT_DATA_SOURCE );
+        return startReindex( request, dataSource.getId( ), dataSource::reindexSlots );
+    }
+
+    /**
+     * Start a reindex unless another one is running
+     * 
+     * @param request
+     *            the request
+     * @param strName
+     *            the name of the reindex
+     * @param reindex
+     *            the reindex
+     * @return the page of the indexing
+     * @throws AccessDeniedException
+     *             if the security token is invalid
+     */
+    private String startReindex( HttpServletRequest request, String strName, Callable<Integer> reindex ) throws AccessDeniedException
+    {
+        if ( !SecurityTokenService.getInstance( ).validate( request, TOKEN_MANAGE_INDEXING ) )
+        {
+            throw new AccessDeniedException( "Invalid security token" );
+        }
+        if ( ReindexService.start( strName, reindex ) )
+        {
+            addInfo( INFO_REINDEX_STARTED, getLocale( ) );
+        }
+        else
+        {
+            addError( ERROR_REINDEX_RUNNING, getLocale( ) );
+        }
+        return redirectView( request, VIEW_MANAGE_INDEXING );
+    }
+}
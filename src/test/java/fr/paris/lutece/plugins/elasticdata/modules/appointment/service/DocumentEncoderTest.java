@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotPartialDataObject;
+import fr.paris.lutece.test.LuteceTestCase;
+
+/**
+ * The documents written by the {@link DocumentEncoder} must be the ones written by Jackson with the Java time module, which writes the local times as arrays:
+ * both encodings are parsed and compared as JSON trees, the documents sharing a form being encoded twice so that the cached encoding of the form is also
+ * compared
+ */
+public class DocumentEncoderTest extends LuteceTestCase
+{
+    private static final int ID_FORM = 7;
+    private static final int ID_APPOINTMENT = 1234;
+    private static final int ID_HISTORY = 98765;
+
+    private final ObjectMapper _mapper = new ObjectMapper( ).registerModule( new JavaTimeModule( ) );
+
+    /**
+     * An appointment document, with and without a form
+     * 
+     * @throws IOException
+     *             if a document cannot be written or parsed
+     */
+    public void testAppointment( ) throws IOException
+    {
+        AppointmentForm form = buildForm( );
+        AppointmentDataObject appointment = new AppointmentDataObject( );
+        appointment.setIdAppointment( ID_APPOINTMENT );
+        appointment.setNbPlaces( 2 );
+        appointment.setIsCancelled( true );
+        appointment.setTimeUntilAvailability( 3600000L );
+        appointment.setTimeUntilCategoryAvailability( -1L );
+        appointment.setSumNbPlacesBeforeAppointment( 42L );
+        appointment.setCategorySumNbPlacesBeforeAppointment( 420L );
+        appointment.setState( "Confirmé \"en ligne\"" );
+        appointment.setNameInstance( AppointmentSlotUtil.INSTANCE_NAME );
+        appointment.setAppointmentForm( form );
+        appointment.setCreatedTimestamp( 1700000000123L );
+        appointment.setAdminCreator( true );
+        appointment.setTimestamp( 1700003600000L );
+        assertSameEncoding( appointment );
+        assertSameEncoding( appointment );
+
+        appointment.setAppointmentForm( null );
+        appointment.setState( null );
+        assertSameEncoding( appointment );
+    }
+
+    /**
+     * Slot documents, in the morning and in the afternoon for the time formatted on the half day, and on the last minute of a day in UTC
+     * 
+     * @throws IOException
+     *             if a document cannot be written or parsed
+     */
+    public void testSlot( ) throws IOException
+    {
+        AppointmentForm form = buildForm( );
+        assertSameEncoding( new AppointmentSlotDataObject( buildSlot( LocalDateTime.of( 2024, 2, 29, 9, 5 ) ), AppointmentSlotUtil.INSTANCE_NAME, form ) );
+        AppointmentSlotDataObject slot = new AppointmentSlotDataObject( buildSlot( LocalDateTime.of( 2023, 12, 31, 23, 59 ) ),
+                AppointmentSlotUtil.INSTANCE_NAME, form );
+        slot.setNbConsecutiveSlots( 3 );
+        assertSameEncoding( slot );
+        assertSameEncoding( new AppointmentSlotDataObject( buildSlot( LocalDateTime.of( 1969, 7, 20, 14, 30, 15 ) ), AppointmentSlotUtil.INSTANCE_NAME,
+                form ) );
+    }
+
+    /**
+     * A workflow history document, its creation date having nanoseconds
+     * 
+     * @throws IOException
+     *             if a document cannot be written or parsed
+     */
+    public void testHistory( ) throws IOException
+    {
+        AppointmentHistoryDataObject history = new AppointmentHistoryDataObject( ID_HISTORY, buildForm( ) );
+        history.setAppointmentId( AppointmentSlotUtil.INSTANCE_NAME + "_" + ID_APPOINTMENT );
+        history.setTaskDuration( 60000L );
+        history.setAppointmentDuration( 120000L );
+        history.setAppointmentDateActionDateDuration( -86400000L );
+        history.setUnitName( "Mairie du 4e\tarrondissement" );
+        history.setActionName( "Valider le rendez-vous" );
+        Timestamp creationDate = new Timestamp( 1700000000123L );
+        creationDate.setNanos( 123456789 );
+        history.setCreationDate( creationDate );
+        history.setTimestamp( 1700000000123L );
+        assertSameEncoding( history );
+        assertSameEncoding( history );
+    }
+
+    /**
+     * The partial documents of an appointment, with and without a state, and of a slot
+     * 
+     * @throws IOException
+     *             if a document cannot be written or parsed
+     */
+    public void testPartial( ) throws IOException
+    {
+        AppointmentPartialDataObject appointment = new AppointmentPartialDataObject( ID_APPOINTMENT, null, false );
+        assertSameEncoding( appointment );
+        appointment.setState( "Annulé" );
+        appointment.setIsCancelled( true );
+        assertSameEncoding( appointment );
+
+        AppointmentSlotDataObject slot = new AppointmentSlotDataObject( buildSlot( LocalDateTime.of( 2024, 6, 1, 10, 0 ) ), AppointmentSlotUtil.INSTANCE_NAME,
+                buildForm( ) );
+        slot.setNbConsecutiveSlots( 5 );
+        assertSameEncoding( new AppointmentSlotPartialDataObject( slot ) );
+    }
+
+    /**
+     * Assert that the encoder writes the same JSON document as Jackson
+     * 
+     * @param document
+     *            the document
+     * @throws IOException
+     *             if the document cannot be written or parsed
+     */
+    private void assertSameEncoding( Object document ) throws IOException
+    {
+        NdjsonWriter writer = new NdjsonWriter( );
+        assertTrue( DocumentEncoder.encode( document, writer ) );
+        JsonNode expected = _mapper.readTree( _mapper.writeValueAsBytes( document ) );
+        JsonNode actual = _mapper.readTree( writer.toString( ) );
+        assertEquals( expected, actual );
+    }
+
+    /**
+     * Build the form sub-document
+     * 
+     * @return the form sub-document
+     */
+    private static AppointmentForm buildForm( )
+    {
+        AppointmentFormDTO formDTO = new AppointmentFormDTO( );
+        formDTO.setIdForm( ID_FORM );
+        formDTO.setTitle( "Titres d'identité" );
+        formDTO.setIsActive( true );
+        formDTO.setIdWorkflow( 3 );
+        formDTO.setLatitude( 48.856614 );
+        formDTO.setLongitude( 2.3522219 );
+        formDTO.setAddress( "Place de l'Hôtel de Ville, 75004 Paris" );
+        return new AppointmentForm( formDTO, null );
+    }
+
+    /**
+     * Build a slot of a quarter of an hour
+     * 
+     * @param startingDateTime
+     *            the starting date and time
+     * @return the slot
+     */
+    private static Slot buildSlot( LocalDateTime startingDateTime )
+    {
+        Slot slot = new Slot( );
+        slot.setIdSlot( 1 );
+        slot.setIdForm( ID_FORM );
+        slot.setStartingDateTime( startingDateTime );
+        slot.setEndingDateTime( startingDateTime.plusMinutes( 15 ) );
+        slot.setIsOpen( true );
+        slot.setMaxCapacity( 4 );
+        slot.setNbPlacesTaken( 1 );
+        slot.setNbRemainingPlaces( 3 );
+        return slot;
+    }
+}
@@ -0,0 +1,694 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for an Elasticsearch server, to test and measure the indexing without a cluster. It answers the bulk, partial update, index, delete
+ * by id, delete by query and search endpoints and the index administration requests, keeping only the ids of the documents of each index: the documents are
+ * not searchable, a search returns the ids of all the documents of the index in a single page whatever its query, and a delete by query deletes nothing.
+ * Every request is recorded with its handling time. A latency can be added to each request, and requests or bulk actions can be made to fail at a given
+ * rate.
+ * <p>
+ * The module targets the server through the elasticdata.elastic_server.url property: either the property is set to {@link #getUrl()}, or the server is
+ * started on the port of the configured url with {@link #start(String)}.
+ * </p>
+ */
+public class FakeElasticServer implements AutoCloseable
+{
+    private static final String PATH_BULK = "_bulk";
+    private static final String PATH_DOC = "_doc";
+    private static final String PATH_UPDATE = "_update";
+    private static final String PATH_DELETE_BY_QUERY = "_delete_by_query";
+    private static final String PATH_SEARCH = "_search";
+    private static final String ACTION_INDEX = "index";
+    private static final String ACTION_CREATE = "create";
+    private static final String ACTION_UPDATE = "update";
+    private static final String ACTION_DELETE = "delete";
+    private static final String METHOD_DELETE = "DELETE";
+    private static final String METHOD_HEAD = "HEAD";
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+    private static final int HTTP_STATUS_OK = 200;
+    private static final int HTTP_STATUS_CREATED = 201;
+    private static final int HTTP_STATUS_BAD_REQUEST = 400;
+    private static final int HTTP_STATUS_NOT_FOUND = 404;
+    private static final int HTTP_STATUS_CONFLICT = 409;
+    private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_STATUS_UNAVAILABLE = 503;
+    private static final int NB_THREADS = 8;
+
+    private final ObjectMapper _mapper = new ObjectMapper( );
+    private final Map<String, Set<String>> _mapIndex = new ConcurrentHashMap<>( );
+    private final List<RecordedRequest> _listRequest = Collections.synchronizedList( new ArrayList<>( ) );
+    private volatile long _lLatencyMillis;
+    private volatile double _dRequestFailureRate;
+    private volatile double _dActionFailureRate;
+    private HttpServer _server;
+    private ExecutorService _executor;
+
+    /**
+     * Start the server on a free port of the loopback interface
+     * 
+     * @return the server
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public FakeElasticServer start( ) throws IOException
+    {
+        return start( 0 );
+    }
+
+    /**
+     * Start the server on the loopback interface at the port of an url, such as the url of the Elasticsearch server configured for elasticdata
+     * 
+     * @param strUrl
+     *            the url
+     * @return the server
+     * @throws IOException
+     *             if the url is malformed or if the server cannot be started
+     */
+    public FakeElasticServer start( String strUrl ) throws IOException
+    {
+        URL url = new URL( strUrl );
+        return start( ( url.getPort( ) != -1 ) ? url.getPort( ) : url.getDefaultPort( ) );
+    }
+
+    /**
+     * Start the server on a port of the loopback interface
+     * 
+     * @param nPort
+     *            the port, 0 for a free port
+     * @return the server
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public FakeElasticServer start( int nPort ) throws IOException
+    {
+        _server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress( ), nPort ), 0 );
+        _executor = Executors.newFixedThreadPool( NB_THREADS );
+        _server.setExecutor( _executor );
+        _server.createContext( "/", this::handle );
+        _server.start( );
+        return this;
+    }
+
+    /**
+     * Stop the server
+     */
+    @Override
+    public void close( )
+    {
+        if ( _server != null )
+        {
+            _server.stop( 0 );
+            _executor.shutdownNow( );
+            _server = null;
+        }
+    }
+
+    /**
+     * Returns the url of the server
+     * 
+     * @return the url of the server
+     */
+    public String getUrl( )
+    {
+        return "http://" + _server.getAddress( ).getHostString( ) + ":" + _server.getAddress( ).getPort( );
+    }
+
+    /**
+     * Sets the latency added to each request
+     * 
+     * @param lLatencyMillis
+     *            the latency in milliseconds
+     */
+    public void setLatency( long lLatencyMillis )
+    {
+        _lLatencyMillis = lLatencyMillis;
+    }
+
+    /**
+     * Sets the rate of the requests rejected as a whole with the status 503
+     * 
+     * @param dRequestFailureRate
+     *            the rate, between 0 and 1
+     */
+    public void setRequestFailureRate( double dRequestFailureRate )
+    {
+        _dRequestFailureRate = dRequestFailureRate;
+    }
+
+    /**
+     * Sets the rate of the bulk actions failing with the status 429, the other actions of the request succeeding
+     * 
+     * @param dActionFailureRate
+     *            the rate, between 0 and 1
+     */
+    public void setActionFailureRate( double dActionFailureRate )
+    {
+        _dActionFailureRate = dActionFailureRate;
+    }
+
+    /**
+     * Returns the requests received since the start or the last reset
+     * 
+     * @return the recorded requests, in their order of completion
+     */
+    public List<RecordedRequest> getRequests( )
+    {
+        synchronized( _listRequest )
+        {
+            return new ArrayList<>( _listRequest );
+        }
+    }
+
+    /**
+     * Returns the number of documents of an index
+     * 
+     * @param strIndex
+     *            the index name
+     * @return the number of documents
+     */
+    public int getDocumentCount( String strIndex )
+    {
+        Set<String> setId = _mapIndex.get( strIndex );
+        return ( setId != null ) ? setId.size( ) : 0;
+    }
+
+    /**
+     * Forget the recorded requests and the documents
+     */
+    public void reset( )
+    {
+        _listRequest.clear( );
+        _mapIndex.clear( );
+    }
+
+    /**
+     * Handle a request
+     * 
+     * @param exchange
+     *            the exchange
+     * @throws IOException
+     *             if the request cannot be read or answered
+     */
+    private void handle( HttpExchange exchange ) throws IOException
+    {
+        long lStart = System.nanoTime( );
+        byte [ ] body = readBody( exchange.getRequestBody( ) );
+        String strMethod = exchange.getRequestMethod( );
+        String strPath = exchange.getRequestURI( ).getPath( );
+        Map<String, Integer> mapNbActions = Collections.emptyMap( );
+        int nNbFailedActions = 0;
+        int nStatus;
+        JsonNode response;
+        try
+        {
+            if ( _lLatencyMillis > 0 )
+            {
+                TimeUnit.MILLISECONDS.sleep( _lLatencyMillis );
+            }
+            String [ ] arraySegment = strPath.replaceAll( "^/+|/+$", "" ).split( "/" );
+            String strLast = arraySegment [arraySegment.length - 1];
+            if ( ThreadLocalRandom.current( ).nextDouble( ) < _dRequestFailureRate )
+            {
+                nStatus = HTTP_STATUS_UNAVAILABLE;
+                response = buildError( "unavailable_shards_exception", "injected failure", nStatus );
+            }
+            else
+                if ( PATH_BULK.equals( strLast ) )
+                {
+                    ObjectNode bulkResponse = handleBulk( body, ( arraySegment.length > 1 ) ? arraySegment [0] : null );
+                    nStatus = HTTP_STATUS_OK;
+                    mapNbActions = new HashMap<>( );
+                    for ( JsonNode item : bulkResponse.path( "items" ) )
+                    {
+                        mapNbActions.merge( item.fieldNames( ).next( ), 1, Integer::sum );
+                    }
+                    nNbFailedActions = bulkResponse.path( "failed" ).asInt( );
+                    bulkResponse.remove( "failed" );
+                    response = bulkResponse;
+                }
+                else
+                    if ( PATH_DELETE_BY_QUERY.equals( strLast ) )
+                    {
+                        nStatus = HTTP_STATUS_OK;
+                        response = _mapper.createObjectNode( ).put( "took", 0 ).put( "timed_out", false ).put( "deleted", 0 ).set( "failures",
+                                _mapper.createArrayNode( ) );
+                    }
+                    else
+                        if ( PATH_SEARCH.equals( strLast ) || ( arraySegment.length == 2 && PATH_SEARCH.equals( arraySegment [0] ) ) )
+                        {
+                            // the first page holds all the hits, the scroll requests get an empty page
+                            nStatus = HTTP_STATUS_OK;
+                            response = buildSearchResponse( PATH_SEARCH.equals( strLast ) ? arraySegment [0] : null );
+                        }
+                        else
+                            if ( arraySegment.length == 3 && ( PATH_DOC.equals( arraySegment [1] ) || PATH_UPDATE.equals( arraySegment [1] ) ) )
+                            {
+                                String strAction = PATH_UPDATE.equals( arraySegment [1] ) ? ACTION_UPDATE : ( METHOD_DELETE.equals( strMethod ) ? ACTION_DELETE
+                                        : ACTION_INDEX );
+                                ObjectNode result = applyAction( strAction, arraySegment [0], arraySegment [2] );
+                                nStatus = result.path( "status" ).asInt( );
+                                mapNbActions = Collections.singletonMap( strAction, 1 );
+                                nNbFailedActions = ( nStatus >= HTTP_STATUS_BAD_REQUEST ) ? 1 : 0;
+                                response = result;
+                            }
+                            else
+                            {
+                                // index creation, mapping and existence checks
+                                nStatus = HTTP_STATUS_OK;
+                                response = _mapper.createObjectNode( ).put( "acknowledged", true );
+                            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread( ).interrupt( );
+            nStatus = HTTP_STATUS_UNAVAILABLE;
+            response = buildError( "node_closed_exception", "server stopped", nStatus );
+        }
+        catch( IOException e )
+        {
+            nStatus = HTTP_STATUS_BAD_REQUEST;
+            response = buildError( "parse_exception", e.getMessage( ), nStatus );
+        }
+        sendResponse( exchange, strMethod, nStatus, response );
+        _listRequest.add( new RecordedRequest( strMethod, strPath, body.length, mapNbActions, nNbFailedActions, nStatus, System.nanoTime( ) - lStart ) );
+    }
+
+    /**
+     * Build the response of a search, with the ids of all the documents of an index
+     * 
+     * @param strIndex
+     *            the index, or null for an empty page
+     * @return the search response
+     */
+    private ObjectNode buildSearchResponse( String strIndex )
+    {
+        ArrayNode arrayHit = _mapper.createArrayNode( );
+        if ( strIndex != null )
+        {
+            for ( String strId : _mapIndex.getOrDefault( strIndex, Collections.emptySet( ) ) )
+            {
+                arrayHit.addObject( ).put( "_index", strIndex ).put( "_id", strId );
+            }
+        }
+        ObjectNode response = _mapper.createObjectNode( ).put( "_scroll_id", String.valueOf( strIndex ) ).put( "took", 0 ).put( "timed_out", false );
+        ObjectNode hits = response.putObject( "hits" );
+        hits.putObject( "total" ).put( "value", arrayHit.size( ) ).put( "relation", "eq" );
+        hits.set( "hits", arrayHit );
+        return response;
+    }
+
+    /**
+     * Apply the actions of a bulk request
+     * 
+     * @param body
+     *            the NDJSON body
+     * @param strDefaultIndex
+     *            the index of the request path, or null
+     * @return the bulk response, with the number of failed actions in a "failed" field
+     * @throws IOException
+     *             if a line cannot be parsed
+     */
+    private ObjectNode handleBulk( byte [ ] body, String strDefaultIndex ) throws IOException
+    {
+        long lStart = System.nanoTime( );
+        ArrayNode items = _mapper.createArrayNode( );
+        int nNbFailed = 0;
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new ByteArrayInputStream( body ), StandardCharsets.UTF_8 ) ) )
+        {
+            String strLine;
+            while ( ( strLine = reader.readLine( ) ) != null )
+            {
+                if ( strLine.isEmpty( ) )
+                {
+                    continue;
+                }
+                Map.Entry<String, JsonNode> action = _mapper.readTree( strLine ).fields( ).next( );
+                String strAction = action.getKey( );
+                if ( !ACTION_DELETE.equals( strAction ) )
+                {
+                    // skip the source line
+                    reader.readLine( );
+                }
+                String strIndex = action.getValue( ).path( "_index" ).asText( strDefaultIndex );
+                String strId = action.getValue( ).path( "_id" ).asText( );
+                ObjectNode result;
+                if ( ThreadLocalRandom.current( ).nextDouble( ) < _dActionFailureRate )
+                {
+                    result = _mapper.createObjectNode( ).put( "_index", strIndex ).put( "_id", strId ).put( "status", HTTP_STATUS_TOO_MANY_REQUESTS );
+                    result.set( "error", buildError( "es_rejected_execution_exception", "injected failure", HTTP_STATUS_TOO_MANY_REQUESTS ).get( "error" ) );
+                }
+                else
+                {
+                    result = applyAction( strAction, strIndex, strId );
+                }
+                if ( result.has( "error" ) && !( ACTION_DELETE.equals( strAction ) && result.path( "status" ).asInt( ) == HTTP_STATUS_NOT_FOUND ) )
+                {
+                    nNbFailed++;
+                }
+                items.addObject( ).set( strAction, result );
+            }
+        }
+        ObjectNode response = _mapper.createObjectNode( );
+        response.put( "took", TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - lStart ) );
+        response.put( "errors", nNbFailed > 0 );
+        response.set( "items", items );
+        response.put( "failed", nNbFailed );
+        return response;
+    }
+
+    /**
+     * Apply an action on a document
+     * 
+     * @param strAction
+     *            the action : index, create, update or delete
+     * @param strIndex
+     *            the index name
+     * @param strId
+     *            the document id
+     * @return the result of the action, with its status
+     */
+    private ObjectNode applyAction( String strAction, String strIndex, String strId )
+    {
+        Set<String> setId = _mapIndex.computeIfAbsent( strIndex, k -> ConcurrentHashMap.newKeySet( ) );
+        ObjectNode result = _mapper.createObjectNode( ).put( "_index", strIndex ).put( "_id", strId );
+        switch( strAction )
+        {
+            case ACTION_INDEX:
+            case ACTION_CREATE:
+                boolean bCreated = setId.add( strId );
+                if ( !bCreated && ACTION_CREATE.equals( strAction ) )
+                {
+                    return setError( result, "version_conflict_engine_exception", "document already exists", HTTP_STATUS_CONFLICT );
+                }
+                return result.put( "result", bCreated ? "created" : "updated" ).put( "status", bCreated ? HTTP_STATUS_CREATED : HTTP_STATUS_OK );
+            case ACTION_UPDATE:
+                if ( !setId.contains( strId ) )
+                {
+                    return setError( result, "document_missing_exception", "document missing", HTTP_STATUS_NOT_FOUND );
+                }
+                return result.put( "result", "updated" ).put( "status", HTTP_STATUS_OK );
+            case ACTION_DELETE:
+                if ( !setId.remove( strId ) )
+                {
+                    return result.put( "result", "not_found" ).put( "status", HTTP_STATUS_NOT_FOUND );
+                }
+                return result.put( "result", "deleted" ).put( "status", HTTP_STATUS_OK );
+            default:
+                return setError( result, "illegal_argument_exception", "unknown action " + strAction, HTTP_STATUS_BAD_REQUEST );
+        }
+    }
+
+    /**
+     * Set the error of an action result
+     * 
+     * @param result
+     *            the action result
+     * @param strType
+     *            the error type
+     * @param strReason
+     *            the error reason
+     * @param nStatus
+     *            the status
+     * @return the action result
+     */
+    private static ObjectNode setError( ObjectNode result, String strType, String strReason, int nStatus )
+    {
+        result.putObject( "error" ).put( "type", strType ).put( "reason", strReason );
+        return result.put( "status", nStatus );
+    }
+
+    /**
+     * Build an error response
+     * 
+     * @param strType
+     *            the error type
+     * @param strReason
+     *            the error reason
+     * @param nStatus
+     *            the status
+     * @return the error response
+     */
+    private ObjectNode buildError( String strType, String strReason, int nStatus )
+    {
+        ObjectNode response = _mapper.createObjectNode( );
+        response.putObject( "error" ).put( "type", strType ).put( "reason", strReason );
+        return response.put( "status", nStatus );
+    }
+
+    /**
+     * Send a response
+     * 
+     * @param exchange
+     *            the exchange
+     * @param strMethod
+     *            the request method
+     * @param nStatus
+     *            the status
+     * @param response
+     *            the response body
+     * @throws IOException
+     *             if the response cannot be sent
+     */
+    private void sendResponse( HttpExchange exchange, String strMethod, int nStatus, JsonNode response ) throws IOException
+    {
+        byte [ ] content = _mapper.writeValueAsBytes( response );
+        exchange.getResponseHeaders( ).set( "Content-Type", CONTENT_TYPE_JSON );
+        if ( METHOD_HEAD.equals( strMethod ) )
+        {
+            exchange.sendResponseHeaders( nStatus, -1 );
+            exchange.close( );
+            return;
+        }
+        exchange.sendResponseHeaders( nStatus, content.length );
+        try ( OutputStream out = exchange.getResponseBody( ) )
+        {
+            out.write( content );
+        }
+    }
+
+    /**
+     * Read a request body
+     * 
+     * @param in
+     *            the request body stream
+     * @return the request body
+     * @throws IOException
+     *             if the body cannot be read
+     */
+    private static byte [ ] readBody( InputStream in ) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( );
+        byte [ ] buffer = new byte [ 8192];
+        int nRead;
+        while ( ( nRead = in.read( buffer ) ) != -1 )
+        {
+            out.write( buffer, 0, nRead );
+        }
+        in.close( );
+        return out.toByteArray( );
+    }
+
+    /**
+     * A request received by the server
+     */
+    public static final class RecordedRequest
+    {
+        private final String _strMethod;
+        private final String _strPath;
+        private final int _nBodyLength;
+        private final Map<String, Integer> _mapNbActions;
+        private final int _nNbFailedActions;
+        private final int _nStatus;
+        private final long _lDurationNanos;
+
+        /**
+         * Constructor
+         * 
+         * @param strMethod
+         *            the method
+         * @param strPath
+         *            the path
+         * @param nBodyLength
+         *            the body length in bytes
+         * @param mapNbActions
+         *            the number of actions, bulk or single document, by action
+         * @param nNbFailedActions
+         *            the number of failed actions
+         * @param nStatus
+         *            the response status
+         * @param lDurationNanos
+         *            the handling time, latency included
+         */
+        RecordedRequest( String strMethod, String strPath, int nBodyLength, Map<String, Integer> mapNbActions, int nNbFailedActions, int nStatus,
+                long lDurationNanos )
+        {
+            _strMethod = strMethod;
+            _strPath = strPath;
+            _nBodyLength = nBodyLength;
+            _mapNbActions = mapNbActions;
+            _nNbFailedActions = nNbFailedActions;
+            _nStatus = nStatus;
+            _lDurationNanos = lDurationNanos;
+        }
+
+        /**
+         * Returns the method
+         * 
+         * @return the method
+         */
+        public String getMethod( )
+        {
+            return _strMethod;
+        }
+
+        /**
+         * Returns the path
+         * 
+         * @return the path
+         */
+        public String getPath( )
+        {
+            return _strPath;
+        }
+
+        /**
+         * Returns the body length
+         * 
+         * @return the body length in bytes
+         */
+        public int getBodyLength( )
+        {
+            return _nBodyLength;
+        }
+
+        /**
+         * Returns the number of actions
+         * 
+         * @return the number of actions
+         */
+        public int getNbActions( )
+        {
+            int nNbActions = 0;
+            for ( int nNb : _mapNbActions.values( ) )
+            {
+                nNbActions += nNb;
+            }
+            return nNbActions;
+        }
+
+        /**
+         * Returns the number of actions of a type
+         * 
+         * @param strAction
+         *            the action : index, create, update or delete
+         * @return the number of actions of the type
+         */
+        public int getNbActions( String strAction )
+        {
+            return _mapNbActions.getOrDefault( strAction, 0 );
+        }
+
+        /**
+         * Returns the number of failed actions
+         * 
+         * @return the number of failed actions
+         */
+        public int getNbFailedActions( )
+        {
+            return _nNbFailedActions;
+        }
+
+        /**
+         * Returns the response status
+         * 
+         * @return the response status
+         */
+        public int getStatus( )
+        {
+            return _nStatus;
+        }
+
+        /**
+         * Returns the handling time
+         * 
+         * @return the handling time in nanoseconds, latency included
+         */
+        public long getDurationNanos( )
+        {
+            return _lDurationNanos;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString( )
+        {
+            return _strMethod + " " + _strPath + " " + _nStatus + " (" + getNbActions( ) + " actions, " + _nNbFailedActions + " failed, " + _nBodyLength
+                    + " bytes, " + TimeUnit.NANOSECONDS.toMicros( _lDurationNanos ) + " us)";
+        }
+    }
+}
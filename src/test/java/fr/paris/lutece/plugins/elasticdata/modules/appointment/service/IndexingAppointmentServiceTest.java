@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentForm;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentHistoryDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentIndex;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.FakeElasticServer.RecordedRequest;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.HistoryCursorCache.Cursor;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+/**
+ * Indexing of the appointment documents, of their states and of their workflow history against a {@link FakeElasticServer} started at the url of the
+ * Elasticsearch server configured for elasticdata
+ */
+public class IndexingAppointmentServiceTest extends LuteceTestCase
+{
+    private static final String PROPERTY_SERVER_URL = "elasticdata.elastic_server.url";
+    private static final String BEAN_APPOINTMENT_DATA_SOURCE = "elasticdata-appointment.appointmentdataSource";
+    private static final String BEAN_HISTORY_DATA_SOURCE = "elasticdata-appointment.appointmentHistoryDataSource";
+    private static final int ID_FORM = 1;
+    private static final int NB_APPOINTMENTS = 10;
+    private static final int NB_HISTORY_PER_APPOINTMENT = 2;
+    private static final String ACTION_INDEX = "index";
+    private static final String ACTION_UPDATE = "update";
+    private static final String ACTION_DELETE = "delete";
+    private static final String PATH_DELETE_BY_QUERY = "/_delete_by_query";
+
+    private FakeElasticServer _server;
+    private AppointmentDataSource _appointmentDataSource;
+    private AppointmentHistoryDataSource _historyDataSource;
+    private AppointmentForm _form;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _server = new FakeElasticServer( ).start( AppPropertiesService.getProperty( PROPERTY_SERVER_URL ) );
+        _appointmentDataSource = SpringContextService.getBean( BEAN_APPOINTMENT_DATA_SOURCE );
+        _historyDataSource = SpringContextService.getBean( BEAN_HISTORY_DATA_SOURCE );
+        _form = buildForm( );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        _server.close( );
+        for ( int nIdAppointment = 1; nIdAppointment <= NB_APPOINTMENTS + 1; nIdAppointment++ )
+        {
+            HistoryCursorCache.remove( nIdAppointment );
+        }
+        super.tearDown( );
+    }
+
+    /**
+     * The appointment documents are indexed in one bulk request, an indexed appointment being replaced
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexAppointments( ) throws ElasticClientException
+    {
+        IndexingAppointmentService.getService( ).indexAppointmentDataObjects( _appointmentDataSource, buildAppointments( ) );
+        assertEquals( 1, _server.getRequests( ).size( ) );
+        assertEquals( NB_APPOINTMENTS, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( NB_APPOINTMENTS, _server.getDocumentCount( _appointmentDataSource.getTargetIndexName( ) ) );
+
+        IndexingAppointmentService.getService( ).indexAppointmentDataObjects( _appointmentDataSource, buildAppointments( ) );
+        assertEquals( NB_APPOINTMENTS, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( 0, getLastRequest( ).getNbFailedActions( ) );
+        assertEquals( NB_APPOINTMENTS, _server.getDocumentCount( _appointmentDataSource.getTargetIndexName( ) ) );
+    }
+
+    /**
+     * The appointment documents are indexed with their workflow history documents
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexAppointmentsAndHistory( ) throws ElasticClientException
+    {
+        List<DataObject> listHistory = new ArrayList<>( );
+        for ( int nIdAppointment = 1; nIdAppointment <= NB_APPOINTMENTS; nIdAppointment++ )
+        {
+            listHistory.addAll( buildHistory( nIdAppointment, 0 ) );
+        }
+        IndexingAppointmentService.getService( ).indexAppointmentAndHistoryDataObjects( _appointmentDataSource, _historyDataSource, buildAppointments( ),
+                listHistory );
+        assertEquals( NB_APPOINTMENTS, _server.getDocumentCount( _appointmentDataSource.getTargetIndexName( ) ) );
+        assertEquals( NB_APPOINTMENTS * NB_HISTORY_PER_APPOINTMENT, _server.getDocumentCount( _historyDataSource.getTargetIndexName( ) ) );
+    }
+
+    /**
+     * The states of the appointments and their new history documents are sent in one bulk request, the history cursor of an appointment moving only when all
+     * its new history documents are indexed
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexStateAndHistory( ) throws ElasticClientException
+    {
+        IndexingAppointmentService service = IndexingAppointmentService.getService( );
+        service.indexAppointmentDataObjects( _appointmentDataSource, buildAppointments( ) );
+
+        // the last appointment is not indexed: its partial update fails
+        List<AppointmentIndex> listAppointmentIndex = new ArrayList<>( );
+        for ( int nIdAppointment = 1; nIdAppointment <= NB_APPOINTMENTS + 1; nIdAppointment++ )
+        {
+            listAppointmentIndex.add( buildAppointmentIndex( nIdAppointment ) );
+        }
+        Map<Integer, List<AppointmentHistoryDataObject>> mapNewHistory = new HashMap<>( );
+        Map<Integer, Cursor> mapLastHistory = new HashMap<>( );
+        for ( int nIdAppointment : Arrays.asList( 1, 2 ) )
+        {
+            mapNewHistory.put( nIdAppointment, buildHistory( nIdAppointment, 0 ) );
+            mapLastHistory.put( nIdAppointment, new Cursor( getIdHistory( nIdAppointment, NB_HISTORY_PER_APPOINTMENT - 1 ), 0 ) );
+        }
+        service.indexStateAndHistoryDataObjects( _appointmentDataSource, _historyDataSource, listAppointmentIndex, mapNewHistory, mapLastHistory );
+        assertEquals( NB_APPOINTMENTS + 1, getLastRequest( ).getNbActions( ACTION_UPDATE ) );
+        assertEquals( 2 * NB_HISTORY_PER_APPOINTMENT, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( 1, getLastRequest( ).getNbFailedActions( ) );
+        assertEquals( NB_APPOINTMENTS, _server.getDocumentCount( _appointmentDataSource.getTargetIndexName( ) ) );
+        assertEquals( 2 * NB_HISTORY_PER_APPOINTMENT, _server.getDocumentCount( _historyDataSource.getTargetIndexName( ) ) );
+        assertEquals( mapLastHistory.get( 1 ).getIdHistory( ), HistoryCursorCache.get( 1 ).getIdHistory( ) );
+        assertEquals( mapLastHistory.get( 2 ).getIdHistory( ), HistoryCursorCache.get( 2 ).getIdHistory( ) );
+        assertNull( HistoryCursorCache.get( 3 ) );
+
+        // the cursor stays in place when the new history documents are not indexed
+        _server.setActionFailureRate( 1 );
+        service.indexStateAndHistoryDataObjects( _appointmentDataSource, _historyDataSource, listAppointmentIndex.subList( 0, 1 ),
+                Collections.singletonMap( 1, buildHistory( 1, NB_HISTORY_PER_APPOINTMENT ) ),
+                Collections.singletonMap( 1, new Cursor( getIdHistory( 1, 2 * NB_HISTORY_PER_APPOINTMENT - 1 ), 0 ) ) );
+        assertEquals( 1 + NB_HISTORY_PER_APPOINTMENT, getLastRequest( ).getNbFailedActions( ) );
+        assertEquals( mapLastHistory.get( 1 ).getIdHistory( ), HistoryCursorCache.get( 1 ).getIdHistory( ) );
+    }
+
+    /**
+     * The appointment documents are deleted by id and their history documents by query, their history cursors being forgotten
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testDeleteAppointmentsAndHistory( ) throws ElasticClientException
+    {
+        IndexingAppointmentService service = IndexingAppointmentService.getService( );
+        service.indexAppointmentDataObjects( _appointmentDataSource, buildAppointments( ) );
+        List<Integer> listIdAppointment = new ArrayList<>( );
+        for ( int nIdAppointment = 1; nIdAppointment <= NB_APPOINTMENTS; nIdAppointment++ )
+        {
+            listIdAppointment.add( nIdAppointment );
+            HistoryCursorCache.put( nIdAppointment, new Cursor( getIdHistory( nIdAppointment, 0 ), 0 ) );
+        }
+        int nFirstRequest = _server.getRequests( ).size( );
+        service.deleteListAppointmentAndHistory( _appointmentDataSource, _historyDataSource, listIdAppointment );
+        List<RecordedRequest> listRequest = _server.getRequests( ).subList( nFirstRequest, _server.getRequests( ).size( ) );
+        int nNbDeleted = 0;
+        int nNbDeleteByQuery = 0;
+        for ( RecordedRequest request : listRequest )
+        {
+            nNbDeleted += request.getNbActions( ACTION_DELETE );
+            nNbDeleteByQuery += request.getPath( ).endsWith( PATH_DELETE_BY_QUERY ) ? 1 : 0;
+        }
+        assertEquals( NB_APPOINTMENTS, nNbDeleted );
+        assertEquals( 1, nNbDeleteByQuery );
+        assertEquals( 0, _server.getDocumentCount( _appointmentDataSource.getTargetIndexName( ) ) );
+        assertNull( HistoryCursorCache.get( 1 ) );
+    }
+
+    /**
+     * Returns the last request received by the server
+     * 
+     * @return the last request
+     */
+    private RecordedRequest getLastRequest( )
+    {
+        List<RecordedRequest> listRequest = _server.getRequests( );
+        return listRequest.get( listRequest.size( ) - 1 );
+    }
+
+    /**
+     * Build the appointment documents
+     * 
+     * @return the appointment documents
+     */
+    private List<DataObject> buildAppointments( )
+    {
+        List<DataObject> listAppointment = new ArrayList<>( NB_APPOINTMENTS );
+        for ( int nIdAppointment = 1; nIdAppointment <= NB_APPOINTMENTS; nIdAppointment++ )
+        {
+            AppointmentDataObject appointment = new AppointmentDataObject( );
+            appointment.setId( String.valueOf( nIdAppointment ) );
+            appointment.setIdAppointment( nIdAppointment );
+            appointment.setNbPlaces( 1 );
+            appointment.setNameInstance( AppointmentSlotUtil.INSTANCE_NAME );
+            appointment.setAppointmentForm( _form );
+            appointment.setTimestamp( System.currentTimeMillis( ) );
+            listAppointment.add( appointment );
+        }
+        return listAppointment;
+    }
+
+    /**
+     * Build the row of the appointment index of an appointment without state
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @return the row
+     */
+    private static AppointmentIndex buildAppointmentIndex( int nIdAppointment )
+    {
+        AppointmentIndex appointmentIndex = new AppointmentIndex( );
+        appointmentIndex.setIdAppointment( nIdAppointment );
+        appointmentIndex.setIdForm( ID_FORM );
+        appointmentIndex.setNbPlaces( 1 );
+        appointmentIndex.setIsCancelled( nIdAppointment % 2 == 0 );
+        return appointmentIndex;
+    }
+
+    /**
+     * Build history documents of an appointment
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nFirst
+     *            the position of the first history entry of the appointment
+     * @return the history documents
+     */
+    private List<AppointmentHistoryDataObject> buildHistory( int nIdAppointment, int nFirst )
+    {
+        List<AppointmentHistoryDataObject> listHistory = new ArrayList<>( NB_HISTORY_PER_APPOINTMENT );
+        for ( int i = nFirst; i < nFirst + NB_HISTORY_PER_APPOINTMENT; i++ )
+        {
+            AppointmentHistoryDataObject history = new AppointmentHistoryDataObject( getIdHistory( nIdAppointment, i ), _form );
+            history.setAppointmentId( AppointmentSlotUtil.INSTANCE_NAME + "_" + nIdAppointment );
+            history.setActionName( "Valider le rendez-vous" );
+            history.setTimestamp( System.currentTimeMillis( ) );
+            listHistory.add( history );
+        }
+        return listHistory;
+    }
+
+    /**
+     * Returns the id of a history entry of an appointment
+     * 
+     * @param nIdAppointment
+     *            the appointment id
+     * @param nPosition
+     *            the position of the entry in the history of the appointment
+     * @return the history id
+     */
+    private static int getIdHistory( int nIdAppointment, int nPosition )
+    {
+        return nIdAppointment * 100 + nPosition;
+    }
+
+    /**
+     * Build the form sub-document
+     * 
+     * @return the form sub-document
+     */
+    private static AppointmentForm buildForm( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( ID_FORM );
+        form.setTitle( "Titres d'identité" );
+        form.setIsActive( true );
+        form.setIdWorkflow( 1 );
+        return new AppointmentForm( form, null );
+    }
+}
@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2002-2022, City of Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.elasticdata.modules.appointment.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import fr.paris.lutece.plugins.appointment.business.slot.Slot;
+import fr.paris.lutece.plugins.appointment.web.dto.AppointmentFormDTO;
+import fr.paris.lutece.plugins.elasticdata.business.DataObject;
+import fr.paris.lutece.plugins.elasticdata.business.DataSource;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.business.AppointmentSlotPartialDataObject;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.FakeElasticServer.RecordedRequest;
+import fr.paris.lutece.plugins.elasticdata.modules.appointment.service.IndexingSlotService.ISlotLoader;
+import fr.paris.lutece.plugins.libraryelastic.util.ElasticClientException;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+import fr.paris.lutece.test.LuteceTestCase;
+
+/**
+ * Indexing of the slot documents of a form against a {@link FakeElasticServer} started at the url of the Elasticsearch server configured for elasticdata
+ */
+public class IndexingSlotServiceTest extends LuteceTestCase
+{
+    private static final String PROPERTY_SERVER_URL = "elasticdata.elastic_server.url";
+    private static final String BEAN_SLOT_DATA_SOURCE = "elasticdata-appointment.appointmentslotdataSource";
+    private static final int ID_FORM = 1;
+    private static final int NB_SLOTS = 40;
+    private static final int SLOT_MINUTES = 15;
+    private static final int MAX_CAPACITY = 2;
+    private static final String ACTION_INDEX = "index";
+    private static final String ACTION_UPDATE = "update";
+    private static final String ACTION_DELETE = "delete";
+    private static final String PATH_SEARCH = "/_search";
+
+    private FakeElasticServer _server;
+    private DataSource _dataSource;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void setUp( ) throws Exception
+    {
+        super.setUp( );
+        _server = new FakeElasticServer( ).start( AppPropertiesService.getProperty( PROPERTY_SERVER_URL ) );
+        _dataSource = SpringContextService.getBean( BEAN_SLOT_DATA_SOURCE );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void tearDown( ) throws Exception
+    {
+        _server.close( );
+        SlotDocumentHashRegistry.forgetAll( );
+        super.tearDown( );
+    }
+
+    /**
+     * Index all the slots of an untracked form on a slot event, send the booking of a slot as a partial update and delete all the slots
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexUpdateAndDeleteSlots( ) throws ElasticClientException
+    {
+        AppointmentFormDTO form = buildForm( );
+        List<Slot> listSlot = buildSlots( );
+        indexSlotEvent( form, listSlot, true );
+        assertEquals( NB_SLOTS, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( NB_SLOTS, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertTrue( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+
+        // a booking on the first slot only changes its capacity
+        book( listSlot.get( 0 ) );
+        indexSlotEvent( form, listSlot, false );
+        assertEquals( 1, getLastRequest( ).getNbActions( ) );
+        assertEquals( 1, getLastRequest( ).getNbActions( ACTION_UPDATE ) );
+
+        // the unchanged slots are not sent
+        int nNbRequests = _server.getRequests( ).size( );
+        indexSlotEvent( form, listSlot, false );
+        assertEquals( nNbRequests, _server.getRequests( ).size( ) );
+
+        List<String> listUid = SlotDocumentHashRegistry.getUids( ID_FORM, Long.MIN_VALUE, Long.MAX_VALUE );
+        assertEquals( NB_SLOTS, listUid.size( ) );
+        assertEquals( 0, ElasticBulkClient.deleteById( _dataSource.getTargetIndexName( ), listUid ) );
+        assertEquals( 0, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+    }
+
+    /**
+     * The first slot event of an untracked form indexes all the slots of the form, its next slot events sending only the changed slots of their days
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexListSlot( ) throws ElasticClientException
+    {
+        List<Slot> listSlot = buildSlots( );
+        ISlotLoader slotLoader = new MemorySlotLoader( buildForm( ), listSlot );
+        IndexingSlotService.indexListSlot( Collections.singletonList( 1 ), _dataSource, slotLoader );
+        assertEquals( NB_SLOTS, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( NB_SLOTS, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertTrue( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+
+        // the bookings of two slots of the day are sent together as partial updates
+        book( listSlot.get( 0 ) );
+        book( listSlot.get( 1 ) );
+        IndexingSlotService.indexListSlot( Arrays.asList( 1, 2 ), _dataSource, slotLoader );
+        assertEquals( 2, getLastRequest( ).getNbActions( ) );
+        assertEquals( 2, getLastRequest( ).getNbActions( ACTION_UPDATE ) );
+        assertEquals( NB_SLOTS, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+
+        int nNbRequests = _server.getRequests( ).size( );
+        IndexingSlotService.indexListSlot( Arrays.asList( 1, 2 ), _dataSource, slotLoader );
+        assertEquals( nNbRequests, _server.getRequests( ).size( ) );
+    }
+
+    /**
+     * The slots of an untracked form replace the indexed slots of the form, the slots which were not generated again being deleted by id, while the slots of
+     * a tracked form are replaced in place
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testIndexSlots( ) throws ElasticClientException
+    {
+        List<AppointmentSlotDataObject> listSlotDataObject = IndexingSlotService.buildSlotDataObjects( buildForm( ), buildSlots( ) );
+        int nFirstRequest = _server.getRequests( ).size( );
+        indexSlots( listSlotDataObject );
+        assertEquals( 1, countRequests( nFirstRequest, PATH_SEARCH ) );
+        assertEquals( NB_SLOTS, countActions( nFirstRequest, ACTION_INDEX ) );
+        assertEquals( NB_SLOTS, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertTrue( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+
+        // the slots of the untracked form are searched in the index
+        SlotDocumentHashRegistry.forgetAll( );
+        int nNbRemaining = NB_SLOTS * 3 / 4;
+        nFirstRequest = _server.getRequests( ).size( );
+        indexSlots( listSlotDataObject.subList( 0, nNbRemaining ) );
+        assertEquals( 1, countRequests( nFirstRequest, PATH_SEARCH ) );
+        assertEquals( nNbRemaining, countActions( nFirstRequest, ACTION_INDEX ) );
+        assertEquals( NB_SLOTS - nNbRemaining, countActions( nFirstRequest, ACTION_DELETE ) );
+        assertEquals( nNbRemaining, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+
+        // the vanished slots of the tracked form are known by the registry
+        int nNbTracked = NB_SLOTS / 2;
+        nFirstRequest = _server.getRequests( ).size( );
+        indexSlots( listSlotDataObject.subList( 0, nNbTracked ) );
+        assertEquals( 0, countRequests( nFirstRequest, PATH_SEARCH ) );
+        assertEquals( nNbTracked, countActions( nFirstRequest, ACTION_INDEX ) );
+        assertEquals( nNbRemaining - nNbTracked, countActions( nFirstRequest, ACTION_DELETE ) );
+        assertEquals( nNbTracked, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertEquals( nNbTracked, SlotDocumentHashRegistry.getUids( ID_FORM, Long.MIN_VALUE, Long.MAX_VALUE ).size( ) );
+    }
+
+    /**
+     * The slots of a form are all deleted by id, their ids being searched in the index, even when the form is not tracked
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testDeleteUntrackedForm( ) throws ElasticClientException
+    {
+        indexSlotEvent( buildForm( ), buildSlots( ), true );
+        SlotDocumentHashRegistry.forgetAll( );
+        IndexingSlotService.deleteIndexedSlotsForm( _dataSource, ID_FORM );
+        assertEquals( NB_SLOTS, getLastRequest( ).getNbActions( ACTION_DELETE ) );
+        assertEquals( 0, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertFalse( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+    }
+
+    /**
+     * A form with a slot in error is no longer tracked, so that its next slot event indexes all its slots again
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testFailedSlotForgetsForm( ) throws ElasticClientException
+    {
+        AppointmentFormDTO form = buildForm( );
+        List<Slot> listSlot = buildSlots( );
+        _server.setActionFailureRate( 1 );
+        indexSlotEvent( form, listSlot, true );
+        assertFalse( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+
+        _server.setActionFailureRate( 0 );
+        indexSlotEvent( form, listSlot, true );
+        assertTrue( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+
+        book( listSlot.get( 1 ) );
+        _server.setActionFailureRate( 1 );
+        indexSlotEvent( form, listSlot, false );
+        assertEquals( 1, getLastRequest( ).getNbFailedActions( ) );
+        assertFalse( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+    }
+
+    /**
+     * The reindex of the slots tracks a form once all its slots are indexed, and reports a form with a slot in error so that it is retried
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    public void testReindexTracksForm( ) throws ElasticClientException
+    {
+        List<DataObject> listDataObject = new ArrayList<>( IndexingSlotService.buildSlotDataObjects( buildForm( ), buildSlots( ) ) );
+        _server.setActionFailureRate( 1 );
+        try
+        {
+            IndexingSlotService.reindexSlotDataObjects( _dataSource, listDataObject );
+            fail( "A form with slots in error should raise an exception" );
+        }
+        catch( ElasticClientException e )
+        {
+            assertFalse( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+        }
+
+        _server.setActionFailureRate( 0 );
+        IndexingSlotService.reindexSlotDataObjects( _dataSource, listDataObject );
+        assertEquals( NB_SLOTS, getLastRequest( ).getNbActions( ACTION_INDEX ) );
+        assertEquals( NB_SLOTS, _server.getDocumentCount( _dataSource.getTargetIndexName( ) ) );
+        assertTrue( SlotDocumentHashRegistry.isTracked( ID_FORM ) );
+        assertEquals( NB_SLOTS, SlotDocumentHashRegistry.getUids( ID_FORM, Long.MIN_VALUE, Long.MAX_VALUE ).size( ) );
+    }
+
+    /**
+     * The failed actions of a bulk request are reported by their position
+     * 
+     * @throws ElasticClientException
+     *             if a request fails
+     * @throws JsonProcessingException
+     *             if a document cannot be encoded
+     */
+    public void testFailedActions( ) throws ElasticClientException, JsonProcessingException
+    {
+        _server.setActionFailureRate( 1 );
+        ElasticBulkRequest request = new ElasticBulkRequest( );
+        for ( AppointmentSlotDataObject slot : IndexingSlotService.buildSlotDataObjects( buildForm( ), buildSlots( ) ) )
+        {
+            request.update( _dataSource.getTargetIndexName( ), slot.getId( ), new AppointmentSlotPartialDataObject( slot ) );
+        }
+        BitSet failures = ElasticBulkClient.executeForFailures( request );
+        assertEquals( NB_SLOTS, failures.cardinality( ) );
+        assertEquals( NB_SLOTS, failures.length( ) );
+    }
+
+    /**
+     * A bulk request rejected as a whole raises an exception
+     */
+    public void testRejectedRequest( )
+    {
+        _server.setRequestFailureRate( 1 );
+        ElasticBulkRequest request = new ElasticBulkRequest( ).delete( _dataSource.getTargetIndexName( ), "1" );
+        try
+        {
+            ElasticBulkClient.execute( request );
+            fail( "The rejected bulk request should raise an exception" );
+        }
+        catch( ElasticClientException e )
+        {
+            assertEquals( 1, _server.getRequests( ).size( ) );
+        }
+    }
+
+    /**
+     * Index the slots of the form as the indexing of a slot event does
+     * 
+     * @param form
+     *            the form
+     * @param listSlot
+     *            the slots of the form
+     * @param bUntracked
+     *            true if the form is not tracked, the slots being all the slots of the form
+     * @throws ElasticClientException
+     *             if the request fails
+     */
+    private void indexSlotEvent( AppointmentFormDTO form, List<Slot> listSlot, boolean bUntracked ) throws ElasticClientException
+    {
+        IndexingSlotService.indexSlotDataObjects( _dataSource, Collections.singletonMap( ID_FORM, IndexingSlotService.buildSlotDataObjects( form, listSlot ) ),
+                bUntracked ? Collections.singleton( ID_FORM ) : Collections.emptySet( ) );
+    }
+
+    /**
+     * Index all the slots of the form as the indexing of the form does
+     * 
+     * @param listSlotDataObject
+     *            the slots of the form
+     * @throws ElasticClientException
+     *             if a request fails
+     */
+    private void indexSlots( List<AppointmentSlotDataObject> listSlotDataObject ) throws ElasticClientException
+    {
+        IndexingSlotService.indexSlots( _dataSource, ID_FORM, listSlotDataObject, Long.MIN_VALUE, Long.MAX_VALUE, AppointmentSlotUtil.buildFilter( ID_FORM ),
+                new StringBuilder( ) );
+    }
+
+    /**
+     * Count the actions of a type of the requests received by the server since a request
+     * 
+     * @param nFirstRequest
+     *            the position of the first request
+     * @param strAction
+     *            the action type
+     * @return the number of actions
+     */
+    private int countActions( int nFirstRequest, String strAction )
+    {
+        List<RecordedRequest> listRequest = _server.getRequests( );
+        int nNbActions = 0;
+        for ( RecordedRequest request : listRequest.subList( nFirstRequest, listRequest.size( ) ) )
+        {
+            nNbActions += request.getNbActions( strAction );
+        }
+        return nNbActions;
+    }
+
+    /**
+     * Count the requests received by the server on an endpoint since a request
+     * 
+     * @param nFirstRequest
+     *            the position of the first request
+     * @param strPath
+     *            the end of the path of the endpoint
+     * @return the number of requests
+     */
+    private int countRequests( int nFirstRequest, String strPath )
+    {
+        List<RecordedRequest> listRequest = _server.getRequests( );
+        int nNbRequests = 0;
+        for ( RecordedRequest request : listRequest.subList( nFirstRequest, listRequest.size( ) ) )
+        {
+            if ( request.getPath( ).endsWith( strPath ) )
+            {
+                nNbRequests++;
+            }
+        }
+        return nNbRequests;
+    }
+
+    /**
+     * Returns the last request received by the server
+     * 
+     * @return the last request
+     */
+    private RecordedRequest getLastRequest( )
+    {
+        List<RecordedRequest> listRequest = _server.getRequests( );
+        return listRequest.get( listRequest.size( ) - 1 );
+    }
+
+    /**
+     * Book a place of a slot
+     * 
+     * @param slot
+     *            the slot
+     */
+    private static void book( Slot slot )
+    {
+        slot.setNbPlacesTaken( slot.getNbPlacesTaken( ) + 1 );
+        slot.setNbRemainingPlaces( slot.getNbRemainingPlaces( ) - 1 );
+    }
+
+    /**
+     * Build the form
+     * 
+     * @return the form
+     */
+    private static AppointmentFormDTO buildForm( )
+    {
+        AppointmentFormDTO form = new AppointmentFormDTO( );
+        form.setIdForm( ID_FORM );
+        form.setTitle( "Titres d'identité" );
+        form.setIsActive( true );
+        form.setIdWorkflow( 1 );
+        form.setIdCategory( 1 );
+        form.setAddress( "Place de l'Hôtel de Ville, 75004 Paris" );
+        return form;
+    }
+
+    /**
+     * Build the slots of a day of the form, in chronological order
+     * 
+     * @return the slots
+     */
+    private static List<Slot> buildSlots( )
+    {
+        LocalDateTime firstStartingDateTime = LocalDate.now( ).plusDays( 1 ).atTime( 8, 0 );
+        List<Slot> listSlot = new ArrayList<>( NB_SLOTS );
+        for ( int i = 0; i < NB_SLOTS; i++ )
+        {
+            LocalDateTime startingDateTime = firstStartingDateTime.plusMinutes( (long) i * SLOT_MINUTES );
+            Slot slot = new Slot( );
+            slot.setIdSlot( i + 1 );
+            slot.setIdForm( ID_FORM );
+            slot.setStartingDateTime( startingDateTime );
+            slot.setEndingDateTime( startingDateTime.plusMinutes( SLOT_MINUTES ) );
+            slot.setIsOpen( true );
+            slot.setMaxCapacity( MAX_CAPACITY );
+            slot.setNbPlacesTaken( 0 );
+            slot.setNbRemainingPlaces( MAX_CAPACITY );
+            listSlot.add( slot );
+        }
+        return listSlot;
+    }
+
+    /**
+     * Loader of the slots of one form, all in memory
+     */
+    private static final class MemorySlotLoader implements ISlotLoader
+    {
+        private final AppointmentFormDTO _form;
+        private final List<Slot> _listSlot;
+
+        /**
+         * Constructor
+         * 
+         * @param form
+         *            the form
+         * @param listSlot
+         *            all the slots of the form
+         */
+        MemorySlotLoader( AppointmentFormDTO form, List<Slot> listSlot )
+        {
+            _form = form;
+            _listSlot = listSlot;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Map<Integer, List<Slot>> getSlotsByForm( List<Integer> listIdSlot )
+        {
+            List<Slot> listSlot = new ArrayList<>( );
+            for ( Slot slot : _listSlot )
+            {
+                if ( listIdSlot.contains( slot.getIdSlot( ) ) )
+                {
+                    listSlot.add( slot );
+                }
+            }
+            return Collections.singletonMap( ID_FORM, listSlot );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public AppointmentFormDTO getForm( int nIdForm )
+        {
+            return _form;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Slot> getDaySlots( int nIdForm, List<Slot> listSlot )
+        {
+            List<LocalDate> listDay = new ArrayList<>( );
+            for ( Slot slot : listSlot )
+            {
+                listDay.add( slot.getStartingDateTime( ).toLocalDate( ) );
+            }
+            List<Slot> listDaySlot = new ArrayList<>( );
+            for ( Slot slot : _listSlot )
+            {
+                if ( listDay.contains( slot.getStartingDateTime( ).toLocalDate( ) ) )
+                {
+                    listDaySlot.add( slot );
+                }
+            }
+            return listDaySlot;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public List<Slot> getAllSlots( AppointmentFormDTO appointmentForm )
+        {
+            return new ArrayList<>( _listSlot );
+        }
+    }
+}
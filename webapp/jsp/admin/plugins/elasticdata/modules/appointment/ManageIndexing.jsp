@@ -0,0 +1,9 @@
+<jsp:useBean id="manageindexing" scope="session" class="fr.paris.lutece.plugins.elasticdata.modules.appointment.web.ManageIndexingJspBean" />
+<% String strContent = manageindexing.processController( request, response ); %>
+
+<%@ page errorPage="../../../../../ErrorPage.jsp" %>
+<jsp:include page="../../../../../AdminHeader.jsp" />
+
+<%= strContent %>
+
+<%@ include file="../../../../../AdminFooter.jsp" %>